@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open_read;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_retstat;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ur;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdDecoder;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of a single request frame per request type by the
+ * {@link XrootdDecoder} of an embedded channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DecoderBenchmark {
+
+    @Param({"login", "open", "stat", "read", "readv", "write", "sync", "close", "dirlist"})
+    public String request;
+
+    /**
+     * Number of segments of a kXR_readv request.
+     */
+    @Param("64")
+    public int segments;
+
+    /**
+     * Payload size of a kXR_write request.
+     */
+    @Param("65536")
+    public int writeSize;
+
+    private EmbeddedChannel channel;
+
+    private ByteBuf frame;
+
+    @Setup
+    public void setUp() {
+        channel = new EmbeddedChannel(new XrootdDecoder());
+        switch (request) {
+            case "login":
+                frame = Frames.login("bench", 4711);
+                break;
+            case "open":
+                frame = Frames.open("/data/run1/file-00001.root?oss.asize=1048576",
+                      kXR_ur, kXR_open_read | kXR_retstat);
+                break;
+            case "stat":
+                frame = Frames.stat("/data/run1/file-00001.root");
+                break;
+            case "read":
+                frame = Frames.read(1 << 20, 1 << 20);
+                break;
+            case "readv":
+                frame = Frames.readV(segments, 4096, 65536);
+                break;
+            case "write":
+                frame = Frames.write(0, writeSize);
+                break;
+            case "sync":
+                frame = Frames.sync();
+                break;
+            case "close":
+                frame = Frames.close();
+                break;
+            case "dirlist":
+                frame = Frames.dirList("/data/run1", 0);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown request: " + request);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        frame.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public XrootdRequest decode() {
+        channel.writeInbound(frame.retainedDuplicate());
+        XrootdRequest decoded = channel.readInbound();
+        ReferenceCountUtil.release(decoded);
+        return decoded;
+    }
+}
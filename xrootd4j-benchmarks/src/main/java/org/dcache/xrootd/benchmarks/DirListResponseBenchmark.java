@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_dstat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.DirListRequest;
+import org.dcache.xrootd.protocol.messages.DirListResponse;
+import org.dcache.xrootd.util.FileStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a {@link DirListResponse} and encoding it by the
+ * {@link XrootdEncoder} of an embedded channel, with and without
+ * kXR_dstat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DirListResponseBenchmark {
+
+    @Param({"100", "1000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean stat;
+
+    private EmbeddedChannel channel;
+
+    private DirListRequest request;
+
+    private String[] names;
+
+    private FileStatus[] status;
+
+    @Setup
+    public void setUp() {
+        channel = new EmbeddedChannel(new XrootdEncoder());
+        ByteBuf frame = Frames.dirList("/data/run1", stat ? kXR_dstat : 0);
+        request = new DirListRequest(frame);
+        frame.release();
+        names = new String[entries];
+        status = new FileStatus[entries];
+        for (int i = 0; i < entries; i++) {
+            names[i] = String.format("file-%05d.root", i);
+            status[i] = new FileStatus(i, 1L << 30, 0, 1600000000000L + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int encode() {
+        DirListResponse.Builder builder = DirListResponse.builder(request);
+        for (int i = 0; i < entries; i++) {
+            builder.add(names[i], status[i]);
+        }
+        channel.writeOutbound(builder.buildFinal());
+        ByteBuf out = channel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.CLIENT_REQUEST_LEN;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_close;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_dirlist;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_login;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_read;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sigver;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sync;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
+import static org.dcache.xrootd.protocol.messages.SigverRequest.SIGVER_VERSION;
+import static org.dcache.xrootd.protocol.messages.SigverRequest.kXR_SHA256;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_nodata;
+
+import com.google.common.primitives.Longs;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Builds client request frames as received from the wire.
+ *
+ * Frames are allocated from the pooled direct allocator, like the buffers
+ * handed to the decoder by a socket channel, and must be released by the
+ * caller.
+ */
+final class Frames {
+
+    static final int STREAM_ID = 1;
+
+    static final int FILE_HANDLE = 0;
+
+    private Frames() {
+    }
+
+    static ByteBuf login(String username, int pid) {
+        ByteBuf frame = header(kXR_login, 0);
+        frame.setInt(4, pid);
+        byte[] name = username.getBytes(US_ASCII);
+        frame.setBytes(8, name, 0, Math.min(name.length, 8));
+        frame.setByte(18, 5);
+        return frame;
+    }
+
+    static ByteBuf open(String path, int mode, int options) {
+        ByteBuf frame = withPath(kXR_open, path);
+        frame.setShort(4, mode);
+        frame.setShort(6, options);
+        return frame;
+    }
+
+    static ByteBuf stat(String path) {
+        return withPath(kXR_stat, path);
+    }
+
+    static ByteBuf dirList(String path, int options) {
+        ByteBuf frame = withPath(kXR_dirlist, path);
+        frame.setByte(19, options);
+        return frame;
+    }
+
+    static ByteBuf read(long offset, int length) {
+        ByteBuf frame = header(kXR_read, 0);
+        frame.setInt(4, FILE_HANDLE);
+        frame.setLong(8, offset);
+        frame.setInt(16, length);
+        return frame;
+    }
+
+    /**
+     * Returns a kXR_readv request for {@code segments} segments of
+     * {@code length} bytes each, spaced {@code stride} bytes apart.
+     */
+    static ByteBuf readV(int segments, int length, int stride) {
+        ByteBuf frame = header(kXR_readv, segments * 16);
+        for (int i = 0; i < segments; i++) {
+            frame.writeInt(FILE_HANDLE);
+            frame.writeInt(length);
+            frame.writeLong((long) i * stride);
+        }
+        return frame;
+    }
+
+    static ByteBuf write(long offset, int length) {
+        ByteBuf frame = header(kXR_write, length);
+        frame.setInt(4, FILE_HANDLE);
+        frame.setLong(8, offset);
+        byte[] data = new byte[length];
+        ThreadLocalRandom.current().nextBytes(data);
+        frame.writeBytes(data);
+        return frame;
+    }
+
+    static ByteBuf sync() {
+        ByteBuf frame = header(kXR_sync, 0);
+        frame.setInt(4, FILE_HANDLE);
+        return frame;
+    }
+
+    static ByteBuf close() {
+        ByteBuf frame = header(kXR_close, 0);
+        frame.setInt(4, FILE_HANDLE);
+        return frame;
+    }
+
+    /**
+     * Returns the kXR_sigver request signing {@code request} with the given
+     * sequence number.  Only the header of a kXR_write request is signed.
+     */
+    static ByteBuf sigver(ByteBuf request, long seqno) throws NoSuchAlgorithmException {
+        int requestId = request.getUnsignedShort(2);
+        int flags = requestId == kXR_write ? kXR_nodata : 0;
+        int length = requestId == kXR_write ? CLIENT_REQUEST_LEN : request.readableBytes();
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(Longs.toByteArray(seqno));
+        digest.update(ByteBufUtil.getBytes(request, request.readerIndex(), length));
+        byte[] signature = digest.digest();
+
+        ByteBuf frame = header(kXR_sigver, signature.length);
+        frame.setShort(4, requestId);
+        frame.setByte(6, SIGVER_VERSION);
+        frame.setByte(7, flags);
+        frame.setLong(8, seqno);
+        frame.setByte(16, kXR_SHA256);
+        frame.writeBytes(signature);
+        return frame;
+    }
+
+    private static ByteBuf withPath(int requestId, String path) {
+        byte[] bytes = path.getBytes(US_ASCII);
+        ByteBuf frame = header(requestId, bytes.length);
+        frame.writeBytes(bytes);
+        return frame;
+    }
+
+    /**
+     * Allocates a frame of the given payload length and writes its header;
+     * the request parameters are zero.
+     */
+    private static ByteBuf header(int requestId, int dlen) {
+        ByteBuf frame = PooledByteBufAllocator.DEFAULT.directBuffer(CLIENT_REQUEST_LEN + dlen);
+        frame.writeShort(STREAM_ID);
+        frame.writeShort(requestId);
+        frame.writeZero(16);
+        frame.writeInt(dlen);
+        return frame;
+    }
+}
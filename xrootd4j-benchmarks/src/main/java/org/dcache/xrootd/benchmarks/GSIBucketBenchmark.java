@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.CRYPTO_MODE;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.PROTOCOL;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.PROTOCOL_VERSION;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SUPPORTED_CIPHER_ALGORITHM;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SUPPORTED_DIGESTS;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_cipher_alg;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_cryptomod;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_main;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_md_alg;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_puk;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_rtag;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_version;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType.kXRS_x509;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXGC_cert;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.plugins.authn.gsi.GSIBucket;
+import org.dcache.xrootd.plugins.authn.gsi.GSIBucketUtils;
+import org.dcache.xrootd.plugins.authn.gsi.GSIBucketUtils.BucketSerializer;
+import org.dcache.xrootd.plugins.authn.gsi.GSIBucketUtils.BucketSerializerBuilder;
+import org.dcache.xrootd.plugins.authn.gsi.NestedBucketBuffer;
+import org.dcache.xrootd.plugins.authn.gsi.StringBucket;
+import org.dcache.xrootd.plugins.authn.gsi.UnsignedIntBucket;
+import org.dcache.xrootd.security.XrootdSecurityProtocol.BucketType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization of GSI buckets by
+ * {@link GSIBucketUtils}.
+ *
+ * The message resembles the kXGC_cert step of a client: a main bucket
+ * nesting the proxy certificate chain and the public key, surrounded by
+ * the negotiated algorithms.  Certificates are random PEM-sized strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GSIBucketBenchmark {
+
+    private static final int CERTIFICATE_SIZE = 1400;
+
+    /**
+     * Number of certificates in the chain.
+     */
+    @Param({"1", "3"})
+    public int chain;
+
+    private BucketSerializer serializer;
+
+    private int length;
+
+    private ByteBuf serialized;
+
+    @Setup
+    public void setUp() {
+        Map<BucketType, GSIBucket> nested = new EnumMap<>(BucketType.class);
+        nested.put(kXRS_rtag, new StringBucket(kXRS_rtag, pem(8)));
+        nested.put(kXRS_puk, new StringBucket(kXRS_puk, pem(400)));
+        nested.put(kXRS_x509, new StringBucket(kXRS_x509, pem(chain * CERTIFICATE_SIZE)));
+        List<GSIBucket> buckets = Arrays.asList(
+              new StringBucket(kXRS_cryptomod, CRYPTO_MODE),
+              new UnsignedIntBucket(kXRS_version, PROTOCOL_VERSION),
+              new NestedBucketBuffer(kXRS_main, PROTOCOL, kXGC_cert, nested),
+              new StringBucket(kXRS_cipher_alg, SUPPORTED_CIPHER_ALGORITHM),
+              new StringBucket(kXRS_md_alg, SUPPORTED_DIGESTS));
+
+        serializer = new BucketSerializerBuilder()
+              .withProtocol(PROTOCOL)
+              .withStep(kXGC_cert)
+              .withBuckets(buckets)
+              .build();
+        length = 12 + buckets.stream().mapToInt(GSIBucket::getSize).sum();
+        serialized = PooledByteBufAllocator.DEFAULT.buffer(length);
+        serializer.accept(serialized);
+    }
+
+    @TearDown
+    public void tearDown() {
+        serialized.release();
+    }
+
+    @Benchmark
+    public int serialize() {
+        ByteBuf buffer = PooledByteBufAllocator.DEFAULT.buffer(length);
+        serializer.accept(buffer);
+        int written = buffer.readableBytes();
+        buffer.release();
+        return written;
+    }
+
+    @Benchmark
+    public NestedBucketBuffer deserialize() throws IOException {
+        return GSIBucketUtils.deserializeNested(kXRS_main, serialized.duplicate());
+    }
+
+    private static String pem(int bytes) {
+        byte[] der = new byte[bytes];
+        ThreadLocalRandom.current().nextBytes(der);
+        return Base64.getMimeEncoder().encodeToString(der);
+    }
+}
@@ -0,0 +1,593 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static io.netty.channel.ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE;
+import static org.dcache.xrootd.protocol.XrootdProtocol.PROTOCOL_VERSION;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ExpLogin;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_asynresp;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_close;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_delete;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_handshake;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_login;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open_updt;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_protocol;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_read;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_secreqs;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_wait;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_waitresp;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.benchmarks.LoadGenerator.Metrics;
+import org.dcache.xrootd.benchmarks.LoadGenerator.Workload;
+import org.dcache.xrootd.tpc.core.XrootdClientDecoder;
+import org.dcache.xrootd.tpc.core.XrootdClientEncoder;
+import org.dcache.xrootd.tpc.protocol.messages.AbstractInboundWaitResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundAttnResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundErrorResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundLoginResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundOpenReadOnlyResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundReadResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundReadVResponse;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundAuthenticationRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundCloseRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundHandshakeRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundLoginRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundOpenReadOnlyRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundOpenRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundProtocolRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundReadRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundReadVRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundStatRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundWriteRequest;
+import org.dcache.xrootd.tpc.protocol.messages.XrootdInboundResponse;
+import org.dcache.xrootd.tpc.protocol.messages.XrootdOutboundRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A connection of the {@link LoadGenerator}.
+ *
+ * The session is set up on stream 0 by a handshake, a kXR_protocol, a
+ * kXR_login and, if needed, an empty kXR_auth request; the server must
+ * use the none authentication plugin and must not require signed
+ * requests.  Every other stream then runs its workload in a closed
+ * loop, sending the next request once the response to the previous one
+ * is complete.  Streams are thus pipelined on the connection, with one
+ * outstanding request each.
+ *
+ * Except for {@link #connect} and {@link #close}, all methods run on the
+ * event loop of the channel.
+ */
+final class LoadConnection extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadConnection.class);
+
+    private static final int SESSION_STREAM = 0;
+
+    /**
+     * Milliseconds before a stream continues after a failed request.
+     */
+    private static final long RETRY_DELAY = 100;
+
+    private final LoadGenerator generator;
+    private final int pid;
+
+    /**
+     * The type of the outstanding request of each stream.
+     */
+    private final int[] expected;
+    private final Stream[] streams;
+    private final CompletableFuture<Void> session = new CompletableFuture<>();
+
+    private volatile Channel channel;
+
+    LoadConnection(LoadGenerator generator, int pid, List<Workload> workloads) {
+        this.generator = generator;
+        this.pid = pid;
+        expected = new int[workloads.size() + 1];
+        streams = new Stream[workloads.size()];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = newStream(i + 1, workloads.get(i));
+        }
+    }
+
+    /**
+     * Connects to the server.
+     *
+     * @return a future completing once the session has been established
+     */
+    CompletableFuture<Void> connect(EventLoopGroup group, InetSocketAddress address) {
+        new Bootstrap()
+              .group(group)
+              .channel(NioSocketChannel.class)
+              .option(ChannelOption.TCP_NODELAY, true)
+              .handler(new ChannelInitializer<Channel>() {
+                  @Override
+                  protected void initChannel(Channel ch) {
+                      ch.pipeline().addLast("decoder", new Decoder(address.toString()));
+                      ch.pipeline().addLast("encoder", new XrootdClientEncoder());
+                      ch.pipeline().addLast("load", LoadConnection.this);
+                  }
+              })
+              .connect(address)
+              .addListener((ChannelFuture future) -> {
+                  if (!future.isSuccess()) {
+                      session.completeExceptionally(future.cause());
+                  }
+              });
+        return session;
+    }
+
+    void close() {
+        Channel channel = this.channel;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        channel = ctx.channel();
+        send(SESSION_STREAM, kXR_handshake, new OutboundHandshakeRequest());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (!session.completeExceptionally(new IOException("Connection closed by server."))
+              && generator.isRunning()) {
+            LOGGER.error("Connection {} closed by server.", pid);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable t) {
+        if (ctx.channel().isActive()) {
+            LOGGER.error("Connection {} failed: {}", pid, t.toString());
+        }
+        session.completeExceptionally(t);
+        ctx.close();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            if (msg instanceof InboundAttnResponse) {
+                InboundAttnResponse response = (InboundAttnResponse) msg;
+                if (response.getActnum() == kXR_asynresp) {
+                    getStream(response.getrStreamId()).onAsyncResponse(response);
+                }
+            } else {
+                XrootdInboundResponse response = (XrootdInboundResponse) msg;
+                if (response.getStreamId() == SESSION_STREAM) {
+                    onSessionResponse(response);
+                } else {
+                    getStream(response.getStreamId()).onResponse(response);
+                }
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private Stream getStream(int id) throws IOException {
+        if (id <= SESSION_STREAM || id > streams.length) {
+            throw new IOException("Response on unknown stream " + id);
+        }
+        return streams[id - 1];
+    }
+
+    private void onSessionResponse(XrootdInboundResponse response) throws IOException {
+        if (response.getStatus() != kXR_ok) {
+            throw new IOException("Session setup failed: " + describe(response));
+        }
+        switch (expected[SESSION_STREAM]) {
+            case kXR_handshake:
+                send(SESSION_STREAM, kXR_protocol, new OutboundProtocolRequest(SESSION_STREAM,
+                      PROTOCOL_VERSION, kXR_secreqs, kXR_ExpLogin));
+                break;
+            case kXR_protocol:
+                send(SESSION_STREAM, kXR_login,
+                      new OutboundLoginRequest(SESSION_STREAM, pid, "load", null));
+                break;
+            case kXR_login:
+                /* The none plugin advertises itself as unix and accepts any credential. */
+                if (((InboundLoginResponse) response).getProtocols().stream()
+                      .anyMatch(p -> !p.getProtocol().equals("unix"))) {
+                    throw new IOException("Server requires authentication.");
+                }
+                if (((InboundLoginResponse) response).getProtocols().isEmpty()) {
+                    start();
+                } else {
+                    send(SESSION_STREAM, kXR_auth,
+                          new OutboundAuthenticationRequest(SESSION_STREAM, "unix", 0, b -> {
+                          }));
+                }
+                break;
+            case kXR_auth:
+                start();
+                break;
+        }
+    }
+
+    private void start() {
+        session.complete(null);
+        for (Stream stream : streams) {
+            stream.next();
+        }
+    }
+
+    private void send(int stream, int requestId, XrootdOutboundRequest request) {
+        expected[stream] = requestId;
+        channel.writeAndFlush(request).addListener(FIRE_EXCEPTION_ON_FAILURE);
+    }
+
+    private static String describe(XrootdInboundResponse response) {
+        if (response instanceof InboundErrorResponse) {
+            InboundErrorResponse error = (InboundErrorResponse) response;
+            return "[" + error.getError() + "] " + error.getErrorMessage();
+        }
+        return "status " + response.getStatus();
+    }
+
+    private Stream newStream(int id, Workload workload) {
+        switch (workload) {
+            case READ:
+                return new SequentialRead(id);
+            case READV:
+                return new SparseReadV(id);
+            case STAT:
+                return new StatStorm(id);
+            case WRITE:
+                return new Upload(id);
+            default:
+                throw new IllegalArgumentException("Unknown workload: " + workload);
+        }
+    }
+
+    private String randomPath() {
+        List<String> paths = generator.getPaths();
+        return paths.get(ThreadLocalRandom.current().nextInt(paths.size()));
+    }
+
+    /**
+     * A stream running a workload.  Opens and closes are not measured.
+     */
+    private abstract class Stream {
+
+        protected final int id;
+        protected final Metrics metrics;
+
+        private long started;
+        private boolean isMeasured;
+        private long bytes;
+
+        Stream(int id, Workload workload) {
+            this.id = id;
+            this.metrics = generator.getMetrics(workload);
+        }
+
+        /**
+         * Sends the next request, unless the generator has been stopped.
+         */
+        void next() {
+            if (generator.isRunning()) {
+                sendNext();
+            }
+        }
+
+        protected abstract void sendNext();
+
+        /**
+         * Called when the response to the outstanding request is complete.
+         */
+        protected abstract void onSuccess(XrootdInboundResponse response);
+
+        /**
+         * Called when the outstanding request failed.  The stream
+         * continues after a delay.
+         */
+        protected void onFailure() {
+        }
+
+        protected void send(int requestId, XrootdOutboundRequest request, boolean isMeasured) {
+            this.isMeasured = isMeasured;
+            bytes = 0;
+            started = System.nanoTime();
+            LoadConnection.this.send(id, requestId, request);
+        }
+
+        protected void send(int requestId, XrootdOutboundRequest request, boolean isMeasured,
+              long bytes) {
+            send(requestId, request, isMeasured);
+            this.bytes = bytes;
+        }
+
+        void onResponse(XrootdInboundResponse response) {
+            switch (response.getStatus()) {
+                case kXR_ok:
+                    bytes += payloadOf(response);
+                    complete();
+                    onSuccess(response);
+                    break;
+                case kXR_oksofar:
+                    bytes += payloadOf(response);
+                    break;
+                case kXR_waitresp:
+                    /* An asynchronous response follows. */
+                    break;
+                case kXR_wait:
+                    channel.eventLoop().schedule(this::next,
+                          ((AbstractInboundWaitResponse) response).getMaxWaitInSeconds(),
+                          TimeUnit.SECONDS);
+                    break;
+                default:
+                    fail(describe(response));
+                    break;
+            }
+        }
+
+        /**
+         * Asynchronous responses carry the status and payload of the
+         * response in the attention; their payload is not decoded.
+         */
+        void onAsyncResponse(InboundAttnResponse response) {
+            byte[] data = response.getrData();
+            if (response.getrStat() != kXR_ok) {
+                fail("asynchronous status " + response.getrStat());
+            } else if (expected[id] == kXR_open) {
+                fail("asynchronous open response");
+            } else {
+                bytes += data == null ? 0 : data.length;
+                complete();
+                onSuccess(null);
+            }
+        }
+
+        private void complete() {
+            if (isMeasured) {
+                metrics.latency.record(
+                      TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+                metrics.bytes.add(bytes);
+            }
+        }
+
+        private void fail(String error) {
+            LOGGER.debug("Request on stream {} of connection {} failed: {}", id, pid, error);
+            metrics.errors.increment();
+            onFailure();
+            channel.eventLoop().schedule(this::next, RETRY_DELAY, TimeUnit.MILLISECONDS);
+        }
+
+        private long payloadOf(XrootdInboundResponse response) {
+            if (response instanceof InboundReadResponse) {
+                return ((InboundReadResponse) response).getDlen();
+            }
+            if (response instanceof InboundReadVResponse) {
+                InboundReadVResponse readv = (InboundReadVResponse) response;
+                long length = 0;
+                for (int i = 0; i < readv.getSegmentCount(); i++) {
+                    length += readv.getSegmentLength(i);
+                }
+                return length;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Reads random files from start to end with kXR_read requests of the
+     * block size.
+     */
+    private class SequentialRead extends Stream {
+
+        private int fhandle = -1;
+        private long offset;
+
+        SequentialRead(int id) {
+            super(id, Workload.READ);
+        }
+
+        @Override
+        protected void sendNext() {
+            if (fhandle < 0) {
+                send(kXR_open, new OutboundOpenReadOnlyRequest(id, randomPath()), false);
+            } else if (offset >= generator.getFileSize()) {
+                send(kXR_close, new OutboundCloseRequest(id, fhandle), false);
+                fhandle = -1;
+            } else {
+                send(kXR_read, new OutboundReadRequest(id, fhandle, offset,
+                      generator.getBlockSize()), true);
+                offset += generator.getBlockSize();
+            }
+        }
+
+        @Override
+        protected void onSuccess(XrootdInboundResponse response) {
+            if (response instanceof InboundOpenReadOnlyResponse) {
+                fhandle = ((InboundOpenReadOnlyResponse) response).getFhandle();
+                offset = 0;
+            }
+            next();
+        }
+
+        @Override
+        protected void onFailure() {
+            fhandle = -1;
+        }
+    }
+
+    /**
+     * Reads {@code segments} random, segment aligned regions of a random
+     * file with each kXR_readv request.  The file is kept open.
+     */
+    private class SparseReadV extends Stream {
+
+        private int fhandle = -1;
+
+        SparseReadV(int id) {
+            super(id, Workload.READV);
+        }
+
+        @Override
+        protected void sendNext() {
+            if (fhandle < 0) {
+                send(kXR_open, new OutboundOpenReadOnlyRequest(id, randomPath()), false);
+                return;
+            }
+            int count = generator.getSegments();
+            int length = generator.getSegmentSize();
+            long slots = Math.max(1, generator.getFileSize() / length);
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < count; i++) {
+                offsets[i] = random.nextLong(slots) * length;
+                lengths[i] = length;
+            }
+            send(kXR_readv, new OutboundReadVRequest(id, fhandle, offsets, lengths), true);
+        }
+
+        @Override
+        protected void onSuccess(XrootdInboundResponse response) {
+            if (response instanceof InboundOpenReadOnlyResponse) {
+                fhandle = ((InboundOpenReadOnlyResponse) response).getFhandle();
+            }
+            next();
+        }
+
+        @Override
+        protected void onFailure() {
+            fhandle = -1;
+        }
+    }
+
+    /**
+     * Stats random files.
+     */
+    private class StatStorm extends Stream {
+
+        StatStorm(int id) {
+            super(id, Workload.STAT);
+        }
+
+        @Override
+        protected void sendNext() {
+            send(kXR_stat, new OutboundStatRequest(id, randomPath()), true);
+        }
+
+        @Override
+        protected void onSuccess(XrootdInboundResponse response) {
+            next();
+        }
+    }
+
+    /**
+     * Repeatedly uploads a file of the configured size with kXR_write
+     * requests of the block size.  Each stream truncates and rewrites its
+     * own file.
+     */
+    private class Upload extends Stream {
+
+        private final String path;
+
+        private int fhandle = -1;
+        private long offset;
+
+        Upload(int id) {
+            super(id, Workload.WRITE);
+            path = "/upload-" + pid + "-" + id;
+        }
+
+        @Override
+        protected void sendNext() {
+            if (fhandle < 0) {
+                send(kXR_open, new OutboundOpenRequest(id, path, kXR_open_updt | kXR_delete),
+                      false);
+            } else if (offset >= generator.getFileSize()) {
+                send(kXR_close, new OutboundCloseRequest(id, fhandle), false);
+                fhandle = -1;
+            } else {
+                ByteBuf data = generator.getBlock();
+                int length = (int) Math.min(data.readableBytes(),
+                      generator.getFileSize() - offset);
+                send(kXR_write, new OutboundWriteRequest(id, fhandle, offset,
+                      data.retainedSlice(data.readerIndex(), length)), true, length);
+                offset += length;
+            }
+        }
+
+        @Override
+        protected void onSuccess(XrootdInboundResponse response) {
+            if (response instanceof InboundOpenReadOnlyResponse) {
+                fhandle = ((InboundOpenReadOnlyResponse) response).getFhandle();
+                offset = 0;
+            }
+            next();
+        }
+
+        @Override
+        protected void onFailure() {
+            fhandle = -1;
+        }
+    }
+
+    /**
+     * Decodes responses according to the outstanding request of their
+     * stream.
+     */
+    private class Decoder extends XrootdClientDecoder {
+
+        Decoder(String sourceUrn) {
+            super(sourceUrn);
+        }
+
+        @Override
+        protected int getExpectedResponse(ByteBuf frame) {
+            int stream = frame.getUnsignedShort(0);
+            return stream < expected.length ? expected[stream] : -1;
+        }
+
+        @Override
+        protected void onError(ChannelHandlerContext ctx, Exception e) {
+            ctx.fireExceptionCaught(e);
+        }
+    }
+}
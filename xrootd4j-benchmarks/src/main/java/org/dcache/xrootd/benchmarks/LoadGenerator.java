@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static java.util.Arrays.asList;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.dcache.xrootd.util.LatencyHistogram;
+
+/**
+ * Drives the data server with a mix of workloads over many connections
+ * and streams, and reports throughput and latency percentiles per
+ * workload.
+ *
+ * The server runs in-process on the loopback interface and serves a set
+ * of generated files.  Each of the N connections carries M streams; each
+ * stream runs one workload in a closed loop, so the offered load is
+ * N * M outstanding requests.  Streams are assigned to workloads in
+ * proportion to the weights of the mix.
+ *
+ * The workloads are
+ * <ul>
+ *     <li>read: sequential kXR_read of whole files,</li>
+ *     <li>readv: kXR_readv of random, sparse segments,</li>
+ *     <li>stat: kXR_stat of random files,</li>
+ *     <li>write: sequential kXR_write of whole files.</li>
+ * </ul>
+ * Latency is measured from sending a request until its response is
+ * complete; opens and closes are not measured.
+ */
+public class LoadGenerator {
+
+    enum Workload {
+        READ, READV, STAT, WRITE
+    }
+
+    static final class Metrics {
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    private final Map<Workload, Metrics> metrics = new EnumMap<>(Workload.class);
+    private final List<String> paths;
+    private final long fileSize;
+    private final ByteBuf block;
+    private final int segments;
+    private final int segmentSize;
+
+    private volatile boolean isRunning = true;
+
+    LoadGenerator(List<String> paths, long fileSize, int blockSize, int segments,
+          int segmentSize) {
+        this.paths = paths;
+        this.fileSize = fileSize;
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        byte[] data = new byte[blockSize];
+        ThreadLocalRandom.current().nextBytes(data);
+        block = Unpooled.unreleasableBuffer(
+              Unpooled.directBuffer(blockSize).writeBytes(data));
+        for (Workload workload : Workload.values()) {
+            metrics.put(workload, new Metrics());
+        }
+    }
+
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    void stop() {
+        isRunning = false;
+    }
+
+    Metrics getMetrics(Workload workload) {
+        return metrics.get(workload);
+    }
+
+    List<String> getPaths() {
+        return paths;
+    }
+
+    long getFileSize() {
+        return fileSize;
+    }
+
+    int getBlockSize() {
+        return block.readableBytes();
+    }
+
+    /**
+     * Returns the payload of write requests.  It must not be modified.
+     */
+    ByteBuf getBlock() {
+        return block;
+    }
+
+    int getSegments() {
+        return segments;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Assigns the streams to workloads in proportion to the weights of
+     * the mix, using the largest remainder method.
+     */
+    static List<Workload> assign(Map<Workload, Integer> mix, int streams) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (total <= 0) {
+            throw new IllegalArgumentException("The mix must have a positive weight.");
+        }
+        List<Workload> assigned = new ArrayList<>(streams);
+        Map<Workload, Double> remainders = new EnumMap<>(Workload.class);
+        for (Map.Entry<Workload, Integer> e : mix.entrySet()) {
+            double share = (double) streams * e.getValue() / total;
+            assigned.addAll(Collections.nCopies((int) share, e.getKey()));
+            remainders.put(e.getKey(), share - (int) share);
+        }
+        remainders.entrySet().stream()
+              .sorted(Map.Entry.<Workload, Double>comparingByValue().reversed())
+              .limit(streams - assigned.size())
+              .forEach(e -> assigned.add(e.getKey()));
+        Collections.shuffle(assigned, ThreadLocalRandom.current());
+        return assigned;
+    }
+
+    static Map<Workload, Integer> parseMix(String mix) {
+        Map<Workload, Integer> weights = new EnumMap<>(Workload.class);
+        for (String element : mix.split(",")) {
+            String[] parts = element.split(":", 2);
+            Workload workload = Workload.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+            int weight = parts.length == 2 ? Integer.parseInt(parts[1].trim()) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + parts[0]);
+            }
+            weights.put(workload, weight);
+        }
+        return weights;
+    }
+
+    private void reset() {
+        for (Metrics m : metrics.values()) {
+            m.latency.reset();
+            m.bytes.reset();
+            m.errors.reset();
+        }
+    }
+
+    private void report(List<Workload> assigned, double seconds) {
+        System.out.printf("%-6s %8s %10s %10s %10s %9s %9s %9s %9s %8s%n",
+              "load", "streams", "ops", "ops/s", "MiB/s",
+              "p50[ms]", "p99[ms]", "p999[ms]", "max[ms]", "errors");
+        for (Workload workload : Workload.values()) {
+            long streams = assigned.stream().filter(workload::equals).count();
+            if (streams == 0) {
+                continue;
+            }
+            Metrics m = metrics.get(workload);
+            LatencyHistogram latency = m.latency.snapshotAndReset();
+            System.out.printf("%-6s %8d %10d %10.1f %10.2f %9.3f %9.3f %9.3f %9.3f %8d%n",
+                  workload.name().toLowerCase(Locale.ROOT), streams, latency.getCount(),
+                  latency.getCount() / seconds, m.bytes.sum() / seconds / (1 << 20),
+                  latency.getValueAtPercentile(50) / 1000.0,
+                  latency.getValueAtPercentile(99) / 1000.0,
+                  latency.getValueAtPercentile(99.9) / 1000.0, latency.getMax() / 1000.0,
+                  m.errors.sum());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Void> help = parser.acceptsAll(asList("h", "?", "help"), "show help");
+        OptionSpec<Integer> connections = parser.acceptsAll(asList("connections"),
+                    "number of connections")
+              .withRequiredArg()
+              .describedAs("count")
+              .ofType(Integer.class)
+              .defaultsTo(4);
+        OptionSpec<Integer> streams = parser.acceptsAll(asList("streams"),
+                    "concurrent streams on each connection")
+              .withRequiredArg()
+              .describedAs("count")
+              .ofType(Integer.class)
+              .defaultsTo(8);
+        OptionSpec<String> mix = parser.acceptsAll(asList("mix"),
+                    "relative weights of the read, readv, stat and write workloads")
+              .withRequiredArg()
+              .describedAs("workload:weight,...")
+              .defaultsTo("read:1,readv:1,stat:1,write:1");
+        OptionSpec<Long> duration = parser.acceptsAll(asList("duration"),
+                    "length of the measurement")
+              .withRequiredArg()
+              .describedAs("seconds")
+              .ofType(Long.class)
+              .defaultsTo(30L);
+        OptionSpec<Long> warmup = parser.acceptsAll(asList("warmup"),
+                    "unreported load before measuring")
+              .withRequiredArg()
+              .describedAs("seconds")
+              .ofType(Long.class)
+              .defaultsTo(5L);
+        OptionSpec<Integer> files = parser.acceptsAll(asList("files"),
+                    "number of files read by the read, readv and stat workloads")
+              .withRequiredArg()
+              .describedAs("count")
+              .ofType(Integer.class)
+              .defaultsTo(16);
+        OptionSpec<Long> fileSize = parser.acceptsAll(asList("file-size"),
+                    "size of read and written files")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Long.class)
+              .defaultsTo(16L << 20);
+        OptionSpec<Integer> blockSize = parser.acceptsAll(asList("block"),
+                    "bytes transferred by each kXR_read and kXR_write")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .defaultsTo(1 << 20);
+        OptionSpec<Integer> segments = parser.acceptsAll(asList("segments"),
+                    "segments of each kXR_readv")
+              .withRequiredArg()
+              .describedAs("count")
+              .ofType(Integer.class)
+              .defaultsTo(32);
+        OptionSpec<Integer> segmentSize = parser.acceptsAll(asList("segment-size"),
+                    "bytes of each kXR_readv segment")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .defaultsTo(4096);
+        OptionSpec<File> root = parser.acceptsAll(asList("root"),
+                    "scratch directory, a temporary directory by default")
+              .withRequiredArg()
+              .describedAs("path")
+              .ofType(File.class);
+
+        OptionSet options;
+        Map<Workload, Integer> weights;
+        try {
+            options = parser.parse(args);
+            weights = parseMix(options.valueOf(mix));
+        } catch (OptionException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Try --help for more information.");
+            System.exit(2);
+            return;
+        }
+        if (options.has(help)) {
+            System.out.println("Usage: LoadGenerator [options] [-- data server options]");
+            parser.printHelpOn(System.out);
+            return;
+        }
+
+        File dir = options.has(root) ? options.valueOf(root)
+              : Files.createTempDirectory("xrootd4j-load").toFile();
+        List<String> serverArgs = new ArrayList<>();
+        for (Object arg : options.nonOptionArguments()) {
+            serverArgs.add(arg.toString());
+        }
+
+        LoopbackServer server = new LoopbackServer(dir);
+        server.start(serverArgs);
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < options.valueOf(files); i++) {
+            paths.add("/" + server.createFile("load-" + i, options.valueOf(fileSize)).getName());
+        }
+
+        int streamsPerConnection = options.valueOf(streams);
+        List<Workload> assigned = assign(weights,
+              options.valueOf(connections) * streamsPerConnection);
+        LoadGenerator generator = new LoadGenerator(paths, options.valueOf(fileSize),
+              options.valueOf(blockSize), options.valueOf(segments),
+              options.valueOf(segmentSize));
+
+        NioEventLoopGroup group = new NioEventLoopGroup();
+        List<LoadConnection> clients = new ArrayList<>();
+        try {
+            InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+            List<CompletableFuture<Void>> sessions = new ArrayList<>();
+            for (int i = 0; i < options.valueOf(connections); i++) {
+                LoadConnection client = new LoadConnection(generator, i,
+                      assigned.subList(i * streamsPerConnection,
+                            (i + 1) * streamsPerConnection));
+                clients.add(client);
+                sessions.add(client.connect(group, address));
+            }
+            try {
+                CompletableFuture.allOf(sessions.toArray(new CompletableFuture[0]))
+                      .get(30, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                System.err.println("Failed to establish sessions: " + cause);
+                System.exit(1);
+            }
+
+            TimeUnit.SECONDS.sleep(options.valueOf(warmup));
+            generator.reset();
+            long start = System.nanoTime();
+            TimeUnit.SECONDS.sleep(options.valueOf(duration));
+            generator.report(assigned, (System.nanoTime() - start) / 1e9);
+        } finally {
+            generator.stop();
+            clients.forEach(LoadConnection::close);
+            group.shutdownGracefully();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static java.util.Arrays.asList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.standalone.DataServer;
+import org.dcache.xrootd.standalone.DataServerConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Standalone data server running in the benchmark's JVM and serving
+ * files from a scratch directory on a free loopback port.
+ */
+final class LoopbackServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoopbackServer.class);
+
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    private final File root;
+    private final int port;
+
+    LoopbackServer(File root) throws IOException {
+        this.root = root;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * Starts the data server, returning once it accepts connections.
+     *
+     * @param serverArgs additional data server options
+     */
+    void start(List<String> serverArgs) throws Exception {
+        List<String> args = new ArrayList<>(serverArgs);
+        args.addAll(asList("--port", String.valueOf(port), "--root", root.getPath()));
+        DataServerConfiguration configuration =
+              DataServer.loadConfiguration(args.toArray(new String[0]));
+        Thread thread = new Thread(() -> {
+            try {
+                new DataServer(configuration).start();
+            } catch (Exception e) {
+                LOGGER.error("Data server failed: {}", e.toString());
+            }
+        }, "server");
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port));
+                return;
+            } catch (IOException e) {
+                if (!thread.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("Data server did not start: " + e.getMessage());
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Creates a file of random content below the root directory, unless a
+     * file of that size exists.
+     */
+    File createFile(String name, long size) throws IOException {
+        File file = new File(root, name);
+        if (file.length() == size) {
+            return file;
+        }
+        byte[] block = new byte[BLOCK_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            for (long written = 0; written < size; written += block.length) {
+                ThreadLocalRandom.current().nextBytes(block);
+                raf.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+}
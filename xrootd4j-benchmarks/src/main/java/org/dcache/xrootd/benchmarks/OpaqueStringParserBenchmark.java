@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.util.OpaqueStringParser;
+import org.dcache.xrootd.util.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and building of opaque strings by {@link OpaqueStringParser}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OpaqueStringParserBenchmark {
+
+    private static final Map<String, String> OPAQUE = ImmutableMap.of(
+          "open", "?oss.asize=1048576",
+          "tpc", "?tpc.key=5b1a4f5e-7c0d-4a2e-9b6c-2f1e0d3c4b5a"
+                + "&tpc.src=source.example.org:1094&tpc.stage=copy"
+                + "&tpc.lfn=/data/run1/file-00001.root&tpc.dlg=xrootd.example.org"
+                + "&oss.asize=1048576&xrd.gsiusrpxy=/tmp/x509up_u1000",
+          "token", "?authz=Bearer%20eyJhbGciOiJFUzI1NiIsInR5cCI6IkpXVCJ9"
+                + ".eyJzdWIiOiJiZW5jaG1hcmsiLCJzY29wZSI6InN0b3JhZ2UucmVhZDovZGF0YSIs"
+                + "ImF1ZCI6Imh0dHBzOi8vd2xjZy5jZXJuLmNoL2p3dC92MS9hbnkiLCJleHAiOjE3MDAwMDAwMDB9"
+                + ".MEUCIQDZ2w9gQ6pRjzL0kWl9l2bB3k6V5wq6H0aG7oY4wq2YyQIgY0Ykz2YV&oss.asize=1048576");
+
+    @Param({"open", "tpc", "token"})
+    public String opaque;
+
+    private String string;
+
+    private Map<String, String> map;
+
+    @Setup
+    public void setUp() throws ParseException {
+        string = OPAQUE.get(opaque);
+        map = OpaqueStringParser.getOpaqueMap(string);
+    }
+
+    @Benchmark
+    public Map<String, String> parse() throws ParseException {
+        return OpaqueStringParser.getOpaqueMap(string);
+    }
+
+    @Benchmark
+    public String build() {
+        return OpaqueStringParser.buildOpaqueString(map);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of a {@link ReadResponse} by the {@link XrootdEncoder} of an
+ * embedded channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReadResponseBenchmark {
+
+    @Param({"4096", "1048576"})
+    public int size;
+
+    private EmbeddedChannel channel;
+
+    private ReadRequest request;
+
+    private ByteBuf data;
+
+    @Setup
+    public void setUp() {
+        channel = new EmbeddedChannel(new XrootdEncoder());
+        ByteBuf frame = Frames.read(0, size);
+        request = new ReadRequest(frame);
+        frame.release();
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        data = PooledByteBufAllocator.DEFAULT.directBuffer(size).writeBytes(bytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        data.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public int encode() {
+        channel.writeOutbound(new ReadResponse(request, data.retainedDuplicate(), false));
+        ByteBuf out = channel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+}
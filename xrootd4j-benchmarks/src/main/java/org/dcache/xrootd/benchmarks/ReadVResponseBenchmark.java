@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.protocol.messages.ReadVResponse;
+import org.dcache.xrootd.stream.AbstractChunkedReadvResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting a kXR_readv request into response frames by an
+ * {@link AbstractChunkedReadvResponse}, and encoding those frames by the
+ * {@link XrootdEncoder} of an embedded channel.
+ *
+ * Segments are slices of a buffer in memory, so that {@code plan} measures
+ * the frame planning without file I/O, and the difference to
+ * {@code encode} is the cost of {@link ReadVResponse#writeTo}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ReadVResponseBenchmark {
+
+    private static final int STRIDE = 65536;
+
+    @Param({"16", "1024"})
+    public int segments;
+
+    @Param("4096")
+    public int segmentSize;
+
+    @Param({"65536", "2097152"})
+    public int maxFrameSize;
+
+    private EmbeddedChannel channel;
+
+    private ReadVRequest request;
+
+    private ByteBuf data;
+
+    @Setup
+    public void setUp() {
+        channel = new EmbeddedChannel(new XrootdEncoder());
+        ByteBuf frame = Frames.readV(segments, segmentSize, STRIDE);
+        request = new ReadVRequest(frame);
+        frame.release();
+        byte[] bytes = new byte[segmentSize];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        data = PooledByteBufAllocator.DEFAULT.directBuffer(segmentSize).writeBytes(bytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        data.release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Benchmark
+    public void plan(Blackhole blackhole) throws Exception {
+        AbstractChunkedReadvResponse response = new InMemoryReadvResponse(request, maxFrameSize);
+        ReadVResponse chunk;
+        while ((chunk = response.nextChunk(channel.alloc())) != null) {
+            blackhole.consume(chunk.getDataLength());
+            chunk.release();
+        }
+    }
+
+    @Benchmark
+    public void encode(Blackhole blackhole) throws Exception {
+        AbstractChunkedReadvResponse response = new InMemoryReadvResponse(request, maxFrameSize);
+        ReadVResponse chunk;
+        while ((chunk = response.nextChunk(channel.alloc())) != null) {
+            channel.writeOutbound(chunk);
+            ByteBuf out = channel.readOutbound();
+            blackhole.consume(out.readableBytes());
+            out.release();
+        }
+    }
+
+    private class InMemoryReadvResponse extends AbstractChunkedReadvResponse {
+
+        InMemoryReadvResponse(ReadVRequest request, int maxFrameSize) {
+            super(request, maxFrameSize);
+        }
+
+        @Override
+        protected long getSize(int fd) {
+            return (long) segments * STRIDE;
+        }
+
+        @Override
+        protected ByteBuf read(ByteBufAllocator alloc, int fd, long position, int length) {
+            return data.retainedSlice(0, length);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_secPedantic;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdSigverDecoder;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.security.SigningPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding and verification of signed requests by the
+ * {@link XrootdSigverDecoder} of an embedded channel.
+ *
+ * The decoder rejects sequence numbers that do not increase, hence each
+ * invocation decodes a batch of presigned requests on a fresh channel.
+ * Every operation is a kXR_sigver frame followed by the request it signs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SigverDecoderBenchmark {
+
+    private static final int BATCH = 1024;
+
+    private static final SigningPolicy POLICY = new SigningPolicy(kXR_secPedantic, true);
+
+    @Param({"stat", "read", "write"})
+    public String request;
+
+    private final ByteBuf[] frames = new ByteBuf[BATCH];
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        for (int i = 0; i < BATCH; i++) {
+            ByteBuf signed;
+            switch (request) {
+                case "stat":
+                    signed = Frames.stat("/data/run1/file-00001.root");
+                    break;
+                case "read":
+                    signed = Frames.read((long) i << 20, 1 << 20);
+                    break;
+                case "write":
+                    signed = Frames.write((long) i << 14, 1 << 14);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown request: " + request);
+            }
+            ByteBuf sigver = Frames.sigver(signed, i + 1);
+            frames[i] = sigver.alloc().directBuffer(sigver.readableBytes() + signed.readableBytes())
+                  .writeBytes(sigver).writeBytes(signed);
+            sigver.release();
+            signed.release();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ByteBuf frame : frames) {
+            frame.release();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void verify(Blackhole blackhole) {
+        EmbeddedChannel channel = new EmbeddedChannel(new XrootdSigverDecoder(POLICY, null));
+        for (ByteBuf frame : frames) {
+            channel.writeInbound(frame.retainedDuplicate());
+            XrootdRequest decoded = channel.readInbound();
+            if (decoded == null) {
+                throw new IllegalStateException("Signature verification failed");
+            }
+            ReferenceCountUtil.release(decoded);
+            blackhole.consume(decoded);
+        }
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Arrays.asList;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ServerError;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.plugins.ChannelHandlerFactory;
+import org.dcache.xrootd.plugins.authn.unix.UnixClientAuthenticationFactory;
+import org.dcache.xrootd.security.TLSSessionInfo;
+import org.dcache.xrootd.tpc.TpcDelayedSyncWriteHandler;
+import org.dcache.xrootd.tpc.TpcSourceReadHandler;
+import org.dcache.xrootd.tpc.XrootdTpcClient;
+import org.dcache.xrootd.tpc.XrootdTpcInfo;
+import org.dcache.xrootd.tpc.protocol.messages.InboundChecksumResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundReadResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundRedirectResponse;
+import org.dcache.xrootd.util.OpaqueStringParser;
+import org.dcache.xrootd.util.ServerProtocolFlags;
+
+/**
+ * Measures the throughput of third-party copies over an emulated wide
+ * area network.
+ *
+ * A standalone data server serving files from a scratch directory acts as
+ * the source.  The destination is a harness driving an
+ * {@link XrootdTpcClient} in the same JVM, which writes the data to a
+ * file.  Both talk over loopback, with a {@link WanEmulationHandler} at
+ * the head of the client pipeline.  Every combination of round trip
+ * time, chunk size and file size is copied and its throughput reported.
+ *
+ * Arguments following {@code --} are passed to the data server.
+ */
+public class TpcThroughputBenchmark {
+
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    private final LoopbackServer source;
+    private final long bytesPerSecond;
+    private final double loss;
+    private final long timeout;
+    private final NioEventLoopGroup group = new NioEventLoopGroup();
+    private final List<ChannelHandlerFactory> authnPlugins = Collections.singletonList(
+          new UnixClientAuthenticationFactory(new Properties()));
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("tpc-%d").setDaemon(true).build());
+
+    TpcThroughputBenchmark(LoopbackServer source, long bytesPerSecond, double loss,
+          long timeout) {
+        this.source = source;
+        this.bytesPerSecond = bytesPerSecond;
+        this.loss = loss;
+        this.timeout = timeout;
+    }
+
+    public void shutdown() {
+        group.shutdownGracefully();
+        executor.shutdown();
+    }
+
+    /**
+     * Copies a file of the given size from the source.
+     *
+     * @param rtt emulated round trip time in milliseconds
+     * @param chunkSize number of bytes requested by each kXR_read
+     * @return the duration of the copy in nanoseconds
+     */
+    public long copy(long rtt, int chunkSize, long size) throws Exception {
+        File file = source.createFile("source-" + size, size);
+        XrootdTpcInfo info = new XrootdTpcInfo(OpaqueStringParser.getOpaqueMap(
+              "?tpc.src=localhost:" + source.getPort()
+                    + "&tpc.key=" + UUID.randomUUID()
+                    + "&tpc.stage=copy"
+                    + "&tpc.lfn=/" + file.getName()
+                    + "&oss.asize=" + size));
+        try (FileChannel channel = FileChannel.open(
+              new File(source.getRoot(), "destination").toPath(),
+              CREATE, WRITE, TRUNCATE_EXISTING)) {
+            Destination destination = new Destination(channel);
+            XrootdTpcClient client = new XrootdTpcClient("benchmark.1@localhost", info,
+                  destination, executor);
+            client.setTlsSessionInfo(new TLSSessionInfo(new ServerProtocolFlags(0)));
+            if (rtt > 0 || bytesPerSecond > 0 || loss > 0) {
+                client.setTransportHandlerFactory(
+                      new WanEmulationHandler.Factory(rtt, TimeUnit.MILLISECONDS,
+                            bytesPerSecond, loss));
+            }
+            long start = System.nanoTime();
+            try {
+                client.connect(group, authnPlugins, new ReadHandler(chunkSize));
+                destination.result.get(timeout, TimeUnit.SECONDS);
+                long elapsed = System.nanoTime() - start;
+
+                /* Let the client close the file and end the session. */
+                client.getChannelFuture().channel().closeFuture()
+                      .await(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+                return elapsed;
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        OptionParser parser = new OptionParser();
+        OptionSpec<Void> help = parser.acceptsAll(asList("h", "?", "help"), "show help");
+        OptionSpec<Long> rtts = parser.acceptsAll(asList("rtt"), "round trip times")
+              .withRequiredArg()
+              .describedAs("ms")
+              .ofType(Long.class)
+              .withValuesSeparatedBy(',')
+              .defaultsTo(0L, 20L, 100L);
+        OptionSpec<Integer> chunkSizes = parser.acceptsAll(asList("chunk"),
+                    "bytes requested by each read")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .withValuesSeparatedBy(',')
+              .defaultsTo(256 << 10, 1 << 20, 8 << 20);
+        OptionSpec<Long> sizes = parser.acceptsAll(asList("size"), "file sizes")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Long.class)
+              .withValuesSeparatedBy(',')
+              .defaultsTo(1L << 20, 64L << 20);
+        OptionSpec<Long> bandwidth = parser.acceptsAll(asList("bandwidth"),
+                    "emulated bandwidth in each direction, 0 for no limit")
+              .withRequiredArg()
+              .describedAs("bytes/s")
+              .ofType(Long.class)
+              .defaultsTo(0L);
+        OptionSpec<Double> loss = parser.acceptsAll(asList("loss"),
+                    "probability of losing a TCP segment")
+              .withRequiredArg()
+              .describedAs("probability")
+              .ofType(Double.class)
+              .defaultsTo(0.0);
+        OptionSpec<Integer> repeat = parser.acceptsAll(asList("repeat"),
+                    "copies of each combination")
+              .withRequiredArg()
+              .describedAs("count")
+              .ofType(Integer.class)
+              .defaultsTo(3);
+        OptionSpec<Integer> warmup = parser.acceptsAll(asList("warmup"),
+                    "unreported copies before measuring")
+              .withRequiredArg()
+              .describedAs("count")
+              .ofType(Integer.class)
+              .defaultsTo(5);
+        OptionSpec<Long> timeout = parser.acceptsAll(asList("timeout"),
+                    "time after which a copy is considered failed")
+              .withRequiredArg()
+              .describedAs("seconds")
+              .ofType(Long.class)
+              .defaultsTo(600L);
+        OptionSpec<File> root = parser.acceptsAll(asList("root"),
+                    "scratch directory, a temporary directory by default")
+              .withRequiredArg()
+              .describedAs("path")
+              .ofType(File.class);
+
+        OptionSet options;
+        try {
+            options = parser.parse(args);
+        } catch (OptionException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Try --help for more information.");
+            System.exit(2);
+            return;
+        }
+        if (options.has(help)) {
+            System.out.println("Usage: TpcThroughputBenchmark [options] [-- data server options]");
+            parser.printHelpOn(System.out);
+            return;
+        }
+
+        File dir = options.has(root) ? options.valueOf(root)
+              : Files.createTempDirectory("xrootd4j-tpc").toFile();
+        List<String> serverArgs = new ArrayList<>();
+        for (Object arg : options.nonOptionArguments()) {
+            serverArgs.add(arg.toString());
+        }
+
+        LoopbackServer source = new LoopbackServer(dir);
+        TpcThroughputBenchmark benchmark = new TpcThroughputBenchmark(source,
+              options.valueOf(bandwidth), options.valueOf(loss), options.valueOf(timeout));
+        try {
+            source.start(serverArgs);
+
+            long firstSize = options.valuesOf(sizes).get(0);
+            int firstChunkSize = options.valuesOf(chunkSizes).get(0);
+            for (int i = 0; i < options.valueOf(warmup); i++) {
+                benchmark.copy(0, firstChunkSize, firstSize);
+            }
+
+            System.out.printf("%8s %10s %12s %6s %10s %10s %10s%n",
+                  "rtt[ms]", "chunk[B]", "size[B]", "runs", "time[s]", "MiB/s", "best MiB/s");
+            for (long rtt : options.valuesOf(rtts)) {
+                for (int chunkSize : options.valuesOf(chunkSizes)) {
+                    for (long size : options.valuesOf(sizes)) {
+                        benchmark.report(rtt, chunkSize, size, options.valueOf(repeat));
+                    }
+                }
+            }
+        } finally {
+            benchmark.shutdown();
+        }
+        System.exit(0);
+    }
+
+    private void report(long rtt, int chunkSize, long size, int runs) throws Exception {
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        int succeeded = 0;
+        for (int i = 0; i < runs; i++) {
+            try {
+                long elapsed = copy(rtt, chunkSize, size);
+                total += elapsed;
+                best = Math.min(best, elapsed);
+                succeeded++;
+            } catch (ExecutionException | TimeoutException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                System.err.printf("Copy of %d bytes with %d byte chunks at %d ms failed: %s%n",
+                      size, chunkSize, rtt, cause);
+            }
+        }
+        if (succeeded == 0) {
+            System.out.printf("%8d %10d %12d %6d %10s %10s %10s%n",
+                  rtt, chunkSize, size, 0, "-", "-", "-");
+            return;
+        }
+        double mean = total / (double) succeeded / 1e9;
+        System.out.printf("%8d %10d %12d %6d %10.3f %10.2f %10.2f%n",
+              rtt, chunkSize, size, succeeded, mean, mebibytesPerSecond(size, mean),
+              mebibytesPerSecond(size, best / 1e9));
+    }
+
+    private static double mebibytesPerSecond(long size, double seconds) {
+        return size / seconds / (1 << 20);
+    }
+
+    /**
+     * Reads the source in chunks of a fixed size.  Checksums are not
+     * requested.
+     */
+    private static class ReadHandler extends TpcSourceReadHandler {
+
+        private final int chunkSize;
+
+        ReadHandler(int chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void validateChecksum(InboundChecksumResponse response,
+              ChannelHandlerContext ctx) {
+            handleTransferTerminated(kXR_ok, null, ctx);
+        }
+
+        @Override
+        protected int getChunkSize() {
+            return chunkSize;
+        }
+    }
+
+    /**
+     * Writes the data to the destination file and completes the result
+     * when the copy terminates.
+     */
+    private static class Destination implements TpcDelayedSyncWriteHandler {
+
+        private final FileChannel channel;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Destination(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void fireDelayedSync(int status, String error) {
+            if (status == kXR_ok) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(new XrootdException(status, error));
+            }
+        }
+
+        @Override
+        public void write(InboundReadResponse response) throws IOException {
+            response.writeTo(channel);
+        }
+
+        @Override
+        public void redirect(ChannelHandlerContext ctx, InboundRedirectResponse response)
+              throws XrootdException {
+            throw new XrootdException(kXR_ServerError, "Unexpected redirect to "
+                  + response.getHost() + ":" + response.getPort());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.plugins.ChannelHandlerFactory;
+
+/**
+ * Emulates a wide area network on a loopback connection.
+ *
+ * Messages in either direction are serialized at the configured bandwidth
+ * and delayed by half the round trip time.  A TCP stream cannot lose data,
+ * so loss is emulated by what it costs: each segment of
+ * {@value #SEGMENT_SIZE} bytes is lost with the given probability, and a
+ * message containing a lost segment is held back for a retransmission
+ * timeout.  Messages are delivered in order, hence a held back message
+ * also delays the messages following it.
+ *
+ * Must be the first handler of the pipeline.
+ */
+public class WanEmulationHandler extends ChannelDuplexHandler {
+
+    public static final int SEGMENT_SIZE = 1448;
+
+    /**
+     * Lower bound of the retransmission timeout variance term, as on Linux.
+     */
+    private static final long MIN_RTO = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final long oneWayDelay;
+    private final long rto;
+    private final long bytesPerSecond;
+    private final double loss;
+
+    private final Direction inbound = new Direction();
+    private final Direction outbound = new Direction();
+
+    /**
+     * @param rtt round trip time
+     * @param unit of the round trip time
+     * @param bytesPerSecond bandwidth in each direction, 0 for no limit
+     * @param loss probability of losing a segment
+     */
+    public WanEmulationHandler(long rtt, TimeUnit unit, long bytesPerSecond, double loss) {
+        this.oneWayDelay = unit.toNanos(rtt) / 2;
+        this.rto = unit.toNanos(rtt) + MIN_RTO;
+        this.bytesPerSecond = bytesPerSecond;
+        this.loss = loss;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        long delay = inbound.delay(sizeOf(msg));
+        ctx.executor().schedule(() -> ctx.fireChannelRead(msg), delay, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.executor().schedule(() -> ctx.fireChannelReadComplete(),
+              inbound.pending(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        ctx.executor().schedule(() -> ctx.fireChannelInactive(),
+              inbound.pending(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        long delay = outbound.delay(sizeOf(msg));
+        ctx.executor().schedule(() -> ctx.writeAndFlush(msg, promise),
+              delay, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        /* Every message is flushed when it is due. */
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        ctx.executor().schedule(() -> ctx.close(promise),
+              outbound.pending(), TimeUnit.NANOSECONDS);
+    }
+
+    private static long sizeOf(Object msg) {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        }
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        }
+        if (msg instanceof FileRegion) {
+            return ((FileRegion) msg).count();
+        }
+        return 0;
+    }
+
+    /**
+     * One direction of the emulated link.  Confined to the event loop.
+     */
+    private class Direction {
+
+        /**
+         * Time at which the link has transmitted all messages so far.
+         */
+        private long idleAt;
+
+        /**
+         * Time at which the last message is delivered.
+         */
+        private long deliveredAt;
+
+        /**
+         * @return the delay in nanoseconds after which a message of the
+         * given size is to be delivered
+         */
+        long delay(long size) {
+            long now = System.nanoTime();
+            idleAt = Math.max(idleAt, now);
+            if (bytesPerSecond > 0) {
+                idleAt += TimeUnit.SECONDS.toNanos(size) / bytesPerSecond;
+            }
+            long due = idleAt + oneWayDelay;
+            if (loss > 0 && isLost(size)) {
+                due += rto;
+            }
+            deliveredAt = Math.max(deliveredAt, due);
+            return deliveredAt - now;
+        }
+
+        /**
+         * @return the delay in nanoseconds after which all messages so
+         * far are delivered
+         */
+        long pending() {
+            return Math.max(0, deliveredAt - System.nanoTime());
+        }
+
+        private boolean isLost(long size) {
+            long segments = Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            double delivered = Math.pow(1.0 - loss, segments);
+            return ThreadLocalRandom.current().nextDouble() >= delivered;
+        }
+    }
+
+    /**
+     * Creates a handler for every connection.
+     */
+    public static class Factory implements ChannelHandlerFactory {
+
+        private final long rtt;
+        private final TimeUnit unit;
+        private final long bytesPerSecond;
+        private final double loss;
+
+        public Factory(long rtt, TimeUnit unit, long bytesPerSecond, double loss) {
+            this.rtt = rtt;
+            this.unit = unit;
+            this.bytesPerSecond = bytesPerSecond;
+            this.loss = loss;
+        }
+
+        @Override
+        public String getName() {
+            return "wan";
+        }
+
+        @Override
+        public String getDescription() {
+            return "emulates a wide area network";
+        }
+
+        @Override
+        public ChannelHandler createHandler() {
+            return new WanEmulationHandler(rtt, unit, bytesPerSecond, loss);
+        }
+    }
+}
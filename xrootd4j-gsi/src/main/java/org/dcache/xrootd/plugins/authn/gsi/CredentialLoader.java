@@ -17,20 +17,30 @@
 package org.dcache.xrootd.plugins.authn.gsi;
 
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import eu.emi.security.authn.x509.X509CertChainValidator;
 import eu.emi.security.authn.x509.X509Credential;
 import eu.emi.security.authn.x509.impl.PEMCredential;
 import eu.emi.security.authn.x509.proxy.ProxyCertificate;
 import eu.emi.security.authn.x509.proxy.ProxyCertificateOptions;
 import eu.emi.security.authn.x509.proxy.ProxyGenerator;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.security.cert.CertificateException;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,12 +48,29 @@ import org.slf4j.LoggerFactory;
  *  Loads and stores credentials based on certificate .pems on the local
  *  disk.  Shared between all instances of the GSICredentialManager
  *  to optimize/cache the refreshed credentials and caCerts.
+ *
+ *  Credentials are held in immutable snapshots which readers access
+ *  without locking.  Only the very first access to a credential loads it
+ *  inline; afterwards it is refreshed by a background task once the
+ *  refresh interval has passed or the underlying files have changed.  If
+ *  a refresh fails, the previous credential continues to be served.
+ *  Closing the loader stops the background refresh.
  */
-public class CredentialLoader {
+public class CredentialLoader implements CredentialLoaderMXBean, Closeable {
 
     private static final Logger LOGGER
           = LoggerFactory.getLogger(CredentialLoader.class);
 
+    /*
+     *  How often the credential files are checked for modifications.
+     */
+    private static final long FILE_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /*
+     *  Distinguishes the MBeans of loaders registered under the same name.
+     */
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
     /*
      *  Local credentials and CA certs.
      */
@@ -59,12 +86,15 @@ public class CredentialLoader {
     private final boolean delegationOnly;
     private final String proxyPath;
 
-    private long hostCertRefreshTimestamp = 0;
-    private long proxyRefreshTimestamp = 0;
+    private volatile Snapshot<PEMCredential> hostCredential;
+    private volatile Snapshot<X509Credential> proxy;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
 
-    private PEMCredential hostCredential;
-    private PEMCredential clientCredential;
-    private X509Credential proxy;
+    private ScheduledExecutorService refresher;
+    private boolean isClosed;
+    private ObjectName objectName;
 
     public CredentialLoader(Properties properties,
           X509CertChainValidator certChainValidator) {
@@ -99,101 +129,224 @@ public class CredentialLoader {
     }
 
     public PEMCredential getHostCredential() {
-        loadServerCredentials();
-        return hostCredential;
+        Snapshot<PEMCredential> snapshot = hostCredential;
+        if (snapshot == null) {
+            snapshot = loadInitialServerCredentials();
+        }
+        return snapshot == null ? null : snapshot.credential;
     }
 
     public X509Credential getProxy() {
-        loadClientCredentials();
-        return proxy;
+        Snapshot<X509Credential> snapshot = proxy;
+        if (snapshot == null) {
+            snapshot = loadInitialClientCredentials();
+        }
+        return snapshot == null ? null : snapshot.credential;
     }
 
     public boolean isDelegationOnly() {
         return delegationOnly;
     }
 
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @Override
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
     /**
-     * Client-side, will attempt to read in a prefetched proxy from a given
-     * path, or to construct one from the local cert and key, if refresh
-     * has expired.
+     * Registers the loader with the platform MBean server under
+     * {@code name} and an id unique to this loader, as every factory
+     * created by a provider has a loader of its own.  Failure to register
+     * is logged but otherwise ignored.
      */
-    private synchronized void loadClientCredentials() {
+    synchronized void registerMBean(String name) {
         try {
-            if (shouldRefreshClientProxyCredential()) {
-                LOGGER.info("Refreshing proxy credential. Current refresh interval: {} ms",
-                      proxyRefreshInterval);
-
-                if (!Strings.isNullOrEmpty(proxyPath)) {
-                    clientCredential = new PEMCredential(proxyPath, (char[]) null);
-                    proxy = clientCredential;
-                } else {
-                    clientCredential = new PEMCredential(clientKeyPath,
-                          clientCertificatePath,
-                          null);
-                    if (verifyClientCertificate) {
-                        LOGGER.info("Verifying client certificate");
-                        certChainValidator.validate(clientCredential.getCertificateChain());
-                    }
-
-                    /*
-                     *  SLAC server requires an actual proxy, that is,
-                     *  cert chain length > 1.
-                     */
-                    try {
-                        ProxyCertificateOptions options
-                              = new ProxyCertificateOptions(
-                              clientCredential.getCertificateChain());
-                        ProxyCertificate proxyCert = ProxyGenerator.generate(
-                              options,
-                              clientCredential.getKey());
-                        proxy = proxyCert.getCredential();
-                    } catch (InvalidKeyException | SignatureException | NoSuchAlgorithmException e) {
-                        throw new CertificateException(
-                              "could not generate host proxy credential.",
-                              e);
-                    }
-                }
-
-                proxyRefreshTimestamp = System.currentTimeMillis();
+            ObjectName objectName = new ObjectName(
+                  "org.dcache.xrootd:type=CredentialLoader,name=" + ObjectName.quote(name)
+                        + ",id=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            LOGGER.warn("Could not register credential loader {}: {}", name, e.toString());
+        }
+    }
+
+    /**
+     * Stops refreshing credentials in the background and unregisters the
+     * loader from the MBean server.  Credentials already loaded continue
+     * to be served.
+     */
+    @Override
+    public synchronized void close() {
+        isClosed = true;
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOGGER.debug("Could not unregister {}: {}", objectName, e.toString());
             }
-        } catch (GeneralSecurityException gssex) {
-            LOGGER.error("Could not load client certificates/key due to security error; {}: {}.",
-                  getCredentialValues(), gssex.toString());
-        } catch (IOException ioex) {
-            LOGGER.error("Could not read client certificates/key from file-system; {}: {}.",
-                  getCredentialValues(), ioex.toString());
+            objectName = null;
+        }
+    }
 
+    /**
+     * Loads the host credential if it has never been loaded successfully,
+     * and starts refreshing it in the background.
+     */
+    private synchronized Snapshot<PEMCredential> loadInitialServerCredentials() {
+        if (hostCredential == null) {
+            try {
+                hostCredential = loadServerCredentials();
+                startRefreshing(this::refreshServerCredentials, hostCertRefreshInterval);
+            } catch (GeneralSecurityException gssex) {
+                LOGGER.error("Could not load server certificates/key due to security error; {}: {}.",
+                      getCredentialValues(), gssex.toString());
+            } catch (IOException ioex) {
+                LOGGER.error("Could not read server certificates/key from file-system; {}: {}.",
+                      getCredentialValues(), ioex.toString());
+            }
         }
+        return hostCredential;
     }
 
     /**
-     * Server-side, will attempt to generate host credential from
-     * local cert and key, if refresh has expired.
+     * Loads the proxy if it has never been loaded successfully, and starts
+     * refreshing it in the background.
      */
-    private synchronized void loadServerCredentials() {
-        try {
-            if (shouldReloadServerCredentials()) {
-                LOGGER.info("Loading server certificates. Current refresh interval: {} ms",
-                      hostCertRefreshInterval);
-                PEMCredential credential = new PEMCredential(hostKeyPath,
-                      hostCertificatePath,
-                      null);
-                if (verifyHostCertificate) {
-                    LOGGER.info("Verifying host certificate");
-                    certChainValidator.validate(
-                          credential.getCertificateChain());
-                }
-                hostCredential = credential;
-                hostCertRefreshTimestamp = System.currentTimeMillis();
+    private synchronized Snapshot<X509Credential> loadInitialClientCredentials() {
+        if (proxy == null) {
+            try {
+                proxy = loadClientCredentials();
+                startRefreshing(this::refreshClientCredentials, proxyRefreshInterval);
+            } catch (GeneralSecurityException gssex) {
+                LOGGER.error("Could not load client certificates/key due to security error; {}: {}.",
+                      getCredentialValues(), gssex.toString());
+            } catch (IOException ioex) {
+                LOGGER.error("Could not read client certificates/key from file-system; {}: {}.",
+                      getCredentialValues(), ioex.toString());
             }
-        } catch (GeneralSecurityException gssex) {
-            LOGGER.error("Could not load server certificates/key due to security error; {}: {}.",
-                  getCredentialValues(), gssex.toString());
-        } catch (IOException ioex) {
-            LOGGER.error("Could not read server certificates/key from file-system; {}: {}.",
-                  getCredentialValues(), ioex.toString());
+        }
+        return proxy;
+    }
 
+    private synchronized void startRefreshing(Runnable refresh, long refreshInterval) {
+        if (isClosed) {
+            return;
+        }
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(
+                  new ThreadFactoryBuilder().setNameFormat("gsi-credential-refresh")
+                        .setDaemon(true).build());
         }
+        long period = Math.max(1, Math.min(refreshInterval, FILE_CHECK_INTERVAL));
+        refresher.scheduleWithFixedDelay(refresh, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshServerCredentials() {
+        Snapshot<PEMCredential> current = hostCredential;
+        if (!current.isDue(hostCertRefreshInterval, hostKeyPath, hostCertificatePath)) {
+            return;
+        }
+        try {
+            hostCredential = loadServerCredentials();
+            refreshCount.incrementAndGet();
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            LOGGER.warn("Could not refresh server certificates/key, keeping credential "
+                        + "loaded {} ms ago ({} failed refreshes): {}",
+                  System.currentTimeMillis() - current.timestamp,
+                  refreshFailureCount.incrementAndGet(), e.toString());
+        }
+    }
+
+    private void refreshClientCredentials() {
+        Snapshot<X509Credential> current = proxy;
+        boolean isDue = Strings.isNullOrEmpty(proxyPath)
+              ? current.isDue(proxyRefreshInterval, clientKeyPath, clientCertificatePath)
+              : current.isDue(proxyRefreshInterval, proxyPath);
+        if (!isDue) {
+            return;
+        }
+        try {
+            proxy = loadClientCredentials();
+            refreshCount.incrementAndGet();
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            LOGGER.warn("Could not refresh proxy credential, keeping credential "
+                        + "loaded {} ms ago ({} failed refreshes): {}",
+                  System.currentTimeMillis() - current.timestamp,
+                  refreshFailureCount.incrementAndGet(), e.toString());
+        }
+    }
+
+    /**
+     * Client-side, will attempt to read in a prefetched proxy from a given
+     * path, or to construct one from the local cert and key.
+     */
+    private Snapshot<X509Credential> loadClientCredentials()
+          throws GeneralSecurityException, IOException {
+        LOGGER.info("Refreshing proxy credential. Current refresh interval: {} ms",
+              proxyRefreshInterval);
+
+        if (!Strings.isNullOrEmpty(proxyPath)) {
+            long modified = lastModified(proxyPath);
+            return new Snapshot<>(new PEMCredential(proxyPath, (char[]) null), modified);
+        }
+
+        long modified = lastModified(clientKeyPath, clientCertificatePath);
+        PEMCredential clientCredential = new PEMCredential(clientKeyPath,
+              clientCertificatePath,
+              null);
+        if (verifyClientCertificate) {
+            LOGGER.info("Verifying client certificate");
+            certChainValidator.validate(clientCredential.getCertificateChain());
+        }
+
+        /*
+         *  SLAC server requires an actual proxy, that is,
+         *  cert chain length > 1.
+         */
+        try {
+            ProxyCertificateOptions options
+                  = new ProxyCertificateOptions(
+                  clientCredential.getCertificateChain());
+            ProxyCertificate proxyCert = ProxyGenerator.generate(
+                  options,
+                  clientCredential.getKey());
+            return new Snapshot<>(proxyCert.getCredential(), modified);
+        } catch (InvalidKeyException | SignatureException | NoSuchAlgorithmException e) {
+            throw new CertificateException(
+                  "could not generate host proxy credential.",
+                  e);
+        }
+    }
+
+    /**
+     * Server-side, will attempt to generate host credential from
+     * local cert and key.
+     */
+    private Snapshot<PEMCredential> loadServerCredentials()
+          throws GeneralSecurityException, IOException {
+        LOGGER.info("Loading server certificates. Current refresh interval: {} ms",
+              hostCertRefreshInterval);
+        long modified = lastModified(hostKeyPath, hostCertificatePath);
+        PEMCredential credential = new PEMCredential(hostKeyPath,
+              hostCertificatePath,
+              null);
+        if (verifyHostCertificate) {
+            LOGGER.info("Verifying host certificate");
+            certChainValidator.validate(
+                  credential.getCertificateChain());
+        }
+        return new Snapshot<>(credential, modified);
     }
 
     private String getCredentialValues() {
@@ -202,15 +355,32 @@ public class CredentialLoader {
               + ", proxy path: " + proxyPath;
     }
 
-    private boolean shouldReloadServerCredentials() {
-        long timeSinceLastServerRefresh = (System.currentTimeMillis() - hostCertRefreshTimestamp);
-        LOGGER.info("Time since last server cert refresh {}", timeSinceLastServerRefresh);
-        return hostCredential == null || timeSinceLastServerRefresh >= hostCertRefreshInterval;
+    private static long lastModified(String... paths) {
+        long modified = 0;
+        for (String path : paths) {
+            modified = 31 * modified + new File(path).lastModified();
+        }
+        return modified;
     }
 
-    private boolean shouldRefreshClientProxyCredential() {
-        long timeSinceLastClientRefresh = (System.currentTimeMillis() - proxyRefreshTimestamp);
-        LOGGER.info("Time since last client cert refresh {}", timeSinceLastClientRefresh);
-        return proxy == null || timeSinceLastClientRefresh >= proxyRefreshInterval;
+    /**
+     * A credential together with the time it was loaded and the
+     * modification times of the files it was loaded from.
+     */
+    private static class Snapshot<T> {
+
+        final T credential;
+        final long timestamp = System.currentTimeMillis();
+        final long modified;
+
+        Snapshot(T credential, long modified) {
+            this.credential = credential;
+            this.modified = modified;
+        }
+
+        boolean isDue(long refreshInterval, String... paths) {
+            return System.currentTimeMillis() - timestamp >= refreshInterval
+                  || lastModified(paths) != modified;
+        }
     }
 }
@@ -31,12 +31,15 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyAgreement;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.interfaces.DHPublicKey;
 import javax.crypto.spec.DHParameterSpec;
 import javax.crypto.spec.DHPublicKeySpec;
@@ -65,6 +68,7 @@ public class DHSession {
     private static final String DH_FOOTER = "-----END DH PARAMETERS-----";
     private static final String DH_PUBKEY_HEADER = "---BPUB---";
     private static final String DH_PUBKEY_FOOTER = "---EPUB---";
+    private static final byte[] NO_PREFIX = new byte[0];
 
     // The 512-bit prime being part of the DH parameter set.
     // This specific number set was created by using Openssl and passes
@@ -88,6 +92,14 @@ public class DHSession {
     private byte[] IV;
     private boolean paddedKey;
 
+    /*
+     * The shared secret is derived once the key agreement completes; the
+     * session keys and ciphers derived from it are reused for all messages.
+     */
+    private byte[] _secret;
+    private final Map<String, SecretKey> _sessionKeys = new HashMap<>();
+    private final Map<String, Cipher> _ciphers = new HashMap<>();
+
     /**
      * Construct new Diffie-Hellman key exchange session
      * @throws InvalidAlgorithmParameterException Invalid DH parameters (primes)
@@ -112,13 +124,29 @@ public class DHSession {
         paddedKey = false;
     }
 
+    /**
+     * Construct a Diffie-Hellman key exchange session with a given local
+     * key pair, for reproducible sessions in tests.
+     */
+    DHSession(DHParameterSpec dhParameterSpec, KeyPair localDHKeyPair, int sessionIVLen)
+          throws NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException {
+        _dhParameterSpec = dhParameterSpec;
+        _sessionIVLen = sessionIVLen;
+        initialize(localDHKeyPair);
+    }
+
     private void initialize()
           throws InvalidAlgorithmParameterException, NoSuchAlgorithmException,
           InvalidKeyException, NoSuchProviderException {
         KeyPairGenerator kpairGen =
               KeyPairGenerator.getInstance(DH_ALGORITHM_NAME, "BC");
         kpairGen.initialize(_dhParameterSpec);
-        _localDHKeyPair = kpairGen.generateKeyPair();
+        initialize(kpairGen.generateKeyPair());
+    }
+
+    private void initialize(KeyPair localDHKeyPair)
+          throws NoSuchAlgorithmException, InvalidKeyException, NoSuchProviderException {
+        _localDHKeyPair = localDHKeyPair;
         _keyAgreement = KeyAgreement.getInstance(DH_ALGORITHM_NAME, "BC");
         _keyAgreement.init(_localDHKeyPair.getPrivate());
     }
@@ -181,10 +209,19 @@ public class DHSession {
               remoteY, params.getP(), params.getG()));
 
         // finalise DH key agreement
-        _keyAgreement.doPhase(remotePubKey, true);
+        synchronized (this) {
+            _keyAgreement.doPhase(remotePubKey, true);
+            _secret = null;
+            _sessionKeys.clear();
+            getSecret();
+        }
     }
 
-    public byte[] decrypt(String cipherSpec,
+    /**
+     * Decrypts a message received from the remote endpoint.  The initialization
+     * vector, if any, is taken from the message prefix.
+     */
+    public synchronized byte[] decrypt(String cipherSpec,
           String keySpec,
           int blocksize,
           byte[] encrypted)
@@ -201,12 +238,14 @@ public class DHSession {
             LOGGER.trace("encrypted:\n{}", builder.toString());
         }
 
-        encrypted = getIVFromMessagePrefix(encrypted, blocksize);
+        int offset = getIVFromMessagePrefix(encrypted, blocksize);
 
         byte[] decrypted = translate(cipherSpec,
               keySpec,
               blocksize,
+              NO_PREFIX,
               encrypted,
+              offset,
               Cipher.DECRYPT_MODE);
 
         if (LOGGER.isTraceEnabled()) {
@@ -218,8 +257,12 @@ public class DHSession {
         return decrypted;
     }
 
-    public void setPaddedKey(boolean paddedKey) {
-        this.paddedKey = paddedKey;
+    public synchronized void setPaddedKey(boolean paddedKey) {
+        if (this.paddedKey != paddedKey) {
+            this.paddedKey = paddedKey;
+            _secret = null;
+            _sessionKeys.clear();
+        }
     }
 
     public void setSessionIVLen(int len) {
@@ -227,7 +270,12 @@ public class DHSession {
         _sessionIVLen = len;
     }
 
-    public byte[] encrypt(String cipherSpec,
+    /**
+     * Encrypts a message for the remote endpoint.  If the session uses an
+     * initialization vector prefix, a fresh vector is generated and
+     * encrypted along with the message.
+     */
+    public synchronized byte[] encrypt(String cipherSpec,
           String keySpec,
           int blocksize,
           byte[] unencrypted)
@@ -245,14 +293,14 @@ public class DHSession {
         }
 
         refreshIV(blocksize);
-        unencrypted = prefixedBuffer(unencrypted);
         byte[] encrypted = translate(cipherSpec,
               keySpec,
               blocksize,
+              _sessionIVLen == 0 ? NO_PREFIX : IV,
               unencrypted,
+              0,
               Cipher.ENCRYPT_MODE);
 
-        LOGGER.trace("encrypted:");
         if (LOGGER.isTraceEnabled()) {
             builder.setLength(0);
             GSIBucketUtils.dumpBytes(builder, encrypted);
@@ -262,47 +310,25 @@ public class DHSession {
         return encrypted;
     }
 
-    private byte[] getIVFromMessagePrefix(byte[] encrypted, int blocksize) {
-        StringBuilder builder = null;
-
+    /**
+     * Sets the initialization vector from the message prefix.
+     *
+     * @return the offset of the encrypted data following the prefix
+     */
+    private int getIVFromMessagePrefix(byte[] encrypted, int blocksize) {
         if (_sessionIVLen == 0) {
             IV = new byte[blocksize];
-
-            if (LOGGER.isTraceEnabled()) {
-                builder = new StringBuilder();
-                GSIBucketUtils.dumpBytes(builder, IV);
-                LOGGER.trace("initialization vector:\n{}", builder.toString());
-            }
-
-            return encrypted;
+        } else {
+            IV = Arrays.copyOf(encrypted, _sessionIVLen);
         }
 
-        IV = Arrays.copyOf(encrypted, _sessionIVLen);
-
         if (LOGGER.isTraceEnabled()) {
-            builder = new StringBuilder();
+            StringBuilder builder = new StringBuilder();
             GSIBucketUtils.dumpBytes(builder, IV);
             LOGGER.trace("initialization vector:\n{}", builder.toString());
         }
 
-        byte[] extracted = new byte[encrypted.length - _sessionIVLen];
-        System.arraycopy(encrypted, _sessionIVLen, extracted,
-              0, encrypted.length - _sessionIVLen);
-
-        return extracted;
-    }
-
-    private byte[] prefixedBuffer(byte[] in) {
-        if (_sessionIVLen == 0) {
-            return in;
-        }
-
-        byte[] out = new byte[IV.length + in.length];
-
-        System.arraycopy(IV, 0, out, 0, IV.length);
-        System.arraycopy(in, 0, out, IV.length, in.length);
-
-        return out;
+        return _sessionIVLen;
     }
 
     private void refreshIV(int blocksize) {
@@ -322,67 +348,119 @@ public class DHSession {
         }
     }
 
+    /**
+     * Runs the cipher over {@code prefix} followed by the bytes of
+     * {@code buffer} starting at {@code offset}, using the session key and
+     * the current initialization vector.  Neither the cipher nor the key is
+     * created anew for each message.
+     */
     private byte[] translate(String cipherSpec,
           String keySpec,
           int blocksize,
+          byte[] prefix,
           byte[] buffer,
+          int offset,
           int mode)
           throws InvalidKeyException,
           IllegalStateException, NoSuchAlgorithmException,
           NoSuchPaddingException, IllegalBlockSizeException,
           BadPaddingException, InvalidAlgorithmParameterException,
           NoSuchProviderException {
-        IvParameterSpec paramSpec = new IvParameterSpec(IV);
-        Cipher cipher = Cipher.getInstance(cipherSpec, "BC");
+        Cipher cipher = getCipher(cipherSpec, mode);
+        cipher.init(mode, getSessionKey(keySpec, blocksize, mode), new IvParameterSpec(IV));
+
+        int length = buffer.length - offset;
+        byte[] out = new byte[cipher.getOutputSize(prefix.length + length)];
+        try {
+            int n = prefix.length == 0 ? 0 : cipher.update(prefix, 0, prefix.length, out, 0);
+            n += cipher.doFinal(buffer, offset, length, out, n);
+            return n == out.length ? out : Arrays.copyOf(out, n);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("Cipher output exceeds its estimated size", e);
+        }
+    }
+
+    private Cipher getCipher(String cipherSpec, int mode)
+          throws NoSuchAlgorithmException, NoSuchPaddingException,
+          NoSuchProviderException {
+        String id = cipherSpec + '/' + mode;
+        Cipher cipher = _ciphers.get(id);
+        if (cipher == null) {
+            /*
+             * Prefer the default provider, which uses the hardware AES
+             * instructions where the JVM supports them.
+             */
+            try {
+                cipher = Cipher.getInstance(cipherSpec);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                cipher = Cipher.getInstance(cipherSpec, "BC");
+            }
+            LOGGER.debug("Using {} from {}.", cipherSpec, cipher.getProvider().getName());
+            _ciphers.put(id, cipher);
+        }
+        return cipher;
+    }
 
-        byte[] encoded;
+    private SecretKey getSessionKey(String keySpec, int blocksize, int mode)
+          throws NoSuchAlgorithmException, InvalidKeyException {
+        String id = keySpec + '/' + blocksize + '/' + mode;
+        SecretKey sessionKey = _sessionKeys.get(id);
+        if (sessionKey == null) {
+            byte[] encoded = getSecret();
 
-        if (paddedKey) {
-            LOGGER.info("Using padded DH secret generation.");
-            encoded = _keyAgreement.generateSecret();
-        } else {
             /**
-             * "TlsPremasterSecret" algorithm forces pre 1.50
-             * bouncycastle behavior of generation of secret
-             * for compatibility with xrootd client
+             * Use of the TlsPremasterSecret encoding on encryption can sometimes produce
+             * an array where the final 0's have been truncated.  This unfortunately
+             * does not play with the key finalization.   Here we simply add
+             * back the missing padding.
+             *
+             * Note:  the non-Tls encoding pads by prepending, not appending; this
+             * seems to be unacceptable to servers using the ssl DH_compute_key
+             * (unpadded) method.
              */
-            LOGGER.info("Using unpadded (TlsPremasterSecret) DH secret generation.");
-            encoded = _keyAgreement
-                  .generateSecret("TlsPremasterSecret")
-                  .getEncoded();
+            if (encoded.length < blocksize && mode == Cipher.ENCRYPT_MODE) {
+                byte[] defective = encoded;
+                encoded = Arrays.copyOf(defective, blocksize);
+                LOGGER.debug("Adjusting truncated encoded array by appending 0s.");
+                if (LOGGER.isTraceEnabled()) {
+                    StringBuilder oldB = new StringBuilder();
+                    StringBuilder newB = new StringBuilder();
+                    GSIBucketUtils.dumpBytes(oldB, defective);
+                    GSIBucketUtils.dumpBytes(newB, encoded);
+                    LOGGER.trace("OLD:\n{}\nNEW:\n{}",
+                          oldB.toString(), newB.toString());
+                }
+            }
+
+            /* need a 128-bit key, that's the way to get it */
+            sessionKey = new SecretKeySpec(encoded, 0, blocksize, keySpec);
+            _sessionKeys.put(id, sessionKey);
         }
+        return sessionKey;
+    }
 
-        /**
-         * Use of the TlsPremasterSecret encoding on encryption can sometimes produce
-         * an array where the final 0's have been truncated.  This unfortunately
-         * does not play with the key finalization.   Here we simply add
-         * back the missing padding.
-         *
-         * Note:  the non-Tls encoding pads by prepending, not appending; this
-         * seems to be unacceptable to servers using the ssl DH_compute_key
-         * (unpadded) method.
-         */
-        if (encoded.length < blocksize && mode == Cipher.ENCRYPT_MODE) {
-            byte[] defective = encoded;
-            encoded = Arrays.copyOf(defective, blocksize);
-            LOGGER.info("Adjusting truncated encoded array by appending 0s.");
-            if (LOGGER.isTraceEnabled()) {
-                StringBuilder oldB = new StringBuilder();
-                StringBuilder newB = new StringBuilder();
-                GSIBucketUtils.dumpBytes(oldB, defective);
-                GSIBucketUtils.dumpBytes(newB, encoded);
-                LOGGER.trace("OLD:\n{}\nNEW:\n{}",
-                      oldB.toString(), newB.toString());
+    /**
+     * Returns the shared secret, deriving it from the completed key
+     * agreement if necessary.
+     */
+    private byte[] getSecret() throws NoSuchAlgorithmException, InvalidKeyException {
+        if (_secret == null) {
+            if (paddedKey) {
+                LOGGER.debug("Using padded DH secret generation.");
+                _secret = _keyAgreement.generateSecret();
+            } else {
+                /**
+                 * "TlsPremasterSecret" algorithm forces pre 1.50
+                 * bouncycastle behavior of generation of secret
+                 * for compatibility with xrootd client
+                 */
+                LOGGER.debug("Using unpadded (TlsPremasterSecret) DH secret generation.");
+                _secret = _keyAgreement
+                      .generateSecret("TlsPremasterSecret")
+                      .getEncoded();
             }
         }
-
-        /* need a 128-bit key, that's the way to get it */
-        SecretKey sessionKey = new SecretKeySpec(encoded,
-              0,
-              blocksize,
-              keySpec);
-        cipher.init(mode, sessionKey, paramSpec);
-        return cipher.doFinal(buffer);
+        return _secret;
     }
 
     /**
@@ -16,6 +16,7 @@
  */
 package org.dcache.xrootd.plugins.authn.gsi;
 
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.util.Properties;
 import org.dcache.xrootd.plugins.AuthenticationFactory;
@@ -25,7 +26,7 @@ import org.dcache.xrootd.plugins.ProxyDelegationClient;
 /**
  * Authentication factory that returns GSI security handlers.
  */
-public class GSIAuthenticationFactory implements AuthenticationFactory {
+public class GSIAuthenticationFactory implements AuthenticationFactory, Closeable {
 
     private final Properties properties;
     private final CertChainValidatorProvider validatorProvider;
@@ -37,6 +38,19 @@ public class GSIAuthenticationFactory implements AuthenticationFactory {
         validatorProvider = new CertChainValidatorProvider(properties);
         credentialLoader = new CredentialLoader(properties,
               validatorProvider.getCertChainValidator());
+        credentialLoader.registerMBean("server");
+    }
+
+    /**
+     * Stops refreshing the credentials of the handlers created by this
+     * factory and unregisters its credential loader MBean.  The factory
+     * belongs to whoever obtained it from the provider, who must close it
+     * once no further handlers are needed; otherwise the loader lives as
+     * long as the JVM.
+     */
+    @Override
+    public void close() {
+        credentialLoader.close();
     }
 
     @Override
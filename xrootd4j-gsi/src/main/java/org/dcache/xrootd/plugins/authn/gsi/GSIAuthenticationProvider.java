@@ -23,6 +23,10 @@ import org.dcache.xrootd.plugins.AuthenticationProvider;
 
 public class GSIAuthenticationProvider implements AuthenticationProvider {
 
+    /**
+     * Each call returns a new factory with credentials of its own, which
+     * the caller must close when it is no longer used.
+     */
     @Override
     public AuthenticationFactory createFactory(String plugin, Properties properties)
           throws FileNotFoundException {
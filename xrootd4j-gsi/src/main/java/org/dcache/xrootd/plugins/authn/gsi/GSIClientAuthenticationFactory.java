@@ -17,6 +17,7 @@
 package org.dcache.xrootd.plugins.authn.gsi;
 
 import io.netty.channel.ChannelHandler;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.util.Properties;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
@@ -25,7 +26,7 @@ import org.dcache.xrootd.plugins.ChannelHandlerFactory;
  * Authentication factory that returns GSI security handlers to add to the
  *    third-party client channel pipeline.</p>
  */
-public class GSIClientAuthenticationFactory implements ChannelHandlerFactory {
+public class GSIClientAuthenticationFactory implements ChannelHandlerFactory, Closeable {
 
     private final Properties properties;
     private final CertChainValidatorProvider validatorProvider;
@@ -37,6 +38,19 @@ public class GSIClientAuthenticationFactory implements ChannelHandlerFactory {
         validatorProvider = new CertChainValidatorProvider(properties);
         credentialLoader = new CredentialLoader(properties,
               validatorProvider.getCertChainValidator());
+        credentialLoader.registerMBean("client");
+    }
+
+    /**
+     * Stops refreshing the credentials of the handlers created by this
+     * factory and unregisters its credential loader MBean.  The factory
+     * belongs to whoever obtained it from the provider, who must close it
+     * once no further handlers are needed; otherwise the loader lives as
+     * long as the JVM.
+     */
+    @Override
+    public void close() {
+        credentialLoader.close();
     }
 
     @Override
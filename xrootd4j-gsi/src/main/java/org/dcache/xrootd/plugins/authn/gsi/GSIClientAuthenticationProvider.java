@@ -24,6 +24,10 @@ import org.dcache.xrootd.plugins.ChannelHandlerProvider;
 public class GSIClientAuthenticationProvider implements
       ChannelHandlerProvider {
 
+    /**
+     * Each call returns a new factory with credentials of its own, which
+     * the caller must close when it is no longer used.
+     */
     @Override
     public ChannelHandlerFactory createFactory(String plugin, Properties properties)
           throws FileNotFoundException {
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins.authn.gsi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CredentialLoaderTest {
+
+    @Rule
+    public TemporaryFolder _folder = new TemporaryFolder();
+
+    private File _key;
+    private File _cert;
+    private Properties _properties;
+    private CredentialLoader _loader;
+
+    @Before
+    public void setUp() throws IOException {
+        _key = _folder.newFile("hostkey.pem");
+        _cert = _folder.newFile("hostcert.pem");
+
+        _properties = new Properties();
+        _properties.setProperty("xrootd.gsi.hostcert.key", _key.getPath());
+        _properties.setProperty("xrootd.gsi.hostcert.cert", _cert.getPath());
+        _properties.setProperty("xrootd.gsi.hostcert.refresh", "10");
+        _properties.setProperty("xrootd.gsi.hostcert.refresh.unit", "MILLISECONDS");
+        _properties.setProperty("xrootd.gsi.hostcert.verify", "false");
+        _properties.setProperty("xrootd.gsi.tpc.cred.refresh", "10");
+        _properties.setProperty("xrootd.gsi.tpc.cred.refresh.unit", "MILLISECONDS");
+        _loader = new CredentialLoader(_properties, null);
+    }
+
+    @After
+    public void tearDown() {
+        _loader.close();
+    }
+
+    @Test
+    public void shouldKeepPreviousCredentialWhenRefreshFails() throws Exception {
+        X509Certificate original = givenCredential("original");
+        assertEquals(original, _loader.getHostCredential().getCertificate());
+
+        Files.write(_cert.toPath(), "not a certificate".getBytes(StandardCharsets.US_ASCII));
+        await(() -> _loader.getRefreshFailureCount() > 0);
+
+        assertEquals(original, _loader.getHostCredential().getCertificate());
+    }
+
+    @Test
+    public void shouldSwapInRefreshedCredential() throws Exception {
+        givenCredential("original");
+        _loader.getHostCredential();
+
+        Files.write(_cert.toPath(), "not a certificate".getBytes(StandardCharsets.US_ASCII));
+        await(() -> _loader.getRefreshFailureCount() > 0);
+        X509Certificate renewed = givenCredential("renewed");
+        await(() -> _loader.getRefreshCount() > 0);
+
+        assertEquals(renewed, _loader.getHostCredential().getCertificate());
+    }
+
+    @Test
+    public void shouldStopRefreshingWhenClosed() throws Exception {
+        givenCredential("original");
+        _loader.getHostCredential();
+        _loader.close();
+        Thread.sleep(50);
+        long refreshes = _loader.getRefreshCount();
+
+        givenCredential("renewed");
+        Thread.sleep(200);
+
+        assertEquals(refreshes, _loader.getRefreshCount());
+    }
+
+    @Test
+    public void shouldRegisterLoadersOfSameNameSeparately() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName(
+              "org.dcache.xrootd:type=CredentialLoader,name=\"server\",*");
+        int registered = server.queryNames(pattern, null).size();
+
+        CredentialLoader other = new CredentialLoader(_properties, null);
+        _loader.registerMBean("server");
+        other.registerMBean("server");
+        assertEquals(registered + 2, server.queryNames(pattern, null).size());
+
+        other.close();
+        _loader.close();
+        assertEquals(registered, server.queryNames(pattern, null).size());
+    }
+
+    /**
+     * Installs one of the key pairs of the test resources as host credential.
+     */
+    private X509Certificate givenCredential(String name) throws Exception {
+        copy(name + "-key.pem", _key);
+        copy(name + "-cert.pem", _cert);
+        try (InputStream in = getClass().getResourceAsStream(name + "-cert.pem")) {
+            return (X509Certificate) CertificateFactory.getInstance("X.509")
+                  .generateCertificate(in);
+        }
+    }
+
+    private void copy(String resource, File file) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for refresh", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins.authn.gsi;
+
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SYNC_CIPHER_BLOCKSIZE;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SYNC_CIPHER_MODE_PADDED;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SYNC_CIPHER_NAME;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.Security;
+import javax.crypto.spec.DHParameterSpec;
+import javax.crypto.spec.DHPrivateKeySpec;
+import javax.crypto.spec.DHPublicKeySpec;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class DHSessionTest {
+
+    /*
+     * The private values are chosen such that the shared secret has a
+     * leading zero byte, so the padded and unpadded session keys differ.
+     */
+    private static final BigInteger SERVER_PRIVATE = new BigInteger("5eed0001", 16);
+    private static final BigInteger CLIENT_PRIVATE = new BigInteger("5eed1002", 16);
+
+    private static final byte[] MESSAGE =
+          "xrootd4j session key test message".getBytes(StandardCharsets.US_ASCII);
+
+    /*
+     * Messages encrypted by the server session with the implementation
+     * preceding the reuse of session keys and ciphers.
+     */
+    private static final byte[] ENCRYPTED_UNPADDED_KEY = Hex.decode(
+          "73d3974a8a1abc76af0e87aadd801995700efda532ac1dd52b4315f7623b1694"
+                + "ca84d93f63714f077bdcb162da1e62cb");
+    private static final byte[] ENCRYPTED_PADDED_KEY = Hex.decode(
+          "0d3bb3f762b637ae0789c0d704304a126d7b2f3673df8996f89a0f1fcd3cda8f"
+                + "b79f0e72ef673dab37c3fb918c04f666");
+    private static final byte[] ENCRYPTED_UNPADDED_KEY_WITH_IV = Hex.decode(
+          "f990ddea90e77451be3c22d661ef4060accd0e2ad57c0d0b6f2c43bfe0bc2894"
+                + "99f075c36c2e9f3442b4670af2a1cae2be25c949d96ec568ff9f0e8b7cef184d");
+    private static final byte[] ENCRYPTED_PADDED_KEY_WITH_IV = Hex.decode(
+          "d88edd5f5ba4d546d7e48e8708eabdfc72df124bd876000dad25f1168f965668"
+                + "7151467c5e2a8e77ba66284e264ed55db07a556a6d7fbcd6c2b0de89019b9545");
+
+    private DHSession _server;
+    private DHSession _client;
+
+    @BeforeClass
+    public static void addProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void shouldEncryptAsBeforeWithUnpaddedKey() throws Exception {
+        givenSessions(0, false);
+        assertArrayEquals(ENCRYPTED_UNPADDED_KEY, encrypt(_server, MESSAGE));
+    }
+
+    @Test
+    public void shouldEncryptAsBeforeWithPaddedKey() throws Exception {
+        givenSessions(0, true);
+        assertArrayEquals(ENCRYPTED_PADDED_KEY, encrypt(_server, MESSAGE));
+    }
+
+    /*
+     * The encrypted prefix cancels out the random initialization vector in
+     * the first block, so the ciphertext does not depend on it.
+     */
+    @Test
+    public void shouldEncryptAsBeforeWithIVPrefixAndUnpaddedKey() throws Exception {
+        givenSessions(SYNC_CIPHER_BLOCKSIZE, false);
+        assertArrayEquals(ENCRYPTED_UNPADDED_KEY_WITH_IV, encrypt(_server, MESSAGE));
+    }
+
+    @Test
+    public void shouldEncryptAsBeforeWithIVPrefixAndPaddedKey() throws Exception {
+        givenSessions(SYNC_CIPHER_BLOCKSIZE, true);
+        assertArrayEquals(ENCRYPTED_PADDED_KEY_WITH_IV, encrypt(_server, MESSAGE));
+    }
+
+    @Test
+    public void shouldDecryptAsBeforeWithUnpaddedKey() throws Exception {
+        givenSessions(0, false);
+        assertArrayEquals(MESSAGE, decrypt(_client, ENCRYPTED_UNPADDED_KEY));
+    }
+
+    @Test
+    public void shouldDecryptAsBeforeWithPaddedKey() throws Exception {
+        givenSessions(0, true);
+        assertArrayEquals(MESSAGE, decrypt(_client, ENCRYPTED_PADDED_KEY));
+    }
+
+    @Test
+    public void shouldDecryptAsBeforeWithIVPrefixAndUnpaddedKey() throws Exception {
+        givenSessions(SYNC_CIPHER_BLOCKSIZE, false);
+        assertArrayEquals(MESSAGE, decrypt(_client, ENCRYPTED_UNPADDED_KEY_WITH_IV));
+    }
+
+    @Test
+    public void shouldDecryptAsBeforeWithIVPrefixAndPaddedKey() throws Exception {
+        givenSessions(SYNC_CIPHER_BLOCKSIZE, true);
+        assertArrayEquals(MESSAGE, decrypt(_client, ENCRYPTED_PADDED_KEY_WITH_IV));
+    }
+
+    @Test
+    public void shouldRoundTripWithUnpaddedKey() throws Exception {
+        givenSessions(0, false);
+        assertRoundTrip();
+    }
+
+    @Test
+    public void shouldRoundTripWithPaddedKey() throws Exception {
+        givenSessions(0, true);
+        assertRoundTrip();
+    }
+
+    @Test
+    public void shouldRoundTripWithIVPrefixAndUnpaddedKey() throws Exception {
+        givenSessions(SYNC_CIPHER_BLOCKSIZE, false);
+        assertRoundTrip();
+    }
+
+    @Test
+    public void shouldRoundTripWithIVPrefixAndPaddedKey() throws Exception {
+        givenSessions(SYNC_CIPHER_BLOCKSIZE, true);
+        assertRoundTrip();
+    }
+
+    @Test
+    public void shouldDeriveNewKeyWhenPaddingChanges() throws Exception {
+        givenSessions(0, false);
+        assertArrayEquals(ENCRYPTED_UNPADDED_KEY, encrypt(_server, MESSAGE));
+        _server.setPaddedKey(true);
+        assertArrayEquals(ENCRYPTED_PADDED_KEY, encrypt(_server, MESSAGE));
+    }
+
+    private void assertRoundTrip() throws Exception {
+        /* Repeated messages in both directions reuse the cached keys and ciphers. */
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(MESSAGE, decrypt(_client, encrypt(_server, MESSAGE)));
+            assertArrayEquals(MESSAGE, decrypt(_server, encrypt(_client, MESSAGE)));
+        }
+        byte[] empty = new byte[0];
+        assertArrayEquals(empty, decrypt(_client, encrypt(_server, empty)));
+    }
+
+    private void givenSessions(int sessionIVLen, boolean paddedKey) throws Exception {
+        _server = newSession(SERVER_PRIVATE, sessionIVLen, paddedKey);
+        _client = newSession(CLIENT_PRIVATE, sessionIVLen, paddedKey);
+        _server.finaliseKeyAgreement(_client.getEncodedDHMaterial());
+        _client.finaliseKeyAgreement(_server.getEncodedDHMaterial());
+    }
+
+    private static DHSession newSession(BigInteger x, int sessionIVLen, boolean paddedKey)
+          throws Exception {
+        DHParameterSpec params = DHSession.DH_PARAMETERS;
+        KeyFactory factory = KeyFactory.getInstance("DH", "BC");
+        KeyPair keyPair = new KeyPair(
+              factory.generatePublic(new DHPublicKeySpec(
+                    params.getG().modPow(x, params.getP()), params.getP(), params.getG())),
+              factory.generatePrivate(new DHPrivateKeySpec(x, params.getP(), params.getG())));
+        DHSession session = new DHSession(params, keyPair, sessionIVLen);
+        session.setPaddedKey(paddedKey);
+        return session;
+    }
+
+    private static byte[] encrypt(DHSession session, byte[] message)
+          throws GeneralSecurityException {
+        return session.encrypt(SYNC_CIPHER_MODE_PADDED, SYNC_CIPHER_NAME,
+              SYNC_CIPHER_BLOCKSIZE, message);
+    }
+
+    private static byte[] decrypt(DHSession session, byte[] message)
+          throws GeneralSecurityException {
+        return session.decrypt(SYNC_CIPHER_MODE_PADDED, SYNC_CIPHER_NAME,
+              SYNC_CIPHER_BLOCKSIZE, message);
+    }
+}
@@ -16,31 +16,66 @@
  */
 package org.dcache.xrootd.standalone;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.NoSuchElementException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import joptsimple.OptionException;
 import joptsimple.OptionSet;
+import org.dcache.xrootd.plugins.metrics.histogram.HistogramMetricsRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class DataServer {
 
+    private static final Logger _log = LoggerFactory.getLogger(DataServer.class);
+
     private final DataServerConfiguration _configuration;
 
     public DataServer(DataServerConfiguration configuration) {
         _configuration = configuration;
     }
 
-    public void start() throws InterruptedException {
+    public void start() throws InterruptedException, JMException, IOException {
         final EventLoopGroup bossGroup;
         final EventLoopGroup workerGroup;
         Class<? extends ServerSocketChannel> channelClass;
-        bossGroup = new NioEventLoopGroup();
-        workerGroup = new NioEventLoopGroup();
-        channelClass = NioServerSocketChannel.class;
+        if (_configuration.useEpoll && Epoll.isAvailable()) {
+            bossGroup = new EpollEventLoopGroup();
+            workerGroup = new EpollEventLoopGroup();
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            if (_configuration.useEpoll) {
+                _log.warn("Native epoll transport is not available, using NIO: {}",
+                      Epoll.unavailabilityCause().toString());
+            }
+            bossGroup = new NioEventLoopGroup();
+            workerGroup = new NioEventLoopGroup();
+            channelClass = NioServerSocketChannel.class;
+        }
+        final ThreadPoolExecutor diskExecutor = new ThreadPoolExecutor(
+              _configuration.diskThreads, _configuration.diskThreads,
+              0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+              new ThreadFactoryBuilder().setNameFormat("disk-%d").setDaemon(true).build());
+        _configuration.overloadController.setQueueDepthSupplier(
+              () -> diskExecutor.getQueue().size());
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
@@ -53,17 +88,49 @@ public class DataServer {
                     // Wait until all threads are terminated.
                     bossGroup.terminationFuture().sync();
                     workerGroup.terminationFuture().sync();
+
+                    // Let pending write-behind flushes complete.
+                    diskExecutor.shutdown();
+                    diskExecutor.awaitTermination(10, TimeUnit.SECONDS);
                 } catch (InterruptedException ignored) {
                 }
             }
         });
+        /*
+         * Bandwidth limits can be adjusted at runtime through JMX. Limits
+         * enabled after startup apply to connections established later.
+         */
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(_configuration.readShaper,
+              new ObjectName("org.dcache.xrootd:type=BandwidthShaper,name=read"));
+        server.registerMBean(_configuration.writeShaper,
+              new ObjectName("org.dcache.xrootd:type=BandwidthShaper,name=write"));
+        server.registerMBean(_configuration.overloadController,
+              new ObjectName("org.dcache.xrootd:type=OverloadController"));
+        server.registerMBean(_configuration.metadataCache,
+              new ObjectName("org.dcache.xrootd:type=MetadataCache"));
+        if (_configuration.watchMetadata) {
+            _configuration.metadataCache.startWatching();
+        }
+
+        if (_configuration.metrics instanceof HistogramMetricsRecorder) {
+            bossGroup.scheduleAtFixedRate(
+                  new MetricsExporter((HistogramMetricsRecorder) _configuration.metrics),
+                  _configuration.metricsInterval, _configuration.metricsInterval,
+                  TimeUnit.SECONDS);
+        }
+
         ServerBootstrap bootstrap = new ServerBootstrap()
               .group(bossGroup, workerGroup)
               .channel(channelClass)
               .localAddress(_configuration.port)
               .childOption(ChannelOption.TCP_NODELAY, true)
               .childOption(ChannelOption.SO_KEEPALIVE, true)
-              .childHandler(new DataServerChannelInitializer(_configuration));
+              .childHandler(new DataServerChannelInitializer(_configuration, diskExecutor));
+        if (channelClass == EpollServerSocketChannel.class && _configuration.spliceThreshold > 0) {
+            /* Netty only supports splicing on level-triggered channels. */
+            bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED);
+        }
 
         bootstrap.bind().sync().channel().closeFuture().sync();
     }
@@ -23,6 +23,9 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.logging.LoggingHandler;
+import java.util.concurrent.ExecutorService;
+import org.dcache.xrootd.core.InboundShapingHandler;
+import org.dcache.xrootd.core.OverloadHandler;
 import org.dcache.xrootd.core.XrootdAuthenticationHandler;
 import org.dcache.xrootd.core.XrootdDecoder;
 import org.dcache.xrootd.core.XrootdEncoder;
@@ -43,8 +46,12 @@ public class DataServerChannelInitializer extends ChannelInitializer<SocketChann
 
     private final DataServerConfiguration _options;
 
-    public DataServerChannelInitializer(DataServerConfiguration options) {
+    private final ExecutorService _diskExecutor;
+
+    public DataServerChannelInitializer(DataServerConfiguration options,
+          ExecutorService diskExecutor) {
         _options = options;
+        _diskExecutor = diskExecutor;
     }
 
     @Override
@@ -52,10 +59,17 @@ public class DataServerChannelInitializer extends ChannelInitializer<SocketChann
         ChannelPipeline pipeline = ch.pipeline();
         pipeline.addLast("handshaker", new XrootdHandshakeHandler(DATA_SERVER));
         pipeline.addLast("encoder", new XrootdEncoder());
-        pipeline.addLast("decoder", new XrootdDecoder());
+        XrootdDecoder decoder = new XrootdDecoder();
+        decoder.setMinWriteSegmentSize(_options.minWriteSegment);
+        if (!_options.writeShaper.isEnabled()) {
+            decoder.setSpliceThreshold(_options.spliceThreshold);
+        }
+        pipeline.addLast("decoder", decoder);
         if (logger.isDebugEnabled()) {
             pipeline.addLast("logger", new LoggingHandler(DataServerChannelInitializer.class));
         }
+        /* Always installed, as limits may be set through JMX at any time. */
+        pipeline.addLast("overload", new OverloadHandler(_options.overloadController));
 
         /*
          *  Placeholders, no Sigver and no TLS support yet.
@@ -71,6 +85,9 @@ public class DataServerChannelInitializer extends ChannelInitializer<SocketChann
         sessionHandler.setTlsSessionInfo(tlsSessionInfo);
         sessionHandler.setSigningPolicy(signingPolicy);
         pipeline.addLast(XrootdSessionHandler.SESSION_HANDLER, sessionHandler);
+        if (_options.writeShaper.isEnabled()) {
+            pipeline.addLast("write-shaper", new InboundShapingHandler(_options.writeShaper));
+        }
 
         for (ChannelHandlerFactory factory : _options.channelHandlerFactories) {
             ChannelHandler handler = factory.createHandler();
@@ -90,9 +107,15 @@ public class DataServerChannelInitializer extends ChannelInitializer<SocketChann
             }
         }
 
-        pipeline.addLast("chunk-writer", new ChunkedResponseWriteHandler());
+        ChunkedResponseWriteHandler chunkWriter = new ChunkedResponseWriteHandler(
+              _options.metrics, _options.readShaper.isEnabled() ? _options.readShaper : null);
+        chunkWriter.setQuantum(_options.chunkQuantum);
+        pipeline.addLast("chunk-writer", chunkWriter);
         DataServerHandler dataServerHandler = new DataServerHandler(_options, tlsSessionInfo,
-              signingPolicy);
+              signingPolicy, _diskExecutor);
+        dataServerHandler.setMetrics(_options.metrics);
+        dataServerHandler.setAsyncResponseThreshold(_options.asyncResponseThreshold);
+        dataServerHandler.setRequestDeadline(_options.requestDeadline);
         pipeline.addLast("data-server", dataServerHandler);
     }
 }
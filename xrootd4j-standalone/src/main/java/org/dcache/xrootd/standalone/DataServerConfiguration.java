@@ -25,15 +25,26 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import joptsimple.OptionSet;
+import org.dcache.xrootd.checksum.ChecksumCalculator;
+import org.dcache.xrootd.checksum.ChecksumStore;
+import org.dcache.xrootd.checksum.ChecksumType;
+import org.dcache.xrootd.core.BandwidthShaper;
+import org.dcache.xrootd.core.OverloadController;
 import org.dcache.xrootd.core.XrootdAuthenticationHandlerProvider;
 import org.dcache.xrootd.core.XrootdAuthorizationHandlerProvider;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
 import org.dcache.xrootd.plugins.ChannelHandlerProvider;
+import org.dcache.xrootd.plugins.MetricsProvider;
+import org.dcache.xrootd.plugins.MetricsRecorder;
 import org.dcache.xrootd.plugins.tls.TLSHandlerProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,8 +68,29 @@ public class DataServerConfiguration {
     public final List<File> pluginPath;
     public final List<String> channelHandlerPlugins;
     public final boolean useZeroCopy;
+    public final int metricsInterval;
+    public final int chunkQuantum;
+    public final int writeBufferSize;
+    public final int writeFlushDelay;
+    public final int minWriteSegment;
+    public final boolean useEpoll;
+    public final int spliceThreshold;
+    public final int diskThreads;
+    public final Set<ChecksumType> uploadChecksums;
+    public final boolean watchMetadata;
+    public final int statxBatchSize;
+    public final long asyncResponseThreshold;
+    public final long requestDeadline;
 
     public final List<ChannelHandlerFactory> channelHandlerFactories;
+    public final MetricsRecorder metrics;
+    public final BandwidthShaper readShaper;
+    public final BandwidthShaper writeShaper;
+    public final ChecksumStore checksumStore = new ChecksumStore();
+    public final ChecksumCalculator checksumCalculator =
+          new ChecksumCalculator(new ForkJoinPool(), ChecksumCalculator.DEFAULT_CHUNK_SIZE);
+    public final MetadataCache metadataCache;
+    public final OverloadController overloadController = new OverloadController();
 
     public DataServerConfiguration(DataServerOptionParser parser, OptionSet options)
           throws Exception {
@@ -67,6 +99,37 @@ public class DataServerConfiguration {
         pluginPath = options.valuesOf(parser.pluginPath);
         channelHandlerPlugins = options.valuesOf(parser.handlerPlugins);
         useZeroCopy = options.has(parser.zeroCopy);
+        metricsInterval = options.valueOf(parser.metricsInterval);
+        chunkQuantum = options.valueOf(parser.chunkQuantum);
+        writeBufferSize = options.valueOf(parser.writeBufferSize);
+        writeFlushDelay = options.valueOf(parser.writeFlushDelay);
+        minWriteSegment = options.valueOf(parser.minWriteSegment);
+        useEpoll = options.has(parser.epoll);
+        spliceThreshold = options.valueOf(parser.spliceThreshold);
+        diskThreads = options.valueOf(parser.diskThreads);
+        uploadChecksums = toChecksumTypes(options.valuesOf(parser.uploadChecksums));
+        watchMetadata = options.has(parser.watchMetadata);
+        statxBatchSize = options.valueOf(parser.statxBatchSize);
+        asyncResponseThreshold = options.valueOf(parser.asyncResponseThreshold);
+        requestDeadline = options.valueOf(parser.requestDeadline);
+        overloadController.setMaxQueueDepth(options.valueOf(parser.overloadMaxQueue));
+        overloadController.setMaxInFlightBytes(options.valueOf(parser.overloadMaxInFlight));
+        for (String limit : options.valuesOf(parser.overloadMaxLatency)) {
+            String[] s = splitLimit(limit);
+            overloadController.setMaxLatency(s[0], Long.parseLong(s[1]));
+        }
+        for (String limit : options.valuesOf(parser.overloadMaxConcurrency)) {
+            String[] s = splitLimit(limit);
+            overloadController.setMaxConcurrency(s[0], Integer.parseInt(s[1]));
+        }
+        metadataCache = new MetadataCache(options.valueOf(parser.metadataCacheSize),
+              options.valueOf(parser.metadataCacheTtl), TimeUnit.MILLISECONDS);
+        readShaper = new BandwidthShaper(options.valueOf(parser.maxReadRate),
+              options.valueOf(parser.maxUserReadRate),
+              options.valueOf(parser.maxChannelReadRate));
+        writeShaper = new BandwidthShaper(options.valueOf(parser.maxWriteRate),
+              options.valueOf(parser.maxUserWriteRate),
+              options.valueOf(parser.maxChannelWriteRate));
 
         _pluginDefaults = loadDefaultProperties(pluginPath);
 
@@ -85,6 +148,10 @@ public class DataServerConfiguration {
         for (String plugin : channelHandlerPlugins) {
             channelHandlerFactories.add(createHandlerFactory(plugin));
         }
+
+        metrics = options.has(parser.metrics)
+              ? createMetricsRecorder(options.valueOf(parser.metrics))
+              : MetricsRecorder.NONE;
     }
 
     private static Properties loadDefaultProperties(List<File> paths)
@@ -147,4 +214,36 @@ public class DataServerConfiguration {
         }
         throw new NoSuchElementException("Channel handler plugin not found: " + plugin);
     }
+
+    private static String[] splitLimit(String limit) {
+        String[] s = limit.split(":");
+        if (s.length != 2) {
+            throw new IllegalArgumentException("Invalid limit, expected class:value: " + limit);
+        }
+        return s;
+    }
+
+    private static Set<ChecksumType> toChecksumTypes(List<String> names) {
+        Set<ChecksumType> types = EnumSet.noneOf(ChecksumType.class);
+        for (String name : names) {
+            types.add(ChecksumType.forName(name)
+                  .filter(ChecksumType::isCombinable)
+                  .orElseThrow(() -> new NoSuchElementException(
+                        "Unsupported upload checksum type: " + name)));
+        }
+        return types;
+    }
+
+    public final MetricsRecorder createMetricsRecorder(String plugin)
+          throws Exception {
+        Properties properties = getPluginProperties();
+        for (MetricsProvider provider : ServiceLoader.load(MetricsProvider.class, _pluginLoader)) {
+            MetricsRecorder recorder = provider.createRecorder(plugin, properties);
+            if (recorder != null) {
+                _log.debug("Metrics plugin {} is provided by {}", plugin, provider.getClass());
+                return recorder;
+            }
+        }
+        throw new NoSuchElementException("Metrics plugin not found: " + plugin);
+    }
 }
@@ -25,16 +25,12 @@ import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_NotFound;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_Qcksum;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_Qconfig;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_Unsupported;
-import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_isDir;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_isDirectory;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_other;
-import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readable;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_writable;
-import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_xset;
 
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -42,20 +38,34 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.NotDirectoryException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FilenameUtils;
+import org.dcache.xrootd.checksum.ChecksumType;
+import org.dcache.xrootd.checksum.IncrementalChecksummer;
+import org.dcache.xrootd.core.DeferredResponse;
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.core.XrootdProtocolRequestHandler;
 import org.dcache.xrootd.protocol.messages.CloseRequest;
 import org.dcache.xrootd.protocol.messages.DirListRequest;
 import org.dcache.xrootd.protocol.messages.DirListResponse;
-import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
 import org.dcache.xrootd.protocol.messages.LocateRequest;
 import org.dcache.xrootd.protocol.messages.LocateResponse;
 import org.dcache.xrootd.protocol.messages.MkDirRequest;
@@ -79,12 +89,15 @@ import org.dcache.xrootd.protocol.messages.StatxRequest;
 import org.dcache.xrootd.protocol.messages.StatxResponse;
 import org.dcache.xrootd.protocol.messages.SyncRequest;
 import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
 import org.dcache.xrootd.protocol.messages.ZeroCopyReadResponse;
 import org.dcache.xrootd.security.SigningPolicy;
 import org.dcache.xrootd.security.TLSSessionInfo;
 import org.dcache.xrootd.stream.ChunkedFileChannelReadResponse;
 import org.dcache.xrootd.stream.ChunkedFileReadvResponse;
+import org.dcache.xrootd.util.ChecksumInfo;
 import org.dcache.xrootd.util.FileStatus;
+import org.dcache.xrootd.util.NativeFileDescriptors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -99,14 +112,39 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
      */
     private static final int MAX_FRAME_SIZE = 2 << 20;
 
+    /**
+     * Status of a directory entry that disappeared while being listed.
+     */
+    private static final FileStatus VANISHED = new FileStatus(0, 0, kXR_other, 0);
+
     private final List<RandomAccessFile> _openFiles =
           new ArrayList<>();
 
+    /**
+     * Write-behind buffers of open files, indexed like _openFiles.
+     */
+    private final Map<Integer, WriteAggregator> _writeAggregators =
+          new HashMap<>();
+
+    /**
+     * Checksums computed from the data written to files being uploaded,
+     * indexed like _openFiles.
+     */
+    private final Map<Integer, Upload> _uploads = new HashMap<>();
+
+    /**
+     * Files opened for writing, indexed like _openFiles.
+     */
+    private final Map<Integer, File> _writablePaths = new HashMap<>();
+
     private final DataServerConfiguration _configuration;
 
+    private final ExecutorService _diskExecutor;
+
     public DataServerHandler(DataServerConfiguration configuration, TLSSessionInfo tlsSessionInfo,
-          SigningPolicy signingPolicy) {
+          SigningPolicy signingPolicy, ExecutorService diskExecutor) {
         _configuration = configuration;
+        _diskExecutor = diskExecutor;
         setTlsSessionInfo(tlsSessionInfo);
         setSigningPolicy(signingPolicy);
     }
@@ -125,21 +163,24 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
         // channel.
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        /* Data acknowledged to the client must still reach the disk. */
+        _writeAggregators.values().forEach(WriteAggregator::drain);
+        super.channelInactive(ctx);
+    }
+
     @Override
     protected StatResponse doOnStat(ChannelHandlerContext ctx,
           StatRequest req)
           throws XrootdException {
-        File file = getFile(req.getPath());
-        if (!file.exists()) {
-            throw new XrootdException(kXR_NotFound, "No such file");
-        } else {
-            FileStatus fs = getFileStatusOf(file);
-            return new StatResponse(req, fs);
-        }
+        FileStatus fs = getFileStatusOf(getFile(req.getPath())).orElseThrow(
+              () -> new XrootdException(kXR_NotFound, "No such file"));
+        return new StatResponse(req, fs);
     }
 
     @Override
-    protected StatxResponse doOnStatx(ChannelHandlerContext ctx,
+    protected Object doOnStatx(ChannelHandlerContext ctx,
           StatxRequest req)
           throws XrootdException {
         if (req.getPaths().length == 0) {
@@ -147,18 +188,44 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
         }
 
         String[] paths = req.getPaths();
-        String[] opaques = req.getOpaques();
-        int[] flags = new int[paths.length];
+        File[] files = new File[paths.length];
         for (int i = 0; i < paths.length; i++) {
-            File file = getFile(paths[i]);
-            if (!file.exists()) {
+            files[i] = getFile(paths[i]);
+        }
+        int[] flags = new int[files.length];
+
+        int batchSize = _configuration.statxBatchSize;
+        if (batchSize <= 0 || files.length <= batchSize) {
+            statBatch(files, flags, 0, files.length);
+            return new StatxResponse(req, flags);
+        }
+
+        /* Each batch fills a disjoint range of flags, so the response
+         * preserves the order of the request. */
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < files.length; from += batchSize) {
+            int start = from;
+            int end = Math.min(from + batchSize, files.length);
+            batches.add(CompletableFuture.runAsync(
+                  () -> statBatch(files, flags, start, end), _diskExecutor));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]))
+              .thenApply(ignored -> new StatxResponse(req, flags));
+    }
+
+    private void statBatch(File[] files, int[] flags, int from, int to) {
+        for (int i = from; i < to; i++) {
+            try {
+                flags[i] = _configuration.metadataCache.getStatus(files[i].toPath())
+                      .map(FileStatus::getFlags)
+                      .orElse(kXR_other);
+            } catch (IOException e) {
+                flags[i] = kXR_other;
+            } catch (RuntimeException e) {
+                _log.warn("Failed to stat {}: {}", files[i], e.toString());
                 flags[i] = kXR_other;
-            } else {
-                flags[i] = getFileStatusFlagsOf(file);
             }
         }
-
-        return new StatxResponse(req, flags);
     }
 
     @Override
@@ -179,6 +246,7 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
             throw new XrootdException(kXR_IOError,
                   "Failed to delete file: " + file);
         }
+        invalidateMetadata(file);
         return withOk(req);
     }
 
@@ -200,6 +268,7 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
             throw new XrootdException(kXR_IOError,
                   "Failed to delete directory: " + file);
         }
+        invalidateMetadata(file);
         return withOk(req);
     }
 
@@ -225,6 +294,7 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
                       "Failed to create directory: " + file);
             }
         }
+        invalidateMetadata(file);
         return withOk(req);
     }
 
@@ -249,6 +319,13 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
         if (!sourceFile.renameTo(targetFile)) {
             throw new XrootdException(kXR_IOError, "Failed to move file");
         }
+        if (targetFile.isDirectory()) {
+            /* Cached entries below the source are stale, too. */
+            _configuration.metadataCache.invalidateAll();
+        } else {
+            invalidateMetadata(sourceFile);
+            invalidateMetadata(targetFile);
+        }
         return withOk(req);
     }
 
@@ -266,7 +343,8 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
             DirListResponse.Builder builder = DirListResponse.builder(request);
             for (Path path : paths) {
                 builder.add(path.getFileName().toString(),
-                      request.isDirectoryStat() ? getFileStatusOf(path.toFile()) : null);
+                      request.isDirectoryStat()
+                            ? getFileStatusOf(path.toFile()).orElse(VANISHED) : null);
                 if (builder.count() >= 1000) {
                     respond(context, builder.buildPartial());
                 }
@@ -323,14 +401,28 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
                 if (msg.isReadWrite() && msg.isDelete()) {
                     raf.setLength(0);
                 }
+                if (msg.isReadWrite()) {
+                    invalidateMetadata(file);
+                }
+
+                boolean isUpload = msg.isReadWrite() && raf.length() == 0
+                      && !_configuration.uploadChecksums.isEmpty();
 
                 FileStatus stat = null;
                 if (msg.isRetStat()) {
-                    stat = getFileStatusOf(file);
+                    stat = getFileStatusOf(file).orElseThrow(
+                          () -> new XrootdException(kXR_NotFound, "No such file: " + file));
                 }
 
                 int fd = addOpenFile(raf);
                 raf = null;
+                if (msg.isReadWrite()) {
+                    _writablePaths.put(fd, file);
+                }
+                if (isUpload) {
+                    _uploads.put(fd, new Upload(file.toPath(),
+                          new IncrementalChecksummer(_configuration.uploadChecksums)));
+                }
                 return new OpenResponse(msg,
                       fd,
                       null,
@@ -360,6 +452,14 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
     protected Object doOnRead(ChannelHandlerContext ctx, ReadRequest msg)
           throws XrootdException {
         RandomAccessFile raf = getOpenFile(msg.getFileHandle());
+        WriteAggregator aggregator = _writeAggregators.get(msg.getFileHandle());
+        if (aggregator != null && !aggregator.isIdle()) {
+            return afterFlush(ctx, Collections.singleton(aggregator), () -> read(msg, raf));
+        }
+        return read(msg, raf);
+    }
+
+    private Object read(ReadRequest msg, RandomAccessFile raf) throws XrootdException {
         if (msg.bytesToRead() == 0) {
             return withOk(msg);
         } else if (_configuration.useZeroCopy) {
@@ -385,15 +485,25 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
      * @param msg The actual request.
      */
     @Override
-    protected ChunkedFileReadvResponse doOnReadV(ChannelHandlerContext ctx,
+    protected Object doOnReadV(ChannelHandlerContext ctx,
           ReadVRequest msg)
           throws XrootdException {
-        EmbeddedReadRequest[] requests = msg.getReadRequestList();
-        if (requests == null || requests.length == 0) {
+        if (msg.getSegmentCount() == 0) {
             throw new XrootdException(kXR_ArgMissing,
                   "Request contains no vector");
         }
 
+        Set<WriteAggregator> aggregators = new HashSet<>();
+        for (int i = 0; i < msg.getSegmentCount(); i++) {
+            WriteAggregator aggregator = _writeAggregators.get(msg.getSegmentFileHandle(i));
+            if (aggregator != null && !aggregator.isIdle()) {
+                aggregators.add(aggregator);
+            }
+        }
+        if (!aggregators.isEmpty()) {
+            return afterFlush(ctx, aggregators,
+                  () -> new ChunkedFileReadvResponse(msg, MAX_FRAME_SIZE, _openFiles));
+        }
         return new ChunkedFileReadvResponse(msg, MAX_FRAME_SIZE, _openFiles);
     }
 
@@ -402,17 +512,66 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
      * its write operation. The file descriptor will propagate necessary
      * function calls to the mover.
      *
+     * With write-behind enabled the data is only copied to the file's
+     * aggregation buffer; it reaches the file asynchronously and errors
+     * are reported by a later write, sync or close.
+     *
+     * If the decoder offers to splice the remainder of the payload, it is
+     * transferred from the socket into the file without copying, and the
+     * response is sent once the splice has completed.  Spliced data is not
+     * seen by the incremental upload checksums, which are then computed
+     * on demand instead.
+     *
      * @param ctx received from the netty pipeline
      * @param msg the actual request
      */
     @Override
-    protected OkResponse<WriteRequest> doOnWrite(ChannelHandlerContext ctx, WriteRequest msg)
+    protected Object doOnWrite(ChannelHandlerContext ctx, WriteRequest msg)
           throws XrootdException {
         try {
-            FileChannel channel =
-                  getOpenFile(msg.getFileHandle()).getChannel();
-            channel.position(msg.getWriteOffset());
-            msg.getData(channel);
+            RandomAccessFile raf = getOpenFile(msg.getFileHandle());
+            Upload upload = _uploads.get(msg.getFileHandle());
+            if (upload != null) {
+                upload.checksummer.update(msg);
+            }
+            File file = _writablePaths.get(msg.getFileHandle());
+            invalidateFileMetadata(file);
+            WriteAggregator aggregator = null;
+            if (_configuration.writeBufferSize > 0) {
+                aggregator = _writeAggregators.computeIfAbsent(
+                      msg.getFileHandle(),
+                      fd -> new WriteAggregator(raf.getChannel(), _diskExecutor,
+                            _configuration.writeBufferSize));
+                aggregator.write(msg);
+                scheduleIdleFlush(ctx, aggregator);
+            } else {
+                msg.writeTo(raf.getChannel());
+            }
+
+            long position = msg.getWriteOffset() + msg.getDataLength();
+            if (msg.isSpliceable()
+                  && (aggregator == null || !aggregator.overlaps(position, msg.getRemainder()))) {
+                Optional<ChannelFuture> spliced = NativeFileDescriptors.of(raf.getFD())
+                      .flatMap(msg::spliceRemainderTo);
+                if (spliced.isPresent()) {
+                    if (upload != null) {
+                        upload.checksummer.invalidate();
+                    }
+                    CompletableFuture<OkResponse<WriteRequest>> response =
+                          new CompletableFuture<>();
+                    spliced.get().addListener(future -> {
+                        invalidateFileMetadata(file);
+                        if (future.isSuccess()) {
+                            response.complete(withOk(msg));
+                        } else {
+                            response.completeExceptionally(new XrootdException(kXR_IOError,
+                                  "Failed to receive data: " + future.cause()));
+                        }
+                    });
+                    /* The splice takes as long as the client needs to send the payload. */
+                    return DeferredResponse.of(response).withoutDeadline();
+                }
+            }
             return withOk(msg);
         } catch (IOException e) {
             throw new XrootdException(kXR_IOError, e.getMessage());
@@ -423,14 +582,24 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
      * Retrieves the right mover based on the request's file-handle and
      * invokes its sync-operation.
      *
+     * Pending write-behind data is flushed first; in that case the
+     * response is sent once the flush and the sync have completed on
+     * the disk executor.
+     *
      * @param ctx received from the netty pipeline
      * @param msg The actual request
      */
     @Override
     protected OkResponse<SyncRequest> doOnSync(ChannelHandlerContext ctx, SyncRequest msg)
           throws XrootdException {
+        RandomAccessFile raf = getOpenFile(msg.getFileHandle());
+        WriteAggregator aggregator = _writeAggregators.get(msg.getFileHandle());
+        if (aggregator != null) {
+            afterWrites(ctx, msg, aggregator, () -> raf.getFD().sync());
+            return null;
+        }
         try {
-            getOpenFile(msg.getFileHandle()).getFD().sync();
+            raf.getFD().sync();
             return withOk(msg);
         } catch (IOException e) {
             throw new XrootdException(kXR_IOError, e.getMessage());
@@ -441,14 +610,32 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
      * Retrieves the right descriptor based on the request's file-handle and
      * invokes its close information.
      *
+     * Pending write-behind data is flushed before the file is closed; in
+     * that case the response is sent from the disk executor.
+     *
      * @param ctx received from the netty pipeline
      * @param msg The actual request
      */
     @Override
     protected OkResponse<CloseRequest> doOnClose(ChannelHandlerContext ctx, CloseRequest msg)
           throws XrootdException {
+        WriteAggregator aggregator = _writeAggregators.remove(msg.getFileHandle());
+        Upload upload = _uploads.remove(msg.getFileHandle());
+        File written = _writablePaths.remove(msg.getFileHandle());
+        if (aggregator != null) {
+            RandomAccessFile raf = getOpenFile(msg.getFileHandle());
+            _openFiles.set(msg.getFileHandle(), null);
+            afterWrites(ctx, msg, aggregator, () -> {
+                raf.close();
+                invalidateMetadata(written);
+                storeChecksums(upload);
+            });
+            return null;
+        }
         try {
             closeOpenFile(msg.getFileHandle());
+            invalidateMetadata(written);
+            storeChecksums(upload);
             return withOk(msg);
         } catch (IOException e) {
             throw new XrootdException(kXR_IOError, e.getMessage());
@@ -458,21 +645,23 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
     @Override
     protected LocateResponse doOnLocate(ChannelHandlerContext ctx,
           LocateRequest msg) throws XrootdException {
-        File file = getFile(stripLeadingAsterix(msg.getPath()));
-        if (!file.exists()) {
+        Optional<FileStatus> status = getFileStatusOf(
+              getFile(stripLeadingAsterix(msg.getPath())));
+        if (!status.isPresent()) {
             return new LocateResponse(msg);
         } else {
             return new LocateResponse(msg,
                   new LocateResponse.InfoElement(
                         (InetSocketAddress) ctx.channel().localAddress(),
                         LocateResponse.Node.SERVER,
-                        file.canWrite() ? LocateResponse.Access.WRITE
+                        (status.get().getFlags() & kXR_writable) != 0
+                              ? LocateResponse.Access.WRITE
                               : LocateResponse.Access.READ));
         }
     }
 
     @Override
-    protected QueryResponse doOnQuery(ChannelHandlerContext ctx, QueryRequest msg)
+    protected Object doOnQuery(ChannelHandlerContext ctx, QueryRequest msg)
           throws XrootdException {
         switch (msg.getReqcode()) {
             case kXR_Qconfig:
@@ -489,7 +678,7 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
                             s.append(Integer.MAX_VALUE);
                             break;
                         case "csname":
-                            s.append("1:ADLER32");
+                            s.append(ChecksumType.toCsname());
                             break;
                         case "version":
                             s.append("xrootd4j");
@@ -503,15 +692,7 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
                 return new QueryResponse(msg, s.toString());
 
             case kXR_Qcksum:
-                try {
-                    HashCode hash = com.google.common.io.Files.asByteSource(getFile(msg.getPath()))
-                          .hash(Hashing.adler32());
-                    return new QueryResponse(msg, "ADLER32 " + hash);
-                } catch (FileNotFoundException e) {
-                    throw new XrootdException(kXR_NotFound, e.getMessage());
-                } catch (IOException e) {
-                    throw new XrootdException(kXR_IOError, e.getMessage());
-                }
+                return doOnChecksumQuery(msg);
 
             default:
                 throw new XrootdException(kXR_Unsupported,
@@ -535,6 +716,172 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
         return new SetResponse(request, "");
     }
 
+    private ChecksumType getChecksumType(QueryRequest msg) throws XrootdException {
+        Optional<String> name = new ChecksumInfo(msg.getPath(), msg.getOpaque()).getType();
+        if (!name.isPresent()) {
+            return ChecksumType.ADLER32;
+        }
+        return ChecksumType.forName(name.get()).orElseThrow(
+              () -> new XrootdException(kXR_Unsupported,
+                    "Unsupported checksum type: " + name.get()));
+    }
+
+    /**
+     * Answers a checksum query from the checksum store if possible.
+     * Otherwise the checksum is computed on the disk executor once pending
+     * write-behind data has been flushed, and the response is deferred.
+     */
+    private Object doOnChecksumQuery(QueryRequest msg) throws XrootdException {
+        ChecksumType type = getChecksumType(msg);
+        Path path = getFile(msg.getPath()).toPath();
+        CompletableFuture<?>[] writes = _writeAggregators.values().stream()
+              .filter(aggregator -> !aggregator.isIdle())
+              .map(WriteAggregator::drain)
+              .toArray(CompletableFuture[]::new);
+        if (writes.length == 0) {
+            Optional<String> stored = _configuration.checksumStore.get(path, type);
+            if (stored.isPresent()) {
+                return new QueryResponse(msg, type.name() + " " + stored.get());
+            }
+        }
+        return CompletableFuture.allOf(writes).thenApplyAsync(ignored -> {
+            try {
+                return new QueryResponse(msg, type.name() + " " + getChecksum(path, type));
+            } catch (XrootdException e) {
+                throw new CompletionException(e);
+            }
+        }, _diskExecutor);
+    }
+
+    /**
+     * Returns the checksum of the file from the checksum store, computing
+     * and storing it if necessary.
+     */
+    private String getChecksum(Path path, ChecksumType type) throws XrootdException {
+        try {
+            Optional<String> stored = _configuration.checksumStore.get(path, type);
+            if (stored.isPresent()) {
+                return stored.get();
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path,
+                  BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                throw new XrootdException(kXR_NotFile, "Not a file: " + path);
+            }
+            String value = _configuration.checksumCalculator.compute(path, type);
+            _configuration.checksumStore.put(path, type, value, attributes);
+            return value;
+        } catch (NoSuchFileException e) {
+            throw new XrootdException(kXR_NotFound, "No such file: " + path);
+        } catch (IOException e) {
+            throw new XrootdException(kXR_IOError, e.getMessage());
+        }
+    }
+
+    /**
+     * Stores the checksums computed while the file was written, provided
+     * the data written covers the whole file.
+     */
+    private void storeChecksums(Upload upload) {
+        if (upload == null || !upload.checksummer.isValid()) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(upload.path,
+                  BasicFileAttributes.class);
+            for (ChecksumType type : _configuration.uploadChecksums) {
+                upload.checksummer.getValue(type, attributes.size()).ifPresent(
+                      value -> _configuration.checksumStore.put(upload.path, type, value,
+                            attributes));
+            }
+        } catch (IOException e) {
+            _log.warn("Failed to store checksum of {}: {}", upload.path, e.toString());
+        }
+    }
+
+    private static class Upload {
+
+        final Path path;
+        final IncrementalChecksummer checksummer;
+
+        Upload(Path path, IncrementalChecksummer checksummer) {
+            this.path = path;
+            this.checksummer = checksummer;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoAction {
+
+        void run() throws IOException;
+    }
+
+    /**
+     * Drains the write-behind buffer and then runs the action on the disk
+     * executor, responding to the request once done.
+     */
+    private void afterWrites(ChannelHandlerContext ctx, XrootdRequest req,
+          WriteAggregator aggregator, IoAction action) {
+        aggregator.drain().whenCompleteAsync((ignored, t) -> {
+            try {
+                if (t != null) {
+                    throw new IOException(t.toString(), t);
+                }
+                aggregator.checkError();
+                action.run();
+                respond(ctx, withOk(req));
+            } catch (IOException e) {
+                respond(ctx, withError(ctx, req, kXR_IOError, e.getMessage()));
+            }
+        }, _diskExecutor);
+    }
+
+    @FunctionalInterface
+    private interface ReadAction {
+
+        Object run() throws XrootdException;
+    }
+
+    /**
+     * Drains the write-behind buffers, so that a subsequent read observes
+     * their data, and then creates the response on the event loop.
+     *
+     * Read responses are chunked and cannot be delivered as kXR_asynresp,
+     * so the client is not sent kXR_waitresp however long the flush takes.
+     */
+    private DeferredResponse afterFlush(ChannelHandlerContext ctx,
+          Collection<WriteAggregator> aggregators, ReadAction action) {
+        return DeferredResponse.of(CompletableFuture.allOf(aggregators.stream()
+                    .map(WriteAggregator::drain)
+                    .toArray(CompletableFuture[]::new))
+              .thenApplyAsync(ignored -> {
+                  try {
+                      for (WriteAggregator aggregator : aggregators) {
+                          try {
+                              aggregator.checkError();
+                          } catch (IOException e) {
+                              throw new XrootdException(kXR_IOError, e.getMessage());
+                          }
+                      }
+                      return action.run();
+                  } catch (XrootdException e) {
+                      throw new CompletionException(e);
+                  }
+              }, ctx.executor()))
+              .withoutWaitResponse();
+    }
+
+    private void scheduleIdleFlush(ChannelHandlerContext ctx, WriteAggregator aggregator) {
+        long delay = _configuration.writeFlushDelay;
+        if (delay > 0 && !aggregator.isIdleFlushScheduled()) {
+            aggregator.setIdleFlushScheduled(true);
+            ctx.executor().schedule(() -> {
+                aggregator.setIdleFlushScheduled(false);
+                aggregator.flush();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
     private String stripLeadingAsterix(String s) {
         return s.startsWith("*") ? s.substring(1) : s;
     }
@@ -576,31 +923,39 @@ public class DataServerHandler extends XrootdProtocolRequestHandler {
         return new File(_configuration.root, normalized);
     }
 
-    private int getFileStatusFlagsOf(File file) {
-        int flags = 0;
-        if (file.isDirectory()) {
-            flags |= kXR_isDir;
-        }
-        if (!file.isFile() && !file.isDirectory()) {
-            flags |= kXR_other;
-        }
-        if (file.canExecute()) {
-            flags |= kXR_xset;
-        }
-        if (file.canRead()) {
-            flags |= kXR_readable;
+    /**
+     * Returns the status of the file from the metadata cache, or an empty
+     * Optional if the file does not exist.
+     */
+    private Optional<FileStatus> getFileStatusOf(File file) throws XrootdException {
+        try {
+            return _configuration.metadataCache.getStatus(file.toPath());
+        } catch (IOException e) {
+            throw new XrootdException(kXR_IOError, e.getMessage());
         }
-        if (file.canWrite()) {
-            flags |= kXR_writable;
+    }
+
+    /**
+     * Invalidates the cached status of the file and of its ancestors below
+     * the root, whose modification time or existence may change along with
+     * the file.
+     */
+    private void invalidateMetadata(File file) {
+        Path root = _configuration.root.toPath();
+        for (Path path = file == null ? null : file.toPath();
+              path != null && path.startsWith(root); path = path.getParent()) {
+            _configuration.metadataCache.invalidate(path);
         }
-        return flags;
     }
 
-    private FileStatus getFileStatusOf(File file) {
-        int flags = getFileStatusFlagsOf(file);
-        return new FileStatus(0,
-              file.length(),
-              flags,
-              file.lastModified() / 1000);
+    /**
+     * Invalidates the cached status of the file alone.  Writing to an open
+     * file leaves its directory unchanged, so the entries of its ancestors
+     * are kept.
+     */
+    private void invalidateFileMetadata(File file) {
+        if (file != null) {
+            _configuration.metadataCache.invalidate(file.toPath());
+        }
     }
 }
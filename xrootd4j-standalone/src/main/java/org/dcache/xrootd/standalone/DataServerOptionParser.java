@@ -19,8 +19,11 @@ package org.dcache.xrootd.standalone;
 import static java.util.Arrays.asList;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 import joptsimple.OptionParser;
 import joptsimple.OptionSpec;
+import org.dcache.xrootd.core.XrootdRequestHandler;
+import org.dcache.xrootd.stream.ChunkedResponseWriteHandler;
 
 public class DataServerOptionParser extends OptionParser {
 
@@ -30,6 +33,32 @@ public class DataServerOptionParser extends OptionParser {
     public final OptionSpec<String> handlerPlugins;
     public final OptionSpec<File> pluginPath;
     public final OptionSpec<Void> zeroCopy;
+    public final OptionSpec<String> metrics;
+    public final OptionSpec<Integer> metricsInterval;
+    public final OptionSpec<Long> maxReadRate;
+    public final OptionSpec<Long> maxUserReadRate;
+    public final OptionSpec<Long> maxChannelReadRate;
+    public final OptionSpec<Long> maxWriteRate;
+    public final OptionSpec<Long> maxUserWriteRate;
+    public final OptionSpec<Long> maxChannelWriteRate;
+    public final OptionSpec<Integer> chunkQuantum;
+    public final OptionSpec<Integer> writeBufferSize;
+    public final OptionSpec<Integer> writeFlushDelay;
+    public final OptionSpec<Integer> minWriteSegment;
+    public final OptionSpec<Void> epoll;
+    public final OptionSpec<Integer> spliceThreshold;
+    public final OptionSpec<Integer> diskThreads;
+    public final OptionSpec<String> uploadChecksums;
+    public final OptionSpec<Long> metadataCacheSize;
+    public final OptionSpec<Long> metadataCacheTtl;
+    public final OptionSpec<Void> watchMetadata;
+    public final OptionSpec<Integer> statxBatchSize;
+    public final OptionSpec<Long> asyncResponseThreshold;
+    public final OptionSpec<Long> requestDeadline;
+    public final OptionSpec<Integer> overloadMaxQueue;
+    public final OptionSpec<Long> overloadMaxInFlight;
+    public final OptionSpec<String> overloadMaxLatency;
+    public final OptionSpec<String> overloadMaxConcurrency;
 
     {
         port = acceptsAll(asList("p", "port"))
@@ -55,5 +84,141 @@ public class DataServerOptionParser extends OptionParser {
               .describedAs("url")
               .ofType(File.class);
         zeroCopy = acceptsAll(asList("z", "zerocopy"), "Use zero copy reads");
+        metrics = acceptsAll(asList("metrics"), "request metrics plugin")
+              .withRequiredArg()
+              .describedAs("plugin")
+              .ofType(String.class);
+        metricsInterval = acceptsAll(asList("metrics-interval"),
+              "interval at which histogram metrics are logged")
+              .withRequiredArg()
+              .describedAs("seconds")
+              .ofType(Integer.class)
+              .defaultsTo(60);
+        maxReadRate = rate("max-read-rate", "total read bandwidth");
+        maxUserReadRate = rate("max-user-read-rate", "read bandwidth per user");
+        maxChannelReadRate = rate("max-channel-read-rate", "read bandwidth per connection");
+        maxWriteRate = rate("max-write-rate", "total write bandwidth");
+        maxUserWriteRate = rate("max-user-write-rate", "write bandwidth per user");
+        maxChannelWriteRate = rate("max-channel-write-rate", "write bandwidth per connection");
+        chunkQuantum = acceptsAll(asList("chunk-quantum"),
+              "bytes a read response may send before yielding to other responses "
+                    + "on the same connection")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .defaultsTo(ChunkedResponseWriteHandler.DEFAULT_QUANTUM);
+        writeBufferSize = acceptsAll(asList("write-buffer"),
+              "size of the write-behind buffer per open file, 0 to write through")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .defaultsTo(1 << 20);
+        minWriteSegment = acceptsAll(asList("min-write-segment"),
+              "number of received kXR_write payload bytes passed on to the file "
+                    + "without waiting for more, 0 to accumulate whole payloads")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .defaultsTo(16384);
+        epoll = acceptsAll(asList("epoll"),
+              "use the native epoll transport if available");
+        spliceThreshold = acceptsAll(asList("splice-threshold"),
+              "size of kXR_write payloads from which data is spliced from the socket "
+                    + "into the file on the epoll transport without TLS or write limits, "
+                    + "0 to disable")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Integer.class)
+              .defaultsTo(0);
+        writeFlushDelay = acceptsAll(asList("write-flush-delay"),
+              "time after which a partially filled write-behind buffer is flushed, "
+                    + "0 to flush only when full or on sync and close")
+              .withRequiredArg()
+              .describedAs("ms")
+              .ofType(Integer.class)
+              .defaultsTo(200);
+        diskThreads = acceptsAll(asList("disk-threads"), "number of disk I/O threads")
+              .withRequiredArg()
+              .describedAs("threads")
+              .ofType(Integer.class)
+              .defaultsTo(8);
+        uploadChecksums = acceptsAll(asList("upload-checksum"),
+              "combinable checksum types computed while files are uploaded")
+              .withRequiredArg()
+              .describedAs("type")
+              .ofType(String.class)
+              .withValuesSeparatedBy(',')
+              .defaultsTo("adler32");
+        metadataCacheSize = acceptsAll(asList("metadata-cache-size"),
+              "maximum number of cached file status entries, 0 to disable caching")
+              .withRequiredArg()
+              .describedAs("entries")
+              .ofType(Long.class)
+              .defaultsTo(100_000L);
+        metadataCacheTtl = acceptsAll(asList("metadata-cache-ttl"),
+              "time after which cached file status expires")
+              .withRequiredArg()
+              .describedAs("ms")
+              .ofType(Long.class)
+              .defaultsTo(1000L);
+        watchMetadata = acceptsAll(asList("watch-metadata"),
+              "invalidate cached file status upon changes made by other processes");
+        statxBatchSize = acceptsAll(asList("statx-batch"),
+              "number of kXR_statx paths looked up per disk thread, 0 to look up "
+                    + "all paths on the network thread")
+              .withRequiredArg()
+              .describedAs("paths")
+              .ofType(Integer.class)
+              .defaultsTo(64);
+        asyncResponseThreshold = acceptsAll(asList("async-threshold"),
+              "time after which the client is told to wait for the response "
+                    + "to a long running request")
+              .withRequiredArg()
+              .describedAs("ms")
+              .ofType(Long.class)
+              .defaultsTo(XrootdRequestHandler.DEFAULT_ASYNC_RESPONSE_THRESHOLD);
+        requestDeadline = acceptsAll(asList("request-deadline"),
+              "time after which a long running request fails, 0 for no limit")
+              .withRequiredArg()
+              .describedAs("ms")
+              .ofType(Long.class)
+              .defaultsTo(TimeUnit.SECONDS.toMillis(
+                    XrootdRequestHandler.DEFAULT_ASYNC_RESPONSE_TIMEOUT));
+        overloadMaxQueue = acceptsAll(asList("overload-max-queue"),
+              "queued disk and network tasks beyond which login, open and read "
+                    + "requests are deferred, 0 for no limit")
+              .withRequiredArg()
+              .describedAs("tasks")
+              .ofType(Integer.class)
+              .defaultsTo(0);
+        overloadMaxInFlight = acceptsAll(asList("overload-max-inflight"),
+              "bytes requested by unanswered reads beyond which reads are deferred, "
+                    + "0 for no limit")
+              .withRequiredArg()
+              .describedAs("bytes")
+              .ofType(Long.class)
+              .defaultsTo(0L);
+        overloadMaxLatency = acceptsAll(asList("overload-max-latency"),
+              "average latency per request class (login, open, read) beyond which "
+                    + "requests of the class are deferred")
+              .withRequiredArg()
+              .describedAs("class:ms")
+              .ofType(String.class)
+              .withValuesSeparatedBy(',');
+        overloadMaxConcurrency = acceptsAll(asList("overload-max-concurrency"),
+              "concurrent requests per request class (login, open, read) beyond "
+                    + "which requests of the class are deferred")
+              .withRequiredArg()
+              .describedAs("class:requests")
+              .ofType(String.class)
+              .withValuesSeparatedBy(',');
+    }
+
+    private OptionSpec<Long> rate(String option, String description) {
+        return acceptsAll(asList(option), description + ", 0 for no limit")
+              .withRequiredArg()
+              .describedAs("bytes/s")
+              .ofType(Long.class)
+              .defaultsTo(0L);
     }
 }
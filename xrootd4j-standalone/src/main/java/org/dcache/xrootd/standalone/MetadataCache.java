@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.nio.file.attribute.PosixFilePermission.GROUP_EXECUTE;
+import static java.nio.file.attribute.PosixFilePermission.GROUP_READ;
+import static java.nio.file.attribute.PosixFilePermission.GROUP_WRITE;
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_EXECUTE;
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_READ;
+import static java.nio.file.attribute.PosixFilePermission.OTHERS_WRITE;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_EXECUTE;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_READ;
+import static java.nio.file.attribute.PosixFilePermission.OWNER_WRITE;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_isDir;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_other;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readable;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_writable;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_xset;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.dcache.xrootd.util.FileStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of the status of paths below the root of the data server,
+ * shared by all connections.
+ *
+ * The status is obtained with a single bulk lookup of the POSIX attributes
+ * rather than with one system call per property.  Access permissions are
+ * derived from the permission bits; only if they are ambiguous for the
+ * server's user, i.e. the user does not own the file and the group and
+ * other bits differ, is the file system asked for an access check.  Write
+ * permission granted by the bits is always confirmed by an access check, as
+ * read-only mounts and ACLs may deny it.  File systems without POSIX
+ * attributes fall back to basic attributes and access checks.  Non-existing
+ * paths are cached as well, which is what job startup stat storms mostly
+ * consist of.
+ *
+ * Entries expire after a configurable time.  The request handlers
+ * invalidate the paths they modify, and an optional {@link WatchService}
+ * invalidates paths modified by other processes in directories holding
+ * cached entries.
+ */
+public class MetadataCache implements MetadataCacheMXBean, Closeable {
+
+    private static final Logger _log = LoggerFactory.getLogger(MetadataCache.class);
+
+    private static final int MAX_WATCHED_DIRECTORIES = 4096;
+
+    private final Cache<Path, Optional<FileStatus>> cache;
+    private final String user = System.getProperty("user.name");
+    private final boolean isRoot = "root".equals(user);
+    private final LongAdder syscalls = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    private volatile WatchService watcher;
+
+    public MetadataCache(long maximumSize, long expiry, TimeUnit unit) {
+        cache = CacheBuilder.newBuilder()
+              .maximumSize(maximumSize)
+              .expireAfterWrite(expiry, unit)
+              .recordStats()
+              .build();
+    }
+
+    /**
+     * Starts invalidating entries upon file system events in the directories
+     * of cached paths.
+     */
+    public synchronized void startWatching() throws IOException {
+        if (watcher == null) {
+            watcher = FileSystems.getDefault().newWatchService();
+            Thread thread = new Thread(this::processEvents, "metadata-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Returns the status of the file, or an empty Optional if it does not
+     * exist.
+     */
+    public Optional<FileStatus> getStatus(Path path) throws IOException {
+        try {
+            return cache.get(path, () -> load(path));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw e.getCause() instanceof IOException
+                  ? (IOException) e.getCause()
+                  : new IOException(e.getCause().toString(), e.getCause());
+        }
+    }
+
+    public void invalidate(Path path) {
+        invalidations.increment();
+        cache.invalidate(path);
+    }
+
+    private Optional<FileStatus> load(Path path) throws IOException {
+        watch(path.getParent());
+        syscalls.increment();
+        BasicFileAttributes attributes;
+        try {
+            try {
+                attributes = Files.readAttributes(path, PosixFileAttributes.class);
+            } catch (UnsupportedOperationException e) {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            }
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+
+        int flags = 0;
+        if (attributes.isDirectory()) {
+            flags |= kXR_isDir;
+        } else if (!attributes.isRegularFile()) {
+            flags |= kXR_other;
+        }
+        File file = path.toFile();
+        if (isPermitted(attributes, OWNER_EXECUTE, GROUP_EXECUTE, OTHERS_EXECUTE,
+              file::canExecute)) {
+            flags |= kXR_xset;
+        }
+        if (isPermitted(attributes, OWNER_READ, GROUP_READ, OTHERS_READ, file::canRead)) {
+            flags |= kXR_readable;
+        }
+        if (isPermitted(attributes, OWNER_WRITE, GROUP_WRITE, OTHERS_WRITE, file::canWrite)
+              && (!(attributes instanceof PosixFileAttributes) || checkAccess(file::canWrite))) {
+            flags |= kXR_writable;
+        }
+        return Optional.of(new FileStatus(0, attributes.size(), flags,
+              attributes.lastModifiedTime().to(TimeUnit.SECONDS)));
+    }
+
+    @FunctionalInterface
+    private interface AccessCheck {
+
+        boolean isPermitted();
+    }
+
+    private boolean isPermitted(BasicFileAttributes basic, PosixFilePermission owner,
+          PosixFilePermission group, PosixFilePermission others, AccessCheck check) {
+        if (!(basic instanceof PosixFileAttributes)) {
+            return checkAccess(check);
+        }
+        PosixFileAttributes attributes = (PosixFileAttributes) basic;
+        Set<PosixFilePermission> permissions = attributes.permissions();
+        if (isRoot) {
+            return owner != OWNER_EXECUTE || attributes.isDirectory()
+                  || permissions.contains(owner) || permissions.contains(group)
+                  || permissions.contains(others);
+        }
+        if (attributes.owner().getName().equals(user)) {
+            return permissions.contains(owner);
+        }
+        if (permissions.contains(group) == permissions.contains(others)) {
+            return permissions.contains(others);
+        }
+        return checkAccess(check);
+    }
+
+    private boolean checkAccess(AccessCheck check) {
+        syscalls.increment();
+        return check.isPermitted();
+    }
+
+    private void watch(Path dir) {
+        WatchService watcher = this.watcher;
+        if (watcher == null || dir == null || watchedDirectories.contains(dir)
+              || watchedDirectories.size() >= MAX_WATCHED_DIRECTORIES) {
+            return;
+        }
+        try {
+            dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            watchedDirectories.add(dir);
+        } catch (NoSuchFileException | ClosedWatchServiceException ignored) {
+        } catch (IOException e) {
+            _log.debug("Failed to watch {}: {}", dir, e.toString());
+        }
+    }
+
+    private void processEvents() {
+        WatchService watcher = this.watcher;
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        invalidateAll();
+                    } else {
+                        invalidate(dir.resolve((Path) event.context()));
+                    }
+                }
+                invalidate(dir);
+                if (!key.reset()) {
+                    watchedDirectories.remove(dir);
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException ignored) {
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        CacheStats stats = cache.stats();
+        return stats.requestCount() == 0 ? 0.0 : stats.hitRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getSyscallCount() {
+        return syscalls.sum();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public int getWatchedDirectoryCount() {
+        return watchedDirectories.size();
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.increment();
+        cache.invalidateAll();
+    }
+}
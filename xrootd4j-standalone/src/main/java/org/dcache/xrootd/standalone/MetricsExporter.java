@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.dcache.xrootd.protocol.XrootdProtocol.getClientRequest;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_REQFENCE;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
+
+import org.dcache.xrootd.plugins.metrics.histogram.HistogramMetricsRecorder;
+import org.dcache.xrootd.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically logs the content of a {@link HistogramMetricsRecorder}.
+ *
+ * Latencies are reported in microseconds.  Histograms are cumulative since
+ * server start.
+ */
+public class MetricsExporter implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsExporter.class);
+
+    private final HistogramMetricsRecorder recorder;
+
+    public MetricsExporter(HistogramMetricsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void run() {
+        if (!LOGGER.isInfoEnabled()) {
+            return;
+        }
+        LOGGER.info("bytes received {}, bytes sent {}", recorder.getBytesReceived(),
+              recorder.getBytesSent());
+        for (int requestId = kXR_auth; requestId < kXR_REQFENCE; requestId++) {
+            log(requestId, "latency", recorder.getLatency(requestId));
+            log(requestId, "ttfb", recorder.getTimeToFirstByte(requestId));
+            log(requestId, "ttlb", recorder.getTimeToLastByte(requestId));
+        }
+    }
+
+    private static void log(int requestId, String name, LatencyHistogram histogram) {
+        if (histogram == null || histogram.getCount() == 0) {
+            return;
+        }
+        LOGGER.info("{} {} [us]: count={} mean={} p50={} p90={} p99={} p99.9={} max={}",
+              getClientRequest(requestId), name, histogram.getCount(),
+              NANOSECONDS.toMicros((long) histogram.getMean()),
+              micros(histogram, 50), micros(histogram, 90), micros(histogram, 99),
+              micros(histogram, 99.9), NANOSECONDS.toMicros(histogram.getMax()));
+    }
+
+    private static long micros(LatencyHistogram histogram, double percentile) {
+        return NANOSECONDS.toMicros(histogram.getValueAtPercentile(percentile));
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+
+/**
+ * Write-behind aggregation of kXR_write segments for a single open file.
+ *
+ * Contiguous segments are copied into direct buffers of up to
+ * {@code bufferSize} bytes. A buffer is flushed once it is full, when a
+ * non-contiguous segment arrives, or when {@link #flush} or {@link #drain}
+ * are called. Buffers end on file offsets aligned to {@value #ALIGNMENT}
+ * bytes, so that all but the first flush of a sequential stream start on
+ * a block boundary.
+ *
+ * Segments of at least {@code bufferSize} bytes arriving while no data is
+ * buffered bypass the buffer: the request is retained and its payload is
+ * written directly.
+ *
+ * Flushes are executed as positional writes on a disk executor. Since they
+ * do not share a channel position, flushes of disjoint regions of the file
+ * run in parallel; a flush only waits for in-flight flushes overlapping its
+ * region, which preserves the order of overlapping writes. I/O errors are
+ * latched and reported by all subsequent calls to {@link #write} and
+ * {@link #checkError}, in particular on the next kXR_sync or kXR_close.
+ *
+ * Except for the flushes, instances are confined to the channel's event loop.
+ */
+public class WriteAggregator {
+
+    public static final int ALIGNMENT = 4096;
+
+    private static final int MAX_POOLED_BUFFERS = 2;
+
+    private final FileChannel channel;
+    private final Executor executor;
+    private final int bufferSize;
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    private final List<InFlight> inFlight = new ArrayList<>();
+
+    private ByteBuffer buffer;
+    private long bufferOffset;
+    private boolean isIdleFlushScheduled;
+
+    public WriteAggregator(FileChannel channel, Executor executor, int bufferSize) {
+        this.channel = channel;
+        this.executor = executor;
+        this.bufferSize = Math.max(ALIGNMENT, bufferSize - bufferSize % ALIGNMENT);
+    }
+
+    /**
+     * Copies the payload of the request into the aggregation buffer,
+     * flushing the buffer as necessary.
+     */
+    public void write(WriteRequest request) throws IOException {
+        checkError();
+        long offset = request.getWriteOffset();
+        if (buffer != null && offset != bufferOffset + buffer.position()) {
+            flush();
+        }
+        if (buffer == null && request.getDataLength() >= bufferSize) {
+            request.retain();
+            submit(offset, request.getDataLength(), () -> {
+                try {
+                    request.writeTo(channel);
+                } finally {
+                    request.release();
+                }
+            });
+            return;
+        }
+        for (ByteBuffer src : request.toByteBuffers()) {
+            while (src.hasRemaining()) {
+                if (buffer == null) {
+                    buffer = allocate(offset);
+                    bufferOffset = offset;
+                }
+                int length = Math.min(src.remaining(), buffer.remaining());
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + length);
+                buffer.put(slice);
+                src.position(src.position() + length);
+                offset += length;
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+    }
+
+    private ByteBuffer allocate(long offset) {
+        ByteBuffer b = freeBuffers.poll();
+        if (b == null) {
+            b = ByteBuffer.allocateDirect(bufferSize);
+        }
+        b.clear();
+        b.limit(bufferSize - (int) (offset % ALIGNMENT));
+        return b;
+    }
+
+    /**
+     * Submits the content of the aggregation buffer to the disk executor.
+     */
+    public void flush() {
+        if (buffer == null) {
+            return;
+        }
+        ByteBuffer b = buffer;
+        long position = bufferOffset;
+        buffer = null;
+        if (b.position() == 0) {
+            recycle(b);
+            return;
+        }
+        b.flip();
+        submit(position, b.remaining(), () -> {
+            try {
+                while (b.hasRemaining()) {
+                    channel.write(b, position + b.position());
+                }
+            } finally {
+                recycle(b);
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface IoTask {
+
+        void run() throws IOException;
+    }
+
+    private void submit(long position, long length, IoTask task) {
+        inFlight.removeIf(f -> f.future.isDone());
+        List<CompletableFuture<Void>> overlapping = new ArrayList<>();
+        for (InFlight f : inFlight) {
+            if (f.overlaps(position, length)) {
+                overlapping.add(f.future);
+            }
+        }
+        CompletableFuture<Void> future = CompletableFuture
+              .allOf(overlapping.toArray(new CompletableFuture[0]))
+              .handleAsync((ignored, t) -> {
+                  try {
+                      task.run();
+                  } catch (IOException e) {
+                      error.compareAndSet(null, e);
+                  } catch (RuntimeException e) {
+                      error.compareAndSet(null, new IOException(e.toString(), e));
+                  }
+                  return null;
+              }, executor);
+        inFlight.add(new InFlight(position, length, future));
+    }
+
+    private void recycle(ByteBuffer b) {
+        if (freeBuffers.size() < MAX_POOLED_BUFFERS) {
+            freeBuffers.offer(b);
+        }
+    }
+
+    /**
+     * Flushes the aggregation buffer.
+     *
+     * @return a future completing once all data written so far has reached
+     * the file, or failed to do so
+     */
+    public CompletableFuture<Void> drain() {
+        flush();
+        inFlight.removeIf(f -> f.future.isDone());
+        return CompletableFuture.allOf(inFlight.stream()
+              .map(f -> f.future)
+              .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Returns true if no data is buffered or being flushed.
+     */
+    public boolean isIdle() {
+        return buffer == null && inFlight.stream().allMatch(f -> f.future.isDone());
+    }
+
+    /**
+     * Returns true if buffered or in-flight data overlaps the given region
+     * of the file.
+     */
+    public boolean overlaps(long position, long length) {
+        if (buffer != null && position < bufferOffset + buffer.position()
+              && bufferOffset < position + length) {
+            return true;
+        }
+        return inFlight.stream().anyMatch(f -> !f.future.isDone() && f.overlaps(position, length));
+    }
+
+    /**
+     * Throws the first I/O error encountered while flushing, if any.
+     */
+    public void checkError() throws IOException {
+        IOException e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    boolean isIdleFlushScheduled() {
+        return isIdleFlushScheduled;
+    }
+
+    void setIdleFlushScheduled(boolean isScheduled) {
+        isIdleFlushScheduled = isScheduled;
+    }
+
+    private static class InFlight {
+
+        final long position;
+        final long length;
+        final CompletableFuture<Void> future;
+
+        InFlight(long position, long length, CompletableFuture<Void> future) {
+            this.position = position;
+            this.length = length;
+            this.future = future;
+        }
+
+        boolean overlaps(long position, long length) {
+            return position < this.position + this.length
+                  && this.position < position + length;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.checksum;
+
+import com.google.common.hash.Hasher;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Computes checksums of files.
+ *
+ * Files larger than one chunk are split into chunks whose checksums are
+ * computed in parallel on a fork-join pool and then combined, provided the
+ * checksum type is combinable. Other types are computed sequentially.
+ */
+public class ChecksumCalculator {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ForkJoinPool pool;
+    private final long chunkSize;
+
+    public ChecksumCalculator(ForkJoinPool pool, long chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    public String compute(Path file, ChecksumType type) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!type.isCombinable() || size <= chunkSize) {
+                return type.format(hash(channel, type, 0, size).hash());
+            }
+
+            List<Future<Long>> chunks = new ArrayList<>();
+            for (long position = 0; position < size; position += chunkSize) {
+                long start = position;
+                long length = Math.min(chunkSize, size - position);
+                chunks.add(pool.submit(
+                      () -> type.toValue(hash(channel, type, start, length).hash())));
+            }
+
+            long value = get(chunks.get(0));
+            for (int i = 1; i < chunks.size(); i++) {
+                long length = Math.min(chunkSize, size - i * chunkSize);
+                value = type.combine(value, get(chunks.get(i)), length);
+            }
+            return type.format(value);
+        }
+    }
+
+    private static long get(Future<Long> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while computing checksum");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.toString(), cause);
+        }
+    }
+
+    private static Hasher hash(FileChannel channel, ChecksumType type, long position,
+          long length) throws IOException {
+        Hasher hasher = type.getHashFunction().newHasher();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(length, 1)));
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += n;
+            buffer.flip();
+            hasher.putBytes(buffer);
+        }
+        return hasher;
+    }
+}
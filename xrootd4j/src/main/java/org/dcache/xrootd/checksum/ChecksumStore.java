@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.checksum;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists checksums in user defined extended attributes of the file.
+ *
+ * Each entry records the size and modification time of the file at the
+ * time the checksum was computed, and is ignored once either has changed.
+ * File systems without extended attribute support are tolerated; nothing
+ * is persisted on them.
+ */
+public class ChecksumStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChecksumStore.class);
+
+    private static final String PREFIX = "xrootd4j.checksum.";
+
+    private static UserDefinedFileAttributeView viewOf(Path file) {
+        return Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+    }
+
+    private static String attributeName(ChecksumType type) {
+        return PREFIX + type.name().toLowerCase();
+    }
+
+    private static String stamp(BasicFileAttributes attributes) {
+        return attributes.size() + " " + attributes.lastModifiedTime().to(NANOSECONDS);
+    }
+
+    /**
+     * Returns the stored checksum if it is still valid for the file.
+     */
+    public Optional<String> get(Path file, ChecksumType type) {
+        UserDefinedFileAttributeView view = viewOf(file);
+        if (view == null) {
+            return Optional.empty();
+        }
+        try {
+            String name = attributeName(type);
+            if (!view.list().contains(name)) {
+                return Optional.empty();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(name));
+            view.read(name, buffer);
+            buffer.flip();
+            String entry = US_ASCII.decode(buffer).toString();
+            int separator = entry.indexOf(' ');
+            if (separator < 0) {
+                return Optional.empty();
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file,
+                  BasicFileAttributes.class);
+            if (!entry.substring(separator + 1).equals(stamp(attributes))) {
+                return Optional.empty();
+            }
+            return Optional.of(entry.substring(0, separator));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Failed to read checksum of {}: {}", file, e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a checksum for the file.
+     *
+     * @param attributes the attributes of the file at the time the
+     * computation of the checksum began; nothing is stored if the file has
+     * changed since.
+     */
+    public void put(Path file, ChecksumType type, String value, BasicFileAttributes attributes) {
+        UserDefinedFileAttributeView view = viewOf(file);
+        if (view == null) {
+            return;
+        }
+        try {
+            String stamp = stamp(attributes);
+            if (!stamp.equals(stamp(Files.readAttributes(file, BasicFileAttributes.class)))) {
+                LOGGER.debug("Not storing checksum of {}: file changed during computation", file);
+                return;
+            }
+            view.write(attributeName(type), US_ASCII.encode(value + " " + stamp));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Failed to store checksum of {}: {}", file, e.toString());
+        }
+    }
+}
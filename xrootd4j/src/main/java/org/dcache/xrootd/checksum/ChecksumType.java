@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.checksum;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.util.Optional;
+
+/**
+ * The checksum algorithms supported by the checksum subsystem.
+ *
+ * Values are presented as lower case hex strings; 32 bit checksums are
+ * formatted as unsigned big-endian integers, as expected by xrootd clients.
+ */
+@SuppressWarnings("deprecation") // Hashing.md5 is deprecated for security uses only
+public enum ChecksumType {
+    ADLER32(Hashing.adler32(), true),
+    CRC32C(Hashing.crc32c(), true),
+    MD5(Hashing.md5(), false);
+
+    private final HashFunction hashFunction;
+    private final boolean isCombinable;
+
+    ChecksumType(HashFunction hashFunction, boolean isCombinable) {
+        this.hashFunction = hashFunction;
+        this.isCombinable = isCombinable;
+    }
+
+    public HashFunction getHashFunction() {
+        return hashFunction;
+    }
+
+    /**
+     * Returns true if the checksum of a concatenation can be computed from
+     * the checksums of its parts, see {@link #combine}.
+     */
+    public boolean isCombinable() {
+        return isCombinable;
+    }
+
+    /**
+     * Returns the checksum of the concatenation of two byte sequences.
+     *
+     * @param first checksum value of the first sequence
+     * @param second checksum value of the second sequence
+     * @param secondLength length of the second sequence
+     * @throws UnsupportedOperationException if the type is not combinable
+     */
+    public long combine(long first, long second, long secondLength) {
+        switch (this) {
+            case ADLER32:
+                return ChecksumCombiner.adler32(first, second, secondLength);
+            case CRC32C:
+                return ChecksumCombiner.crc32c(first, second, secondLength);
+            default:
+                throw new UnsupportedOperationException(name() + " is not combinable");
+        }
+    }
+
+    /**
+     * Returns the numeric value of a combinable checksum.
+     */
+    public long toValue(HashCode hash) {
+        return hash.asInt() & 0xFFFFFFFFL;
+    }
+
+    public String format(long value) {
+        return String.format("%08x", value);
+    }
+
+    public String format(HashCode hash) {
+        return isCombinable ? format(toValue(hash)) : hash.toString();
+    }
+
+    /**
+     * Returns the type with the given name, ignoring case.
+     */
+    public static Optional<ChecksumType> forName(String name) {
+        for (ChecksumType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) {
+                return Optional.of(type);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the list of supported checksums in the format of the
+     * {@code csname} kXR_Qconfig answer, e.g. "1:ADLER32,2:CRC32C,3:MD5".
+     */
+    public static String toCsname() {
+        StringBuilder s = new StringBuilder();
+        for (ChecksumType type : values()) {
+            if (s.length() > 0) {
+                s.append(',');
+            }
+            s.append(type.ordinal() + 1).append(':').append(type.name());
+        }
+        return s.toString();
+    }
+}
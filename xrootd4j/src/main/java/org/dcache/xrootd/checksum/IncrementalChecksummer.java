@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.checksum;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.hash.Hasher;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import org.dcache.xrootd.util.ByteBuffersProvider;
+
+/**
+ * Computes checksums of a file from the data as it is written, so that the
+ * file does not have to be reread to obtain its checksum.
+ *
+ * Segments may arrive in any order. The checksums of each maximal run of
+ * contiguous data are kept and combined as segments are added, so that in
+ * the common case of sequential writes there is a single run starting at
+ * offset zero. Only combinable checksum types are supported.
+ *
+ * If segments overlap, or the data becomes too fragmented, the checksummer
+ * gives up and no checksum is available; the caller then has to fall back
+ * to reading the file.
+ *
+ * Instances are not thread safe.
+ */
+public class IncrementalChecksummer {
+
+    private static final int MAX_RUNS = 1024;
+
+    private static class Run {
+
+        long length;
+        final long[] values;
+
+        Run(long length, long[] values) {
+            this.length = length;
+            this.values = values;
+        }
+    }
+
+    private final ChecksumType[] types;
+    private final TreeMap<Long, Run> runs = new TreeMap<>();
+    private boolean isValid = true;
+
+    public IncrementalChecksummer(Set<ChecksumType> types) {
+        this.types = types.toArray(new ChecksumType[0]);
+        for (ChecksumType type : this.types) {
+            checkArgument(type.isCombinable(), "%s is not combinable", type);
+        }
+    }
+
+    public boolean supports(ChecksumType type) {
+        for (ChecksumType t : types) {
+            if (t == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isValid() {
+        return isValid;
+    }
+
+    /**
+     * Adds the payload of a write request or inbound read response at its
+     * write offset.
+     */
+    public void update(ByteBuffersProvider provider) {
+        update(provider.getWriteOffset(), provider.toByteBuffers());
+    }
+
+    /**
+     * Adds data at the given offset. The positions of the buffers are not
+     * modified.
+     */
+    public void update(long offset, ByteBuffer... buffers) {
+        if (!isValid) {
+            return;
+        }
+
+        Hasher[] hashers = new Hasher[types.length];
+        for (int i = 0; i < types.length; i++) {
+            hashers[i] = types[i].getHashFunction().newHasher();
+        }
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+            for (Hasher hasher : hashers) {
+                hasher.putBytes(buffer.duplicate());
+            }
+        }
+        if (length == 0) {
+            return;
+        }
+        long[] values = new long[types.length];
+        for (int i = 0; i < types.length; i++) {
+            values[i] = types[i].toValue(hashers[i].hash());
+        }
+        add(offset, new Run(length, values));
+    }
+
+    private void add(long offset, Run run) {
+        Map.Entry<Long, Run> before = runs.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue().length > offset) {
+            invalidate();
+            return;
+        }
+        Map.Entry<Long, Run> after = runs.ceilingEntry(offset);
+        if (after != null && offset + run.length > after.getKey()) {
+            invalidate();
+            return;
+        }
+
+        if (before != null && before.getKey() + before.getValue().length == offset) {
+            append(before.getValue(), run);
+            run = before.getValue();
+            offset = before.getKey();
+        } else {
+            runs.put(offset, run);
+        }
+        if (after != null && offset + run.length == after.getKey()) {
+            runs.remove(after.getKey());
+            append(run, after.getValue());
+        }
+
+        if (runs.size() > MAX_RUNS) {
+            invalidate();
+        }
+    }
+
+    private void append(Run run, Run next) {
+        for (int i = 0; i < types.length; i++) {
+            run.values[i] = types[i].combine(run.values[i], next.values[i], next.length);
+        }
+        run.length += next.length;
+    }
+
+    /**
+     * Marks the checksums as unknown, e.g. because data was written that
+     * could not be added.
+     */
+    public void invalidate() {
+        isValid = false;
+        runs.clear();
+    }
+
+    /**
+     * Returns the formatted checksum of the file, provided the data added
+     * covers the file from offset zero up to {@code size} without gaps.
+     */
+    public Optional<String> getValue(ChecksumType type, long size) {
+        if (!isValid || !supports(type)) {
+            return Optional.empty();
+        }
+        if (runs.isEmpty()) {
+            return size == 0
+                  ? Optional.of(type.format(type.getHashFunction().newHasher().hash()))
+                  : Optional.empty();
+        }
+        Run run = runs.get(0L);
+        if (runs.size() != 1 || run == null || run.length != size) {
+            return Optional.empty();
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == type) {
+                return Optional.of(type.format(run.values[i]));
+            }
+        }
+        return Optional.empty();
+    }
+}
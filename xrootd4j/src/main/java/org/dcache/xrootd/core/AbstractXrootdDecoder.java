@@ -44,8 +44,13 @@ import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
 
 import com.google.common.base.Throwables;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.unix.FileDescriptor;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.ssl.SslHandler;
 import javax.net.ssl.SSLException;
 import org.dcache.xrootd.protocol.XrootdProtocol;
 import org.dcache.xrootd.protocol.messages.AuthenticationRequest;
@@ -82,12 +87,42 @@ import org.slf4j.LoggerFactory;
  * Modified to handle (serial) segmentation of write requests
  * such that the amount of data written never exceeds a maximum
  * direct I/O buffer size.
+ *
+ * With a minimum write segment size set, write payloads are streamed: a
+ * segment is passed on as soon as at least that many payload bytes have
+ * been received, rather than once the maximum buffer size has been
+ * accumulated.  Segments are retained slices of the received buffers, and
+ * partial frames are kept in a composite cumulation, so payload bytes are
+ * not copied by the decoder.
+ *
+ * On level-triggered native epoll channels without TLS, provided the optional
+ * native transport is on the class path, the payload of large write
+ * requests may instead be spliced from the socket into the file: the
+ * request is passed on as soon as its header has been received, together
+ * with the payload bytes received so far, and the handler may then
+ * transfer the remainder with {@link WriteRequest#spliceRemainderTo}.
  */
 public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
 
     protected static final Logger LOGGER =
           LoggerFactory.getLogger(AbstractXrootdDecoder.class);
 
+    /**
+     * Whether the optional native epoll transport is on the class path;
+     * {@link EpollSplicing} is only loaded if it is.
+     */
+    private static final boolean IS_EPOLL_AVAILABLE = isClassAvailable(
+          "io.netty.channel.epoll.AbstractEpollStreamChannel");
+
+    private static boolean isClassAvailable(String name) {
+        try {
+            Class.forName(name, false, AbstractXrootdDecoder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
     static XrootdException createException(ChannelHandlerContext ctx, SSLException e, String sessionToken) {
         String message = String.format("SSL failure on channel (%s), session token (%s), caused by (%s: root cause %s).",
               ctx.channel(), sessionToken, e.getMessage(), Throwables.getRootCause(e).toString());
@@ -97,6 +132,10 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
 
     private int maxWriteBufferSize = Integer.MAX_VALUE;
 
+    private int minWriteSegmentSize;
+
+    private int spliceThreshold;
+
     private WriteRequest lastWrite;
     private int remainingDataLength;
 
@@ -110,6 +149,32 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
         this.maxWriteBufferSize = maxFrameSize;
     }
 
+    public int getMinWriteSegmentSize() {
+        return minWriteSegmentSize;
+    }
+
+    /**
+     * Sets the number of payload bytes from which a segment of a write
+     * request is passed on before the maximum write buffer size has been
+     * received, 0 to always accumulate the maximum.
+     */
+    public void setMinWriteSegmentSize(int minWriteSegmentSize) {
+        this.minWriteSegmentSize = minWriteSegmentSize;
+        setCumulator(minWriteSegmentSize > 0 ? COMPOSITE_CUMULATOR : MERGE_CUMULATOR);
+    }
+
+    public int getSpliceThreshold() {
+        return spliceThreshold;
+    }
+
+    /**
+     * Sets the minimum payload size of write requests for which splicing
+     * is offered, 0 to disable splicing.
+     */
+    public void setSpliceThreshold(int spliceThreshold) {
+        this.spliceThreshold = spliceThreshold;
+    }
+
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (cause instanceof SSLException) {
             super.exceptionCaught(ctx, createException(ctx, (SSLException) cause, sessionToken));
@@ -187,6 +252,9 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
          */
         if (remainingDataLength > 0) {
             int desiredChunk = Math.min(maxWriteBufferSize, remainingDataLength);
+            if (isStreamable(readable, remainingDataLength)) {
+                desiredChunk = Math.min(desiredChunk, readable);
+            }
             LOGGER.trace("verifyMessageLength: remaining {}, desired {}, readable {}",
                   remainingDataLength, desiredChunk, readable);
             if (readable < desiredChunk) {
@@ -226,21 +294,25 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
         int length = CLIENT_REQUEST_LEN + Math.min(frameLength, maxWriteBufferSize);
 
         if (readable < length) {
-            return 0;
+            if (requestId != kXR_write
+                  || !isStreamable(readable - CLIENT_REQUEST_LEN, frameLength)) {
+                return 0;
+            }
+            length = readable;
         }
 
         /*
          *  It is only feasible to segment the data payload of a write request;
          *  should any other request exceed the max buffer size, we disconnect.
          */
-        if (frameLength > maxWriteBufferSize) {
+        if (length - CLIENT_REQUEST_LEN < frameLength) {
             if (requestId != kXR_write) {
                 /*
                  * disconnect
                  */
                 return -1;
             }
-            remainingDataLength = frameLength - maxWriteBufferSize;
+            remainingDataLength = frameLength - (length - CLIENT_REQUEST_LEN);
             LOGGER.trace("verifyMessageLength: write request data length: {}", frameLength);
         } else {
             remainingDataLength = 0;
@@ -261,11 +333,11 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
             fhandle = frame.getInt(4);
             offset = frame.getLong(8);
             /*
-             *  The full frame size is in the header of this buffer, so we need to
-             *  compare to the max size and take the lesser.
+             *  The full frame size is in the header of this buffer, but the
+             *  frame may only hold the first segment of the payload.
              */
-            length = Math.min(frame.getInt(20), maxWriteBufferSize);
-            data = frame.retainedSlice(24, length);
+            length = frame.readableBytes() - CLIENT_REQUEST_LEN;
+            data = frame.retainedSlice(CLIENT_REQUEST_LEN, length);
         } else {
             streamId = lastWrite.getStreamId();
             fhandle = lastWrite.getFileHandle();
@@ -288,4 +360,76 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder {
 
         return request;
     }
+
+    /**
+     * Returns true if {@code received} payload bytes form a segment to be
+     * passed on before the maximum write buffer size has been received.
+     */
+    private boolean isStreamable(int received, int remaining) {
+        return minWriteSegmentSize > 0 && received > 0
+              && received >= Math.min(minWriteSegmentSize, remaining);
+    }
+
+    /**
+     * Decodes the write request at the head of the buffer if its remainder
+     * may be spliced, i.e. if splicing is enabled and possible on this
+     * channel, the payload is at least the splice threshold and has not
+     * been fully received yet.  All bytes in the buffer are consumed.
+     *
+     * @return the request, or null if the head of the buffer is not a
+     * spliceable write request
+     */
+    protected WriteRequest decodeSpliceableWrite(ChannelHandlerContext ctx, ByteBuf in) {
+        int readable = in.readableBytes();
+        if (spliceThreshold <= 0 || remainingDataLength > 0 || readable < CLIENT_REQUEST_LEN
+              || !IS_EPOLL_AVAILABLE || !EpollSplicing.canSplice(ctx.channel())
+              || ctx.pipeline().get(SslHandler.class) != null) {
+            return null;
+        }
+
+        int pos = in.readerIndex();
+        int frameLength = in.getInt(pos + 20);
+        int received = readable - CLIENT_REQUEST_LEN;
+        if (in.getUnsignedShort(pos + 2) != kXR_write || frameLength < spliceThreshold
+              || received >= frameLength || received > maxWriteBufferSize) {
+            return null;
+        }
+
+        ByteBuf frame = in.readSlice(readable);
+        Channel channel = ctx.channel();
+        remainingDataLength = frameLength - received;
+        lastWrite = new WriteRequest(frame.getUnsignedShort(0), frame.getInt(4),
+              frame.getLong(8), received, frame.retainedSlice(CLIENT_REQUEST_LEN, received),
+              remainingDataLength, (request, fd) -> splice(channel, request, fd));
+
+        LOGGER.trace("decodeSpliceableWrite: {}; remaining: {}.", lastWrite,
+              remainingDataLength);
+
+        return lastWrite;
+    }
+
+    /**
+     * Hands the remainder of the payload over to the transport, provided
+     * none of it has been decoded yet.  Since splicing happens on the event
+     * loop before any further data is read into buffers, framing resumes
+     * with the next request once the splice has completed; should it fail,
+     * framing is lost and the channel is closed.
+     */
+    private ChannelFuture splice(Channel channel, WriteRequest request, FileDescriptor fd) {
+        long position = request.getWriteOffset() + request.getDataLength();
+        int length = request.getRemainder();
+        if (request != lastWrite || remainingDataLength != length
+              || internalBuffer().isReadable() || !channel.eventLoop().inEventLoop()
+              || position + length > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        lastWrite = null;
+        remainingDataLength = 0;
+
+        LOGGER.trace("splicing {} bytes to offset {} of fd {}.", length, position, fd);
+
+        return EpollSplicing.spliceTo(channel, fd, (int) position, length)
+              .addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
 }
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.security.auth.Subject;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.util.TokenBucket;
+
+/**
+ * Token bucket based bandwidth limits for one direction of traffic (either
+ * outbound read data or inbound write data).
+ *
+ * Three limits apply to each transfer: a global limit shared by all
+ * channels, a limit per user and a limit per channel.  A transfer has
+ * to wait for the most restrictive of the three.  Users are identified
+ * by the first principal of the authenticated subject or, lacking that,
+ * by the login user name; the mapping can be replaced with
+ * {@link #setUserKey}.
+ *
+ * Limits may be changed at runtime, e.g. through JMX, and take effect
+ * for existing channels and users with the next transfer.
+ */
+public class BandwidthShaper implements BandwidthShaperMXBean {
+
+    private static final String ANONYMOUS = "";
+
+    private final TokenBucket global;
+
+    private final LoadingCache<String, TokenBucket> users =
+          CacheBuilder.newBuilder()
+                .expireAfterAccess(10, TimeUnit.MINUTES)
+                .build(new CacheLoader<String, TokenBucket>() {
+                    @Override
+                    public TokenBucket load(String user) {
+                        return new TokenBucket(userRate);
+                    }
+                });
+
+    private volatile long userRate;
+    private volatile long channelRate;
+    private volatile Function<XrootdRequest, String> userKey = BandwidthShaper::defaultUserKey;
+
+    public BandwidthShaper(long globalRate, long userRate, long channelRate) {
+        this.global = new TokenBucket(globalRate);
+        this.userRate = userRate;
+        this.channelRate = channelRate;
+    }
+
+    private static String defaultUserKey(XrootdRequest request) {
+        XrootdSession session = request.getSession();
+        if (session == null) {
+            return ANONYMOUS;
+        }
+        Subject subject = session.getSubject();
+        if (subject != null) {
+            for (Principal principal : subject.getPrincipals()) {
+                return principal.getName();
+            }
+        }
+        String name = session.getUserName();
+        return name == null ? ANONYMOUS : name;
+    }
+
+    public void setUserKey(Function<XrootdRequest, String> userKey) {
+        this.userKey = userKey;
+    }
+
+    /**
+     * Returns true if any limit is set.
+     */
+    public boolean isEnabled() {
+        return global.getRate() > 0 || userRate > 0 || channelRate > 0;
+    }
+
+    /**
+     * Creates the limiter for a new channel.  Each channel must use its
+     * own instance.
+     */
+    public ChannelShaper newChannelShaper() {
+        return new ChannelShaper();
+    }
+
+    @Override
+    public long getGlobalRate() {
+        return global.getRate();
+    }
+
+    @Override
+    public void setGlobalRate(long rate) {
+        global.setRate(rate);
+    }
+
+    @Override
+    public long getUserRate() {
+        return userRate;
+    }
+
+    @Override
+    public void setUserRate(long rate) {
+        userRate = rate;
+    }
+
+    @Override
+    public long getChannelRate() {
+        return channelRate;
+    }
+
+    @Override
+    public void setChannelRate(long rate) {
+        channelRate = rate;
+    }
+
+    private static long reserve(TokenBucket bucket, long rate, long bytes) {
+        if (bucket.getRate() != rate) {
+            bucket.setRate(rate);
+        }
+        return bucket.reserve(bytes);
+    }
+
+    /**
+     * Applies the limits of the shaper to a single channel.
+     */
+    public class ChannelShaper {
+
+        private final TokenBucket channel = new TokenBucket(channelRate);
+
+        /**
+         * Accounts for {@code bytes} transferred on behalf of the request.
+         *
+         * @return the number of nanoseconds the channel should pause before
+         * transferring more data
+         */
+        public long acquire(XrootdRequest request, long bytes) {
+            long delay = global.reserve(bytes);
+            long rate = userRate;
+            if (rate > 0) {
+                TokenBucket user = users.getUnchecked(userKey.apply(request));
+                delay = Math.max(delay, reserve(user, rate, bytes));
+            }
+            return Math.max(delay, reserve(channel, channelRate, bytes));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.CompletionStage;
+import org.dcache.xrootd.stream.ChunkedResponse;
+
+/**
+ * A response deferred by a request handler, together with options for how
+ * the client is kept waiting for it.
+ *
+ * A handler returning a plain {@link CompletionStage} gets the default
+ * options: a kXR_waitresp is sent once the stage takes longer than the async
+ * response threshold, the response is then delivered as kXR_asynresp, and
+ * it fails with kXR_ServerError once the request deadline has passed.
+ */
+public final class DeferredResponse {
+
+    public static final long DEFAULT_DEADLINE = -1;
+
+    private final CompletionStage<?> stage;
+    private final boolean isWaitResponseAllowed;
+    private final long deadline;
+
+    private DeferredResponse(CompletionStage<?> stage, boolean isWaitResponseAllowed,
+          long deadline) {
+        this.stage = requireNonNull(stage);
+        this.isWaitResponseAllowed = isWaitResponseAllowed;
+        this.deadline = deadline;
+    }
+
+    public static DeferredResponse of(CompletionStage<?> stage) {
+        return new DeferredResponse(stage, true, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * Returns a deferred response for which the client is never sent
+     * kXR_waitresp, however long the stage takes.
+     *
+     * Stages that may complete with a {@link ChunkedResponse} must be
+     * deferred this way, as a chunked response cannot be delivered as
+     * kXR_asynresp.
+     */
+    public DeferredResponse withoutWaitResponse() {
+        return new DeferredResponse(stage, false, deadline);
+    }
+
+    /**
+     * Returns a deferred response which fails if it has not completed within
+     * the given number of milliseconds, instead of the handler's request
+     * deadline.  Zero disables the deadline.
+     *
+     * Stages that complete only once the client has sent the payload of the
+     * request, such as spliced uploads, depend on the client's bandwidth and
+     * should not be bound by the request deadline.
+     */
+    public DeferredResponse withDeadline(long millis) {
+        checkArgument(millis >= 0, "Deadline must not be negative");
+        return new DeferredResponse(stage, isWaitResponseAllowed, millis);
+    }
+
+    public DeferredResponse withoutDeadline() {
+        return withDeadline(0);
+    }
+
+    public CompletionStage<?> getStage() {
+        return stage;
+    }
+
+    public boolean isWaitResponseAllowed() {
+        return isWaitResponseAllowed;
+    }
+
+    /**
+     * Returns the deadline in milliseconds, zero if there is none, or
+     * {@link #DEFAULT_DEADLINE} for the handler's request deadline.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.channel.epoll.EpollChannelConfig;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.unix.FileDescriptor;
+
+/**
+ * Access to the native epoll transport for splicing.
+ *
+ * The native transport is an optional dependency; this class must only be
+ * loaded once the decoder has found the transport on the class path.
+ */
+final class EpollSplicing {
+
+    private EpollSplicing() {
+    }
+
+    /**
+     * Returns true if data may be spliced from the channel, i.e. if it is a
+     * level-triggered native epoll channel.
+     */
+    static boolean canSplice(Channel channel) {
+        return channel instanceof AbstractEpollStreamChannel
+              && ((EpollChannelConfig) channel.config()).getEpollMode()
+              == EpollMode.LEVEL_TRIGGERED;
+    }
+
+    static ChannelFuture spliceTo(Channel channel, FileDescriptor fd, int offset, int length) {
+        return ((AbstractEpollStreamChannel) channel).spliceTo(fd, offset, length);
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+
+/**
+ * Limits the rate of inbound write data by toggling auto-read on the
+ * channel.
+ *
+ * Must be placed after the session handler so that write requests carry
+ * the session used to identify the user.  The write request itself is
+ * passed on right away; it is further reads from the socket that are
+ * suspended until the shaper's budget covers the data received so far.
+ * Back-pressure then propagates to the client through TCP flow control.
+ */
+public class InboundShapingHandler extends ChannelInboundHandlerAdapter {
+
+    private final BandwidthShaper.ChannelShaper shaper;
+
+    private long resumeAt;
+    private boolean isSuspended;
+
+    public InboundShapingHandler(BandwidthShaper shaper) {
+        this.shaper = shaper.newChannelShaper();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof WriteRequest) {
+            WriteRequest request = (WriteRequest) msg;
+            long delay = shaper.acquire(request, request.getDataLength());
+            if (delay > 0) {
+                suspend(ctx, delay);
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private void suspend(ChannelHandlerContext ctx, long delay) {
+        resumeAt = Math.max(resumeAt, System.nanoTime() + delay);
+        if (!isSuspended) {
+            isSuspended = true;
+            ctx.channel().config().setAutoRead(false);
+            ctx.executor().schedule(() -> resume(ctx), delay, NANOSECONDS);
+        }
+    }
+
+    private void resume(ChannelHandlerContext ctx) {
+        long remaining = resumeAt - System.nanoTime();
+        if (remaining > 0) {
+            ctx.executor().schedule(() -> resume(ctx), remaining, NANOSECONDS);
+        } else {
+            isSuspended = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+}
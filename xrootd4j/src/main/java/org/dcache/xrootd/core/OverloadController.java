@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_login;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_read;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Admission control for requests that start new work.
+ *
+ * The controller tracks the depth of the server's work queues, the number
+ * of bytes requested by admitted reads that have not been answered yet,
+ * and for each request class the number of requests in flight and a
+ * moving average of their latency.  The pressure is the largest ratio of
+ * any of these to its limit.  At a pressure above one, new requests
+ * of the classes in {@link RequestClass} are answered with kXR_wait, with a
+ * retry delay growing with the pressure; beyond the reject factor they are
+ * refused with kXR_Overloaded.
+ *
+ * A latency objective only applies while requests of the class are in
+ * flight, so that a class that has been throttled completely is probed
+ * again once its requests have drained.
+ *
+ * Limits may be changed at runtime, e.g. through JMX.  A limit of zero
+ * disables it.  For changes to reach existing connections, the channels
+ * must have an {@link OverloadHandler} even while no limit is set.  See {@link OverloadHandler} for the channel side.
+ */
+public class OverloadController implements OverloadControllerMXBean {
+
+    public enum RequestClass {
+        LOGIN, OPEN, READ;
+
+        public static RequestClass of(int requestId) {
+            switch (requestId) {
+                case kXR_login:
+                    return LOGIN;
+                case kXR_open:
+                    return OPEN;
+                case kXR_read:
+                case kXR_readv:
+                    return READ;
+                default:
+                    return null;
+            }
+        }
+
+        public static RequestClass forName(String name) {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Weight of a new latency sample in the moving average.
+     */
+    private static final int LATENCY_SMOOTHING = 8;
+
+    private static class ClassState {
+
+        volatile long maxLatency;
+        volatile int maxConcurrency;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong latency = new AtomicLong();
+        final LongAdder admitted = new LongAdder();
+        final LongAdder deferred = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+    }
+
+    private final Map<RequestClass, ClassState> classes = new EnumMap<>(RequestClass.class);
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private volatile IntSupplier queueDepth = () -> 0;
+    private volatile int maxQueueDepth;
+    private volatile long maxInFlightBytes;
+    private volatile double rejectFactor = 4.0;
+    private volatile int minRetryDelay = 1;
+    private volatile int maxRetryDelay = 30;
+
+    public OverloadController() {
+        for (RequestClass cls : RequestClass.values()) {
+            classes.put(cls, new ClassState());
+        }
+    }
+
+    /**
+     * Sets the source of the queue depth, e.g. the size of the work queue
+     * of a disk executor.
+     */
+    public void setQueueDepthSupplier(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Sets the pressure at which requests are refused rather than deferred.
+     */
+    public void setRejectFactor(double factor) {
+        rejectFactor = factor;
+    }
+
+    /**
+     * Sets the range of retry delays in seconds sent with kXR_wait.
+     */
+    public void setRetryDelay(int min, int max) {
+        minRetryDelay = min;
+        maxRetryDelay = max;
+    }
+
+    /**
+     * Returns true if any limit is set.
+     */
+    public boolean isEnabled() {
+        return maxQueueDepth > 0 || maxInFlightBytes > 0
+              || classes.values().stream()
+              .anyMatch(s -> s.maxLatency > 0 || s.maxConcurrency > 0);
+    }
+
+    /**
+     * Returns the pressure on the server for a new request of the given
+     * class.
+     *
+     * @param pendingTasks work queued on the calling channel's event loop
+     * @param bytes the number of bytes the request asks for
+     */
+    public double getPressure(RequestClass cls, int pendingTasks, long bytes) {
+        ClassState state = classes.get(cls);
+        double pressure = 0.0;
+        if (maxQueueDepth > 0) {
+            pressure = Math.max(pressure,
+                  (double) (queueDepth.getAsInt() + pendingTasks) / maxQueueDepth);
+        }
+        long maxBytes = maxInFlightBytes;
+        if (maxBytes > 0 && bytes > 0) {
+            /* A request larger than the limit is admitted once nothing else is in flight. */
+            pressure = Math.max(pressure,
+                  (double) (inFlightBytes.get() + Math.min(bytes, maxBytes)) / maxBytes);
+        }
+        int inFlight = state.inFlight.get();
+        if (state.maxConcurrency > 0) {
+            pressure = Math.max(pressure, (double) (inFlight + 1) / state.maxConcurrency);
+        }
+        if (state.maxLatency > 0 && inFlight > 0) {
+            pressure = Math.max(pressure, (double) state.latency.get() / state.maxLatency);
+        }
+        return pressure;
+    }
+
+    public boolean shouldReject(double pressure) {
+        return pressure >= rejectFactor;
+    }
+
+    /**
+     * Returns the number of seconds a deferred client should wait before
+     * retrying.  The delay grows with the pressure and is jittered so that
+     * deferred clients do not return all at once.
+     */
+    public int getRetryDelay(double pressure) {
+        double delay = minRetryDelay * pressure * pressure;
+        delay *= 1.0 + ThreadLocalRandom.current().nextDouble(0.25);
+        return (int) Math.max(minRetryDelay, Math.min(maxRetryDelay, Math.ceil(delay)));
+    }
+
+    public void admitted(RequestClass cls, long bytes) {
+        ClassState state = classes.get(cls);
+        state.admitted.increment();
+        state.inFlight.incrementAndGet();
+        inFlightBytes.addAndGet(bytes);
+    }
+
+    public void deferred(RequestClass cls) {
+        classes.get(cls).deferred.increment();
+    }
+
+    public void rejected(RequestClass cls) {
+        classes.get(cls).rejected.increment();
+    }
+
+    /**
+     * Records the completion of an admitted request.
+     */
+    public void completed(RequestClass cls, long bytes, long nanos) {
+        ClassState state = classes.get(cls);
+        state.inFlight.decrementAndGet();
+        inFlightBytes.addAndGet(-bytes);
+        state.latency.updateAndGet(avg -> avg + (nanos - avg) / LATENCY_SMOOTHING);
+    }
+
+    /**
+     * Releases an admitted request that will not complete, e.g. because its
+     * channel was closed.
+     */
+    public void abandoned(RequestClass cls, long bytes) {
+        classes.get(cls).inFlight.decrementAndGet();
+        inFlightBytes.addAndGet(-bytes);
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    @Override
+    public void setMaxQueueDepth(int depth) {
+        maxQueueDepth = depth;
+    }
+
+    @Override
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    @Override
+    public void setMaxInFlightBytes(long bytes) {
+        maxInFlightBytes = bytes;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    @Override
+    public void setMaxLatency(String requestClass, long millis) {
+        classes.get(RequestClass.forName(requestClass)).maxLatency =
+              TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public void setMaxConcurrency(String requestClass, int requests) {
+        classes.get(RequestClass.forName(requestClass)).maxConcurrency = requests;
+    }
+
+    @Override
+    public Map<String, Long> getMaxLatencies() {
+        return toMap(s -> TimeUnit.NANOSECONDS.toMillis(s.maxLatency));
+    }
+
+    @Override
+    public Map<String, Integer> getMaxConcurrencies() {
+        return toMap(s -> s.maxConcurrency);
+    }
+
+    @Override
+    public Map<String, Long> getLatencies() {
+        return toMap(s -> TimeUnit.NANOSECONDS.toMillis(s.latency.get()));
+    }
+
+    @Override
+    public Map<String, Integer> getConcurrencies() {
+        return toMap(s -> s.inFlight.get());
+    }
+
+    @Override
+    public Map<String, Long> getAdmittedCounts() {
+        return toMap(s -> s.admitted.sum());
+    }
+
+    @Override
+    public Map<String, Long> getDeferredCounts() {
+        return toMap(s -> s.deferred.sum());
+    }
+
+    @Override
+    public Map<String, Long> getRejectedCounts() {
+        return toMap(s -> s.rejected.sum());
+    }
+
+    private <T> Map<String, T> toMap(Function<ClassState, T> value) {
+        Map<String, T> map = new TreeMap<>();
+        classes.forEach((cls, state) ->
+              map.put(cls.name().toLowerCase(Locale.ROOT), value.apply(state)));
+        return map;
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link OverloadController}.  Request classes are
+ * named by the lower case names of {@link OverloadController.RequestClass}.
+ */
+public interface OverloadControllerMXBean {
+
+    int getMaxQueueDepth();
+
+    void setMaxQueueDepth(int depth);
+
+    long getMaxInFlightBytes();
+
+    void setMaxInFlightBytes(long bytes);
+
+    int getQueueDepth();
+
+    long getInFlightBytes();
+
+    /**
+     * Sets the latency objective of a request class in milliseconds, 0 to
+     * disable it.
+     */
+    void setMaxLatency(String requestClass, long millis);
+
+    /**
+     * Sets the maximum number of concurrent requests of a class, 0 to
+     * disable the limit.
+     */
+    void setMaxConcurrency(String requestClass, int requests);
+
+    Map<String, Long> getMaxLatencies();
+
+    Map<String, Integer> getMaxConcurrencies();
+
+    Map<String, Long> getLatencies();
+
+    Map<String, Integer> getConcurrencies();
+
+    Map<String, Long> getAdmittedCounts();
+
+    Map<String, Long> getDeferredCounts();
+
+    Map<String, Long> getRejectedCounts();
+}
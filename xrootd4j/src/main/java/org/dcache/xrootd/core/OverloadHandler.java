@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_Overloaded;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_waitresp;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import java.util.HashMap;
+import java.util.Map;
+import org.dcache.xrootd.core.OverloadController.RequestClass;
+import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.protocol.messages.WaitRetryResponse;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+
+/**
+ * Applies the admission decisions of an {@link OverloadController} to a
+ * channel.
+ *
+ * Must be placed right after the decoder, so that it sees kXR_login as well
+ * as the final response to every request.  Admitted requests are tracked
+ * by stream id until their final response, i.e. one that is neither
+ * kXR_oksofar nor kXR_waitresp, passes on its way out; this yields their
+ * latency and releases their in-flight bytes.
+ */
+public class OverloadHandler extends ChannelDuplexHandler {
+
+    private static class Admitted {
+
+        final RequestClass cls;
+        final long bytes;
+        final long start;
+
+        Admitted(RequestClass cls, long bytes, long start) {
+            this.cls = cls;
+            this.bytes = bytes;
+            this.start = start;
+        }
+    }
+
+    private final OverloadController controller;
+    private final Map<Integer, Admitted> admitted = new HashMap<>();
+
+    public OverloadHandler(OverloadController controller) {
+        this.controller = controller;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof XrootdRequest) {
+            XrootdRequest request = (XrootdRequest) msg;
+            RequestClass cls = RequestClass.of(request.getRequestId());
+            if (cls != null && !admit(ctx, request, cls)) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private boolean admit(ChannelHandlerContext ctx, XrootdRequest request, RequestClass cls) {
+        long bytes = bytesOf(request);
+        double pressure = controller.getPressure(cls, pendingTasks(ctx), bytes);
+        if (pressure <= 1.0) {
+            controller.admitted(cls, bytes);
+            Admitted previous = admitted.put(request.getStreamId(),
+                  new Admitted(cls, bytes, System.nanoTime()));
+            if (previous != null) {
+                controller.abandoned(previous.cls, previous.bytes);
+            }
+            return true;
+        }
+        Object response;
+        if (controller.shouldReject(pressure)) {
+            controller.rejected(cls);
+            response = new ErrorResponse<>(ctx, request, kXR_Overloaded,
+                  "Server overloaded, try again later");
+        } else {
+            controller.deferred(cls);
+            response = new WaitRetryResponse<>(request, controller.getRetryDelay(pressure));
+        }
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        return false;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+          throws Exception {
+        if (msg instanceof XrootdResponse && !admitted.isEmpty()) {
+            XrootdResponse<?> response = (XrootdResponse<?>) msg;
+            int status = response.getStatus();
+            if (status != kXR_oksofar && status != kXR_waitresp) {
+                Admitted request = admitted.remove(response.getRequest().getStreamId());
+                if (request != null) {
+                    controller.completed(request.cls, request.bytes,
+                          System.nanoTime() - request.start);
+                }
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (Admitted request : admitted.values()) {
+            controller.abandoned(request.cls, request.bytes);
+        }
+        admitted.clear();
+        super.channelInactive(ctx);
+    }
+
+    private static int pendingTasks(ChannelHandlerContext ctx) {
+        return ctx.executor() instanceof SingleThreadEventExecutor
+              ? ((SingleThreadEventExecutor) ctx.executor()).pendingTasks() : 0;
+    }
+
+    private static long bytesOf(XrootdRequest request) {
+        if (request instanceof ReadRequest) {
+            return ((ReadRequest) request).bytesToRead();
+        }
+        if (request instanceof ReadVRequest) {
+            ReadVRequest readv = (ReadVRequest) request;
+            long bytes = 0;
+            for (int i = 0; i < readv.getSegmentCount(); i++) {
+                bytes += readv.getSegmentLength(i);
+            }
+            return bytes;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.unix.FileDescriptor;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+
+/**
+ * Transfers the remainder of a segmented kXR_write payload from the socket
+ * directly into a file, bypassing user space.
+ *
+ * Implemented by decoders able to hand the payload over to the transport.
+ */
+@FunctionalInterface
+public interface PayloadSplicer {
+
+    /**
+     * Splices the bytes following the data of {@code request} into {@code fd},
+     * starting at the file offset following that data.
+     *
+     * @return a future completing once the remainder has been written, or null
+     * if the remainder can no longer be spliced
+     */
+    ChannelFuture splice(WriteRequest request, FileDescriptor fd);
+}
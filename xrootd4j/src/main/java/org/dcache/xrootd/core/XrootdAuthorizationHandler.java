@@ -27,6 +27,8 @@ import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Map;
 import org.dcache.xrootd.plugins.AuthorizationFactory;
 import org.dcache.xrootd.plugins.AuthorizationHandler;
 import org.dcache.xrootd.protocol.messages.CloseRequest;
@@ -86,14 +88,26 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler {
             throw new XrootdException(kXR_ArgMissing, "no paths specified");
         }
 
+        /*
+         * Clients typically send the same token with every path, so the
+         * handler is shared by all paths and each distinct opaque string
+         * is only parsed once.
+         */
+        AuthorizationHandler handler = _authorizationFactory.createHandler(ctx);
+        Map<String, Map<String, String>> opaqueMaps = new HashMap<>();
         String[] paths = req.getPaths();
         String[] opaques = req.getOpaques();
         for (int i = 0; i < paths.length; i++) {
-            paths[i] = authorize(ctx,
+            Map<String, String> opaque = opaqueMaps.get(opaques[i]);
+            if (opaque == null) {
+                opaque = parseOpaque(opaques[i]);
+                opaqueMaps.put(opaques[i], opaque);
+            }
+            paths[i] = authorize(handler,
                   req,
                   FilePerm.READ,
                   paths[i],
-                  opaques[i]);
+                  opaque);
         }
         req.setPaths(paths);
 
@@ -295,18 +309,28 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler {
           String path,
           String opaque)
           throws XrootdException {
+        return authorize(_authorizationFactory.createHandler(ctx),
+              request,
+              neededPerm,
+              path,
+              parseOpaque(opaque));
+    }
+
+    private String authorize(AuthorizationHandler handler,
+          XrootdRequest request,
+          FilePerm neededPerm,
+          String path,
+          Map<String, String> opaque)
+          throws XrootdException {
         try {
             InetSocketAddress destinationAddress = getDestinationAddress();
             InetSocketAddress sourceAddress = getSourceAddress();
 
-            AuthorizationHandler handler
-                  = _authorizationFactory.createHandler(ctx);
-
             return handler.authorize(request.getSubject(),
                   destinationAddress,
                   sourceAddress,
                   path,
-                  OpaqueStringParser.getOpaqueMap(opaque),
+                  opaque,
                   request.getRequestId(),
                   neededPerm);
         } catch (GeneralSecurityException e) {
@@ -316,6 +340,13 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler {
         } catch (SecurityException e) {
             throw new XrootdException(kXR_NotAuthorized,
                   "Permission denied: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, String> parseOpaque(String opaque)
+          throws XrootdException {
+        try {
+            return OpaqueStringParser.getOpaqueMap(opaque);
         } catch (ParseException e) {
             throw new XrootdException(kXR_InvalidRequest,
                   "Invalid opaque data: " + e.getMessage());
@@ -22,6 +22,7 @@ import static org.dcache.xrootd.util.ByteBuffersProvider.logMetrics;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import java.util.List;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
 
 /**
  * A FrameDecoder decoding xrootd frames into AbstractRequestMessage
@@ -42,6 +43,12 @@ public class XrootdDecoder extends AbstractXrootdDecoder {
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        WriteRequest spliceable = decodeSpliceableWrite(ctx, in);
+        if (spliceable != null) {
+            out.add(spliceable);
+            return;
+        }
+
         int length = verifyMessageLength(in);
 
         if (length < 0) {
@@ -51,11 +51,22 @@ import io.netty.handler.codec.haproxy.HAProxyMessage;
 import io.netty.handler.codec.haproxy.HAProxyProxiedProtocol;
 import io.netty.handler.ssl.SslHandshakeCompletionEvent;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLException;
+import org.dcache.xrootd.plugins.MetricsRecorder;
+import org.dcache.xrootd.protocol.messages.AsyncResponse;
 import org.dcache.xrootd.protocol.messages.AuthenticationRequest;
+import org.dcache.xrootd.protocol.messages.AwaitAsyncResponse;
 import org.dcache.xrootd.protocol.messages.CloseRequest;
 import org.dcache.xrootd.protocol.messages.DirListRequest;
 import org.dcache.xrootd.protocol.messages.EndSessionRequest;
@@ -81,6 +92,8 @@ import org.dcache.xrootd.protocol.messages.SyncRequest;
 import org.dcache.xrootd.protocol.messages.WriteRequest;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 import org.dcache.xrootd.protocol.messages.XrootdResponse;
+import org.dcache.xrootd.stream.ChunkedResponse;
+import org.dcache.xrootd.util.SharedTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -93,6 +106,25 @@ import org.slf4j.LoggerFactory;
  * Releases the reference to XrootdRequest if the handler method throws an exception or returns a
  * response. If the handler returns null the subclass assumes responsibility to release the request,
  * typically by passing it on the next ChannelHandler in the pipeline.
+ * <p>
+ * A handler may also return a {@link CompletionStage} of the response for operations that take
+ * long, such as computing the checksum of a large file. The request is released when the handler
+ * returns, so the stage must not depend on the request's payload. If the stage does not complete
+ * within the async response threshold, the client is told to wait with kXR_waitresp and the
+ * response is later delivered as kXR_attn/kXR_asynresp, bound to the stream id of the request.
+ * Chunked responses cannot be delivered that way; handlers deferring them return a
+ * {@link DeferredResponse} without kXR_waitresp instead.
+ * Pending stages are cancelled when the channel becomes inactive. Stages that do not complete
+ * within the request deadline are completed with an error, so that the client receives a
+ * response rather than waiting forever. A {@link DeferredResponse} may set its own deadline.
+ * <p>
+ * Should a segment of a write request fail, the error is the response to that request and its
+ * remaining segments are dropped, so that the client receives a single response per stream id.
+ * <p>
+ * Responses produced while handling requests from the same socket read are not flushed
+ * individually. They are flushed together on channelReadComplete, or earlier once the flush
+ * threshold is reached, so that a batch of pipelined requests is answered with a single
+ * gathering write.
  */
 public class XrootdRequestHandler extends ChannelInboundHandlerAdapter {
 
@@ -107,6 +139,110 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter {
 
     private String sessionToken;
 
+    protected MetricsRecorder metrics = MetricsRecorder.NONE;
+
+    public static final long DEFAULT_ASYNC_RESPONSE_THRESHOLD = 1000;
+
+    public static final int DEFAULT_ASYNC_RESPONSE_TIMEOUT = 600;
+
+    private long asyncResponseThreshold = DEFAULT_ASYNC_RESPONSE_THRESHOLD;
+
+    private int asyncResponseTimeout = DEFAULT_ASYNC_RESPONSE_TIMEOUT;
+
+    private long requestDeadline = TimeUnit.SECONDS.toMillis(DEFAULT_ASYNC_RESPONSE_TIMEOUT);
+
+    public static final int DEFAULT_FLUSH_THRESHOLD = 64 * 1024;
+
+    private int flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+
+    /**
+     * True while a message from a socket read is being processed.
+     */
+    private boolean isReading;
+
+    /**
+     * Number of bytes of responses written but not yet flushed.
+     */
+    private long unflushed;
+
+    private boolean isFlushPending;
+
+    /**
+     * True after a segment of a write request failed, until its last
+     * segment has been received.  The client has received the error for
+     * that request, so the remaining segments are dropped without a
+     * response.
+     */
+    private boolean isDroppingWriteSegments;
+
+    /**
+     * Responses deferred by handlers that have not been sent yet.  Only
+     * accessed from the event loop.
+     */
+    private final Set<CompletableFuture<?>> deferredResponses = new HashSet<>();
+
+    /**
+     * Sets the recorder for request latencies and payload sizes.
+     *
+     * Chunked responses are not timed here; their latency is recorded by
+     * the ChunkedResponseWriteHandler once the last chunk has been written.
+     */
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    /**
+     * Sets the time in milliseconds after which a deferred response causes a
+     * kXR_waitresp to be sent.
+     */
+    public void setAsyncResponseThreshold(long millis) {
+        asyncResponseThreshold = millis;
+    }
+
+    /**
+     * Sets the time in seconds a client is asked to wait for a deferred
+     * response.
+     */
+    public void setAsyncResponseTimeout(int seconds) {
+        asyncResponseTimeout = seconds;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a deferred response that has
+     * not completed yet fails with kXR_ServerError.  Zero disables the
+     * deadline.
+     */
+    public void setRequestDeadline(long millis) {
+        requestDeadline = millis;
+    }
+
+    /**
+     * Sets the number of bytes of unflushed responses at which responses are
+     * flushed before the end of the current socket read.  Zero flushes
+     * every response immediately.
+     */
+    public void setFlushThreshold(int bytes) {
+        flushThreshold = bytes;
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        isReading = false;
+        if (isFlushPending) {
+            flush(ctx);
+        }
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (CompletableFuture<?> future : new HashSet<>(deferredResponses)) {
+            future.cancel(true);
+        }
+        deferredResponses.clear();
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         _destinationAddress = (InetSocketAddress) ctx.channel().localAddress();
@@ -117,6 +253,7 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         if (msg instanceof XrootdRequest) {
+            isReading = true;
             requestReceived(ctx, (XrootdRequest) msg);
         } else if (msg instanceof HAProxyMessage) {
             HAProxyMessage proxyMessage = (HAProxyMessage) msg;
@@ -179,18 +316,37 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter {
     }
 
     protected void requestReceived(ChannelHandlerContext ctx, XrootdRequest req) {
+        long start = System.nanoTime();
+        int requestId = req.getRequestId();
         try {
+            if (req instanceof WriteRequest) {
+                WriteRequest write = (WriteRequest) req;
+                metrics.bytesReceived(requestId, write.getDataLength());
+                if (isDroppingWriteSegments) {
+                    isDroppingWriteSegments = !write.isComplete();
+                    return;
+                }
+            }
             Object response = getResponse(ctx, req);
-            if (response != null) {
+            if (response instanceof CompletionStage) {
+                deferResponse(ctx, req, start, DeferredResponse.of((CompletionStage<?>) response));
+            } else if (response instanceof DeferredResponse) {
+                deferResponse(ctx, req, start, (DeferredResponse) response);
+            } else if (response != null) {
+                recordResponse(requestId, start, response);
                 respond(ctx, response);
             } else {
                 req = null; // Do not release reference
             }
         } catch (XrootdException e) {
+            metrics.requestCompleted(requestId, System.nanoTime() - start);
+            dropRemainingSegments(req);
             respond(ctx, withError(ctx, req, e.getError(), e.getMessage()));
         } catch (Exception e) {
+            metrics.requestCompleted(requestId, System.nanoTime() - start);
             _log.error("xrootd server error while processing " + req
                   + " (please report this to support@dcache.org)", e);
+            dropRemainingSegments(req);
             respond(ctx,
                   withError(ctx, req, kXR_ServerError,
                         String.format("Internal server error (%s)",
@@ -200,6 +356,77 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    private void dropRemainingSegments(XrootdRequest req) {
+        if (req instanceof WriteRequest && !((WriteRequest) req).isComplete()) {
+            isDroppingWriteSegments = true;
+        }
+    }
+
+    private void deferResponse(ChannelHandlerContext ctx, XrootdRequest req, long start,
+          DeferredResponse deferred) {
+        CompletableFuture<?> future = deferred.getStage().toCompletableFuture();
+        deferredResponses.add(future);
+        boolean[] isWaiting = new boolean[1];
+        ScheduledFuture<?> timer = !deferred.isWaitResponseAllowed() ? null :
+              ctx.executor().schedule(() -> {
+                  if (!future.isDone() && ctx.channel().isActive()) {
+                      isWaiting[0] = true;
+                      respond(ctx, new AwaitAsyncResponse<>(req, asyncResponseTimeout));
+                  }
+              }, asyncResponseThreshold, TimeUnit.MILLISECONDS);
+        long millis = deferred.getDeadline() == DeferredResponse.DEFAULT_DEADLINE
+              ? requestDeadline : deferred.getDeadline();
+        Timeout deadline = millis <= 0 ? null : SharedTimer.schedule(() ->
+                    future.completeExceptionally(new XrootdException(kXR_ServerError,
+                          "Request did not complete within " + millis + " ms.")),
+              millis, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, t) -> ctx.executor().execute(() -> {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            if (!deferredResponses.remove(future)) {
+                ReferenceCountUtil.release(result);
+                return;
+            }
+            Object response = (t == null) ? result : toErrorResponse(ctx, req, t);
+            recordResponse(req.getRequestId(), start, response);
+            if (isWaiting[0] && response instanceof XrootdResponse) {
+                response = asAsync((XrootdResponse<?>) response);
+            }
+            respond(ctx, response);
+        }));
+    }
+
+    private static <T extends XrootdRequest> AsyncResponse<T> asAsync(XrootdResponse<T> response) {
+        return new AsyncResponse<>(response);
+    }
+
+    private Object toErrorResponse(ChannelHandlerContext ctx, XrootdRequest req, Throwable t) {
+        Throwable cause = (t instanceof CompletionException && t.getCause() != null)
+              ? t.getCause() : t;
+        if (cause instanceof XrootdException) {
+            XrootdException e = (XrootdException) cause;
+            return withError(ctx, req, e.getError(), e.getMessage());
+        }
+        _log.error("xrootd server error while processing " + req
+              + " (please report this to support@dcache.org)", cause);
+        return withError(ctx, req, kXR_ServerError,
+              String.format("Internal server error (%s)", cause.getMessage()));
+    }
+
+    private void recordResponse(int requestId, long start, Object response) {
+        if (response instanceof ChunkedResponse) {
+            return;
+        }
+        metrics.requestCompleted(requestId, System.nanoTime() - start);
+        if (response instanceof XrootdResponse) {
+            metrics.bytesSent(requestId, ((XrootdResponse<?>) response).getDataLength());
+        }
+    }
+
     protected Object getResponse(ChannelHandlerContext ctx, XrootdRequest req)
           throws Exception {
         switch (req.getRequestId()) {
@@ -264,8 +491,36 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter {
     }
 
     protected ChannelFuture respond(ChannelHandlerContext ctx, Object response) {
-        return ctx.writeAndFlush(response)
+        if (!ctx.executor().inEventLoop()) {
+            return ctx.writeAndFlush(response)
+                  .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        }
+        /*
+         * A handler removing itself while handling the request, such as an
+         * authentication handler, does not see the end of the read.
+         */
+        if (!isReading || flushThreshold <= 0 || ctx.isRemoved()) {
+            unflushed = 0;
+            isFlushPending = false;
+            return ctx.writeAndFlush(response)
+                  .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        }
+        ChannelFuture future = ctx.write(response)
               .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        isFlushPending = true;
+        if (response instanceof XrootdResponse) {
+            unflushed += ((XrootdResponse<?>) response).getDataLength();
+        }
+        if (unflushed >= flushThreshold) {
+            flush(ctx);
+        }
+        return future;
+    }
+
+    private void flush(ChannelHandlerContext ctx) {
+        unflushed = 0;
+        isFlushPending = false;
+        ctx.flush();
     }
 
     protected <T extends XrootdRequest> XrootdResponse<T> unsupported(ChannelHandlerContext ctx,
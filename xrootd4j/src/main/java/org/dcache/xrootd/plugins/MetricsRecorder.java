@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins;
+
+/**
+ * Records per request latency and transfer volume of an xrootd server.
+ *
+ * Implementations are called on the Netty event loop and must therefore be
+ * cheap and non-blocking. All durations are in nanoseconds; request ids are
+ * the {@code kXR_*} request codes of {@link org.dcache.xrootd.protocol.XrootdProtocol}.
+ *
+ * Implementations are usually obtained through a {@link MetricsProvider}.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * A recorder which discards all measurements.
+     */
+    MetricsRecorder NONE = new MetricsRecorder() {
+        @Override
+        public void requestCompleted(int requestId, long nanos) {
+        }
+
+        @Override
+        public void firstByteSent(int requestId, long nanos) {
+        }
+
+        @Override
+        public void lastByteSent(int requestId, long nanos) {
+        }
+
+        @Override
+        public void bytesReceived(int requestId, long bytes) {
+        }
+
+        @Override
+        public void bytesSent(int requestId, long bytes) {
+        }
+    };
+
+    /**
+     * Called once the response to a request has been produced; for chunked
+     * responses once the last chunk has been written.
+     *
+     * @param requestId the kXR request code
+     * @param nanos time elapsed since the request was received
+     */
+    void requestCompleted(int requestId, long nanos);
+
+    /**
+     * Called when the first chunk of a chunked response has been written
+     * to the channel (time-to-first-byte).
+     */
+    void firstByteSent(int requestId, long nanos);
+
+    /**
+     * Called when the last chunk of a chunked response has been written
+     * to the channel (time-to-last-byte).
+     */
+    void lastByteSent(int requestId, long nanos);
+
+    /**
+     * Called for payload received from the client, e.g. kXR_write data.
+     */
+    void bytesReceived(int requestId, long bytes);
+
+    /**
+     * Called for response payload written to the client.
+     */
+    void bytesSent(int requestId, long bytes);
+}
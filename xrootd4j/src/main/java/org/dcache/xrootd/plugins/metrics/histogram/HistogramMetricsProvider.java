@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins.metrics.histogram;
+
+import java.util.Properties;
+import org.dcache.xrootd.plugins.MetricsProvider;
+import org.dcache.xrootd.plugins.MetricsRecorder;
+
+public class HistogramMetricsProvider implements MetricsProvider {
+
+    static final String NAME = "histogram";
+
+    @Override
+    public MetricsRecorder createRecorder(String plugin, Properties properties) {
+        if (NAME.equals(plugin)) {
+            return new HistogramMetricsRecorder();
+        }
+        return null;
+    }
+}
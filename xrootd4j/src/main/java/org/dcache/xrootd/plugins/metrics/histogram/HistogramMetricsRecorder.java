@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins.metrics.histogram;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_REQFENCE;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.dcache.xrootd.plugins.MetricsRecorder;
+import org.dcache.xrootd.util.LatencyHistogram;
+
+/**
+ * Keeps latency histograms per kXR request id as well as time-to-first-byte
+ * and time-to-last-byte histograms for chunked responses.
+ *
+ * Histograms are created lazily the first time a request of a given type is
+ * recorded, so that unused request types do not cost any memory.  Request ids
+ * outside the range of known request codes are ignored.
+ */
+public class HistogramMetricsRecorder implements MetricsRecorder {
+
+    private static final int REQUEST_TYPES = kXR_REQFENCE - kXR_auth;
+
+    private final AtomicReferenceArray<LatencyHistogram> latency =
+          new AtomicReferenceArray<>(REQUEST_TYPES);
+    private final AtomicReferenceArray<LatencyHistogram> firstByte =
+          new AtomicReferenceArray<>(REQUEST_TYPES);
+    private final AtomicReferenceArray<LatencyHistogram> lastByte =
+          new AtomicReferenceArray<>(REQUEST_TYPES);
+
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    private static boolean isKnown(int requestId) {
+        return requestId >= kXR_auth && requestId < kXR_REQFENCE;
+    }
+
+    private static void record(AtomicReferenceArray<LatencyHistogram> histograms,
+          int requestId, long nanos) {
+        if (!isKnown(requestId)) {
+            return;
+        }
+        int index = requestId - kXR_auth;
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    private static LatencyHistogram get(AtomicReferenceArray<LatencyHistogram> histograms,
+          int requestId) {
+        return isKnown(requestId) ? histograms.get(requestId - kXR_auth) : null;
+    }
+
+    @Override
+    public void requestCompleted(int requestId, long nanos) {
+        record(latency, requestId, nanos);
+    }
+
+    @Override
+    public void firstByteSent(int requestId, long nanos) {
+        record(firstByte, requestId, nanos);
+    }
+
+    @Override
+    public void lastByteSent(int requestId, long nanos) {
+        record(lastByte, requestId, nanos);
+    }
+
+    @Override
+    public void bytesReceived(int requestId, long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void bytesSent(int requestId, long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * @return the latency histogram of the request type, or null if no
+     * request of that type has completed yet.
+     */
+    public LatencyHistogram getLatency(int requestId) {
+        return get(latency, requestId);
+    }
+
+    /**
+     * @return the time-to-first-byte histogram of the request type, or null
+     * if no chunked response to a request of that type has been written yet.
+     */
+    public LatencyHistogram getTimeToFirstByte(int requestId) {
+        return get(firstByte, requestId);
+    }
+
+    /**
+     * @return the time-to-last-byte histogram of the request type, or null
+     * if no chunked response to a request of that type has been completed yet.
+     */
+    public LatencyHistogram getTimeToLastByte(int requestId) {
+        return get(lastByte, requestId);
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+}
@@ -56,7 +56,15 @@ public abstract class GenericReadRequestMessage extends AbstractXrootdRequest {
           LoggerFactory.getLogger(GenericReadRequestMessage.class);
 
     private final int pathid;
-    private final EmbeddedReadRequest[] readList;
+
+    /*
+     *  The read list is kept in packed arrays, parsed in a single pass over
+     *  the frame; EmbeddedReadRequest objects are only created on demand.
+     */
+    private final int[] handles;
+    private final int[] lengths;
+    private final long[] offsets;
+    private EmbeddedReadRequest[] readList;
 
     public GenericReadRequestMessage(ByteBuf buffer, int requestId) {
         super(buffer, requestId);
@@ -65,7 +73,9 @@ public abstract class GenericReadRequestMessage extends AbstractXrootdRequest {
 
         if (alen <= 8) {
             pathid = -1;
-            readList = new EmbeddedReadRequest[0];
+            handles = new int[0];
+            lengths = new int[0];
+            offsets = new long[0];
         } else {
             int prefix = 0;
             if (alen % 16 == 0) {
@@ -81,13 +91,14 @@ public abstract class GenericReadRequestMessage extends AbstractXrootdRequest {
 
             int numberOfListEntries = (alen - prefix) / 16;
 
-            readList = new EmbeddedReadRequest[numberOfListEntries];
+            handles = new int[numberOfListEntries];
+            lengths = new int[numberOfListEntries];
+            offsets = new long[numberOfListEntries];
 
-            for (int i = 0; i < numberOfListEntries; i++) {
-                int j = 24 + prefix + i * 16;
-                readList[i] = new EmbeddedReadRequest(buffer.getInt(j),
-                      buffer.getInt(j + 4),
-                      buffer.getLong(j + 8));
+            for (int i = 0, j = 24 + prefix; i < numberOfListEntries; i++, j += 16) {
+                handles[i] = buffer.getInt(j);
+                lengths[i] = buffer.getInt(j + 4);
+                offsets[i] = buffer.getLong(j + 8);
             }
         }
     }
@@ -97,10 +108,36 @@ public abstract class GenericReadRequestMessage extends AbstractXrootdRequest {
     }
 
     protected int getSizeOfList() {
-        return readList.length;
+        return handles.length;
+    }
+
+    /**
+     * Returns the number of segments in the read list.
+     */
+    public int getSegmentCount() {
+        return handles.length;
+    }
+
+    public int getSegmentFileHandle(int index) {
+        return handles[index];
+    }
+
+    public int getSegmentLength(int index) {
+        return lengths[index];
+    }
+
+    public long getSegmentOffset(int index) {
+        return offsets[index];
     }
 
     protected EmbeddedReadRequest[] getReadRequestList() {
+        if (readList == null) {
+            EmbeddedReadRequest[] list = new EmbeddedReadRequest[handles.length];
+            for (int i = 0; i < list.length; i++) {
+                list[i] = new EmbeddedReadRequest(handles[i], lengths[i], offsets[i]);
+            }
+            readList = list;
+        }
         return readList;
     }
 }
@@ -38,12 +38,25 @@ public class ReadVResponse extends AbstractReferenceCounted implements
     public static final int READ_LIST_HEADER_SIZE = 16;
 
     private final ReadVRequest request;
-    private final int stat;
     private final EmbeddedReadRequest[] requests;
+    private final int stat;
     private final ByteBuf[] data;
     private final int index;
     private final int length;
 
+    public ReadVResponse(ReadVRequest request,
+          ByteBuf[] data,
+          int index,
+          int length,
+          boolean isIncomplete) {
+        this(request, null, data, index, length, isIncomplete);
+    }
+
+    /**
+     * @deprecated the segment headers are taken from the request; use
+     * {@link #ReadVResponse(ReadVRequest, ByteBuf[], int, int, boolean)}
+     */
+    @Deprecated
     public ReadVResponse(ReadVRequest request,
           EmbeddedReadRequest[] requests,
           ByteBuf[] data,
@@ -52,8 +65,8 @@ public class ReadVResponse extends AbstractReferenceCounted implements
           boolean isIncomplete) {
         checkArgument(length > 0);
         this.request = checkNotNull(request);
+        this.requests = requests;
         this.stat = isIncomplete ? kXR_oksofar : kXR_ok;
-        this.requests = checkNotNull(requests);
         this.data = checkNotNull(data);
         this.index = index;
         this.length = length;
@@ -133,9 +146,15 @@ public class ReadVResponse extends AbstractReferenceCounted implements
 
         for (int i = 0; i < length; i++) {
             header = ctx.alloc().buffer(READ_LIST_HEADER_SIZE);
-            header.writeInt(requests[index + i].getFileHandle());
-            header.writeInt(data[index + i].readableBytes());
-            header.writeLong(requests[index + i].getOffset());
+            if (requests == null) {
+                header.writeInt(request.getSegmentFileHandle(index + i));
+                header.writeInt(data[index + i].readableBytes());
+                header.writeLong(request.getSegmentOffset(index + i));
+            } else {
+                header.writeInt(requests[index + i].getFileHandle());
+                header.writeInt(data[index + i].readableBytes());
+                header.writeLong(requests[index + i].getOffset());
+            }
             buffer.addComponent(header);
             buffer.addComponent(data[index + i].retain());
         }
@@ -19,10 +19,15 @@ package org.dcache.xrootd.protocol.messages;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.unix.FileDescriptor;
 import io.netty.util.ReferenceCounted;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.GatheringByteChannel;
+import java.util.Optional;
+import org.dcache.xrootd.core.PayloadSplicer;
 import org.dcache.xrootd.util.ByteBuffersProvider;
 
 public class WriteRequest extends AbstractXrootdRequest implements ByteBuffersProvider {
@@ -32,15 +37,23 @@ public class WriteRequest extends AbstractXrootdRequest implements ByteBuffersPr
     private final int dlen;
     private final ByteBuf data;
     private final int remainder;
+    private final PayloadSplicer splicer;
+    private boolean isSpliced;
 
     public WriteRequest(int streamId, int fhandle, long offset, int dlen, ByteBuf data,
           int remainder) {
+        this(streamId, fhandle, offset, dlen, data, remainder, null);
+    }
+
+    public WriteRequest(int streamId, int fhandle, long offset, int dlen, ByteBuf data,
+          int remainder, PayloadSplicer splicer) {
         super(streamId, kXR_write);
         this.fhandle = fhandle;
         this.offset = offset;
         this.dlen = dlen;
         this.data = data;
         this.remainder = remainder;
+        this.splicer = splicer;
     }
 
     public int getFileHandle() {
@@ -67,8 +80,57 @@ public class WriteRequest extends AbstractXrootdRequest implements ByteBuffersPr
         }
     }
 
+    @Override
+    public long writeTo(FileChannel out) throws IOException {
+        int index = 0;
+        int len = dlen;
+        while (len > 0) {
+            int written = data.getBytes(index, out, offset + index, len);
+            index += written;
+            len -= written;
+        }
+        return dlen;
+    }
+
+    /**
+     * Returns the number of payload bytes following the data of this request.
+     */
+    public int getRemainder() {
+        return remainder;
+    }
+
     public boolean isComplete() {
-        return remainder == 0;
+        return remainder == 0 || isSpliced;
+    }
+
+    /**
+     * Returns true if the remainder of the payload may be transferred with
+     * {@link #spliceRemainderTo}.
+     */
+    public boolean isSpliceable() {
+        return splicer != null && remainder > 0 && !isSpliced;
+    }
+
+    /**
+     * Transfers the remainder of the payload from the socket directly into the
+     * file, at the offset following the data of this request.  Must be called
+     * on the channel's event loop while the request is being processed.
+     *
+     * Once the remainder is spliced, this request completes the kXR_write
+     * and its response is sent to the client.  Otherwise the remainder is
+     * decoded into further write requests as usual.
+     *
+     * @param fd file descriptor open for writing; it is not closed
+     * @return a future completing once the remainder has been written, or
+     * empty if the remainder cannot be spliced
+     */
+    public Optional<ChannelFuture> spliceRemainderTo(FileDescriptor fd) {
+        if (!isSpliceable()) {
+            return Optional.empty();
+        }
+        ChannelFuture future = splicer.splice(this, fd);
+        isSpliced = future != null;
+        return Optional.ofNullable(future);
     }
 
     /**
@@ -20,23 +20,51 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage;
 import org.dcache.xrootd.protocol.messages.ReadVRequest;
 import org.dcache.xrootd.protocol.messages.ReadVResponse;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 
+/**
+ * Base class for chunked kXR_readv responses.
+ *
+ * The response is planned in a single pass before the first frame is
+ * read: the size of each file is looked up once, the length of every
+ * segment is truncated at the end of its file, and the segments are
+ * partitioned into frames not exceeding the maximum frame size.
+ */
 public abstract class AbstractChunkedReadvResponse implements ChunkedResponse {
 
     protected final ReadVRequest request;
     protected final int maxFrameSize;
-    protected final GenericReadRequestMessage.EmbeddedReadRequest[] requests;
     protected int index;
 
+    /**
+     * Segment lengths truncated at the end of file, and the index following
+     * the last segment of each frame; null until planned.
+     */
+    private int[] lengths;
+    private int[] frameEnds;
+    private int frame;
+
     public AbstractChunkedReadvResponse(ReadVRequest request, int maxFrameSize) {
         this.maxFrameSize = maxFrameSize;
         this.request = request;
-        this.requests = request.getReadRequestList();
+    }
+
+    /**
+     * Returns the segments of the request, built on first use.  This
+     * replaces the former {@code requests} field, which is no longer
+     * populated when the response is created.
+     *
+     * @deprecated use the index-based segment accessors of {@link ReadVRequest}
+     */
+    @Deprecated
+    protected GenericReadRequestMessage.EmbeddedReadRequest[] getRequests() {
+        return request.getReadRequestList();
     }
 
     @Override
@@ -50,17 +78,23 @@ public abstract class AbstractChunkedReadvResponse implements ChunkedResponse {
             return null;
         }
 
-        int count = getChunksInNextFrame(maxFrameSize);
-        ByteBuf[] chunks = new ByteBuf[requests.length];
+        if (frameEnds == null) {
+            plan();
+        }
+
+        int segments = request.getSegmentCount();
+        int count = frameEnds[frame] - index;
+        ByteBuf[] chunks = new ByteBuf[segments];
         try {
             for (int i = index; i < index + count; i++) {
-                chunks[i] = read(alloc, requests[i]);
+                chunks[i] = read(alloc, request.getSegmentFileHandle(i),
+                      request.getSegmentOffset(i), lengths[i]);
             }
 
             ReadVResponse response =
-                  new ReadVResponse(request, requests, chunks, index, count,
-                        index + count < requests.length);
+                  new ReadVResponse(request, chunks, index, count, index + count < segments);
             index += count;
+            frame++;
             return response;
         } catch (RuntimeException | IOException | XrootdException e) {
             for (ByteBuf chunk : chunks) {
@@ -74,40 +108,43 @@ public abstract class AbstractChunkedReadvResponse implements ChunkedResponse {
 
     @Override
     public boolean isEndOfInput() throws Exception {
-        return (index == requests.length);
+        return (index == request.getSegmentCount());
     }
 
     @Override
     public void close() throws Exception {
     }
 
-    private int getLengthOfRequest(GenericReadRequestMessage.EmbeddedReadRequest request)
-          throws IOException, XrootdException {
-        return (int) Math.min(request.BytesToRead(),
-              getSize(request.getFileHandle()) - request.getOffset());
-    }
-
-    private int getChunksInNextFrame(int maxFrameSize) throws IOException, XrootdException {
+    private void plan() throws IOException, XrootdException {
+        int segments = request.getSegmentCount();
+        Map<Integer, Long> sizes = new HashMap<>();
+        int[] lengths = new int[segments];
+        int[] frameEnds = new int[segments];
+        int frames = 0;
         long length = 0;
-        int count = 0;
-        for (int i = index; i < requests.length && length < maxFrameSize; i++) {
-            length += ReadVResponse.READ_LIST_HEADER_SIZE;
-            length += getLengthOfRequest(requests[i]);
-            count++;
-        }
-        if (length > maxFrameSize) {
-            count--;
-        }
-        if (count == 0) {
-            throw new IllegalStateException("Maximum chunk size exceeded");
-        }
-        return count;
-    }
+        for (int i = 0; i < segments; i++) {
+            int fd = request.getSegmentFileHandle(i);
+            Long size = sizes.get(fd);
+            if (size == null) {
+                size = getSize(fd);
+                sizes.put(fd, size);
+            }
+            lengths[i] = (int) Math.max(0, Math.min(request.getSegmentLength(i),
+                  size - request.getSegmentOffset(i)));
 
-    private ByteBuf read(ByteBufAllocator alloc,
-          GenericReadRequestMessage.EmbeddedReadRequest request)
-          throws IOException, XrootdException {
-        return read(alloc, request.getFileHandle(), request.getOffset(), request.BytesToRead());
+            long segment = (long) ReadVResponse.READ_LIST_HEADER_SIZE + lengths[i];
+            if (segment > maxFrameSize) {
+                throw new IllegalStateException("Maximum chunk size exceeded");
+            }
+            if (length + segment > maxFrameSize) {
+                frameEnds[frames++] = i;
+                length = 0;
+            }
+            length += segment;
+        }
+        frameEnds[frames] = segments;
+        this.lengths = lengths;
+        this.frameEnds = frameEnds;
     }
 
     protected abstract long getSize(int fd) throws IOException, XrootdException;
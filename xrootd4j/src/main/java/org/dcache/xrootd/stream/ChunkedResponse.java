@@ -47,4 +47,12 @@ public interface ChunkedResponse {
      * Releases the resources associated with the stream.
      */
     void close() throws Exception;
+
+    /**
+     * Returns the relative share of the channel's bandwidth this response
+     * receives while other chunked responses are pending on the same channel.
+     */
+    default int getWeight() {
+        return 1;
+    }
 }
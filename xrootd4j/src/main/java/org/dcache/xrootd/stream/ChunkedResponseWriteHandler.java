@@ -20,6 +20,8 @@
  */
 package org.dcache.xrootd.stream;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufHolder;
 import io.netty.buffer.Unpooled;
@@ -34,6 +36,10 @@ import io.netty.util.ReferenceCountUtil;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.BandwidthShaper;
+import org.dcache.xrootd.plugins.MetricsRecorder;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,7 +53,14 @@ import org.slf4j.LoggerFactory;
  * Since the handler is protocol specific, it can generated proper xrootd error responses in case
  * of faults.
  *
- * ChunkedResponseWriteHandler does not support suspended transfers.
+ * Multiple chunked responses on the same channel are interleaved using deficit
+ * round-robin: each pending response in turn may write chunks worth
+ * {@code quantum * weight} bytes before the next one gets its turn, where the weight is
+ * given by {@link ChunkedResponse#getWeight()}. Consequently a small response queued
+ * behind a bulk read has to wait for at most one turn of every other pending response.
+ *
+ * A chunked response cannot suspend its own transfer: a null chunk is written as an empty
+ * buffer.  The handler itself suspends writing only when shaped, as described below.
  *
  * To use {@link ChunkedResponseWriteHandler}, you have to insert
  * a new {@link ChunkedResponseWriteHandler} instance:
@@ -67,6 +80,16 @@ import org.slf4j.LoggerFactory;
  * ch.write(new {@link ChunkedFileChannelReadResponse}(request, maxFrameSize, channel));
  * </pre>
  *
+ * If constructed with a {@link MetricsRecorder}, the handler records the
+ * time-to-first-byte and time-to-last-byte of every chunked response,
+ * measured from the moment the response was written to the handler.
+ *
+ * If constructed with a {@link BandwidthShaper}, every chunk written is
+ * charged to the shaper.  Once the shaper's budget is exhausted the
+ * handler suspends: flushes and writability changes write no further
+ * chunks until a task scheduled on the channel's event loop, after the
+ * delay given by the shaper, resumes writing.  Responses stay queued in
+ * their turn while suspended.  Unchunked responses are not shaped.
  */
 public class ChunkedResponseWriteHandler
       extends ChannelDuplexHandler {
@@ -74,14 +97,49 @@ public class ChunkedResponseWriteHandler
     private static final Logger logger =
           LoggerFactory.getLogger(ChunkedResponseWriteHandler.class);
 
+    /**
+     * Default number of bytes a pending response of weight 1 may write per turn.
+     */
+    public static final int DEFAULT_QUANTUM = 256 * 1024;
+
     private final Queue<PendingWrite> queue = new ArrayDeque<>();
+    private final MetricsRecorder metrics;
+    private final BandwidthShaper.ChannelShaper shaper;
     private PendingWrite currentWrite;
+    private boolean isSuspended;
+    private int quantum = DEFAULT_QUANTUM;
+
+    public ChunkedResponseWriteHandler() {
+        this(MetricsRecorder.NONE);
+    }
+
+    public ChunkedResponseWriteHandler(MetricsRecorder metrics) {
+        this(metrics, null);
+    }
+
+    /**
+     * @param metrics recorder for chunked response latencies
+     * @param shaper bandwidth limits for chunked responses, or null
+     */
+    public ChunkedResponseWriteHandler(MetricsRecorder metrics, BandwidthShaper shaper) {
+        this.metrics = metrics;
+        this.shaper = shaper == null ? null : shaper.newChannelShaper();
+    }
+
+    /**
+     * Sets the number of bytes a pending response of weight 1 may write before
+     * yielding to the next pending response.
+     */
+    public void setQuantum(int quantum) {
+        checkArgument(quantum > 0, "Quantum must be positive");
+        this.quantum = quantum;
+    }
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
           throws Exception {
         if (msg instanceof ChunkedResponse) {
-            queue.add(new PendingWrite((ChunkedResponse) msg, promise));
+            queue.add(new PendingWrite((ChunkedResponse) msg, promise, metrics));
         } else {
             ctx.write(msg, promise);
         }
@@ -146,15 +204,36 @@ public class ChunkedResponseWriteHandler
             discard(null);
             return false;
         }
+        if (isSuspended) {
+            return false;
+        }
         boolean flushed = false;
         while (channel.isWritable()) {
+            if (currentWrite != null && currentWrite.promise.isDone()) {
+                // A previous chunk failed to be written
+                currentWrite.closeInput();
+                currentWrite = null;
+            }
             if (currentWrite == null) {
                 currentWrite = queue.poll();
+                if (currentWrite == null) {
+                    break;
+                }
+                if (currentWrite.promise.isDone()) {
+                    // Failed while waiting for its turn
+                    currentWrite.closeInput();
+                    currentWrite = null;
+                    continue;
+                }
+                currentWrite.deficit += (long) quantum * currentWrite.weight;
+                if (currentWrite.deficit <= 0) {
+                    // Still paying off an oversized chunk from an earlier turn
+                    queue.add(currentWrite);
+                    currentWrite = null;
+                    continue;
+                }
             }
 
-            if (currentWrite == null) {
-                break;
-            }
             final PendingWrite currentWrite = this.currentWrite;
             final ChunkedResponse pendingMessage = currentWrite.msg;
 
@@ -181,6 +260,8 @@ public class ChunkedResponseWriteHandler
             }
 
             final int amount = amount(message);
+            final long bytes = message instanceof XrootdResponse
+                  ? ((XrootdResponse<?>) message).getDataLength() : amount;
             ChannelFuture f = ctx.write(message);
             if (endOfInput) {
                 this.currentWrite = null;
@@ -197,6 +278,7 @@ public class ChunkedResponseWriteHandler
                             currentWrite.fail(future.cause());
                         } else {
                             currentWrite.progress(amount);
+                            currentWrite.sent(bytes, true);
                             currentWrite.success();
                         }
                     }
@@ -209,36 +291,95 @@ public class ChunkedResponseWriteHandler
                             currentWrite.fail(future.cause());
                         } else {
                             currentWrite.progress(amount);
+                            currentWrite.sent(bytes, false);
                         }
                     }
                 });
+
+                currentWrite.deficit -= bytes;
+                if (currentWrite.deficit <= 0) {
+                    // Yield to the next pending response
+                    this.currentWrite = null;
+                    queue.add(currentWrite);
+                }
             }
 
-            // Always need to flush
-            ctx.flush();
             flushed = true;
 
             if (!channel.isActive()) {
                 discard(new ClosedChannelException());
                 break;
             }
+
+            if (shaper != null) {
+                long delay = shaper.acquire(pendingMessage.getRequest(), bytes);
+                if (delay > 0) {
+                    suspend(ctx, delay);
+                    break;
+                }
+            }
+        }
+        if (flushed) {
+            // One flush for all chunks written in this pass; the loop stops
+            // once the outbound buffer exceeds its high water mark.
+            ctx.flush();
         }
         return flushed;
 
     }
 
+    private void suspend(ChannelHandlerContext ctx, long delay) {
+        isSuspended = true;
+        ctx.executor().schedule(() -> {
+            isSuspended = false;
+            try {
+                doFlush(ctx);
+            } catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
     private static final class PendingWrite {
 
         final ChunkedResponse msg;
         final ChannelPromise promise;
+        final MetricsRecorder metrics;
+        final int requestId;
+        final long started;
+        final int weight;
+        long deficit;
         private long progress;
+        private boolean isFirstChunkSent;
+        private boolean isClosed;
 
-        PendingWrite(ChunkedResponse msg, ChannelPromise promise) {
+        PendingWrite(ChunkedResponse msg, ChannelPromise promise, MetricsRecorder metrics) {
             this.msg = msg;
             this.promise = promise;
+            this.metrics = metrics;
+            this.requestId = msg.getRequest().getRequestId();
+            this.started = System.nanoTime();
+            this.weight = Math.max(1, msg.getWeight());
+        }
+
+        void sent(long bytes, boolean isLast) {
+            long elapsed = System.nanoTime() - started;
+            metrics.bytesSent(requestId, bytes);
+            if (!isFirstChunkSent) {
+                isFirstChunkSent = true;
+                metrics.firstByteSent(requestId, elapsed);
+            }
+            if (isLast) {
+                metrics.lastByteSent(requestId, elapsed);
+                metrics.requestCompleted(requestId, elapsed);
+            }
         }
 
         void closeInput() {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
             try {
                 msg.close();
             } catch (Throwable t) {
@@ -128,7 +128,7 @@ public abstract class AbstractClientAuthnHandler extends AbstractClientRequestHa
           throws XrootdException {
         switch (response.getRequestId()) {
             case kXR_auth:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     try {
                         sendAuthenticationRequest(ctx);
                     } catch (XrootdException e) {
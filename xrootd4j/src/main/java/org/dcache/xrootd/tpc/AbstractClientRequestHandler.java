@@ -97,6 +97,20 @@ public abstract class AbstractClientRequestHandler extends
         ctx.fireChannelRead(msg);
     }
 
+    /**
+     * Losing the connection while the source file is open fails the
+     *    transfer, or resumes it, without waiting for the response to
+     *    time out.</p>
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (client != null && client.isRunning() && client.isOpenFile()) {
+            exceptionCaught(ctx, new ClosedChannelException());
+            return;
+        }
+        ctx.fireChannelInactive();
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable t) {
         if (t instanceof ClosedChannelException) {
@@ -244,6 +258,10 @@ public abstract class AbstractClientRequestHandler extends
               response.getPort(),
               id, client.getStreamId(),
               client.getInfo());
+        TpcRedirectCache redirectCache = client.getRedirectCache();
+        if (redirectCache != null) {
+            redirectCache.put(client.getInfo(), response);
+        }
         client.getWriteHandler().redirect(ctx, response);
     }
 
@@ -360,7 +378,7 @@ public abstract class AbstractClientRequestHandler extends
           throws XrootdException {
         switch (response.getRequestId()) {
             case kXR_endsess:
-                client.setAttnFuture(client.getExecutor().schedule(() -> {
+                client.setAttnFuture(client.schedule(() -> {
                     client.doEndsession(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS));
                 break;
@@ -378,7 +396,7 @@ public abstract class AbstractClientRequestHandler extends
     protected synchronized void doOnWaitRespResponse(final ChannelHandlerContext ctx,
           InboundWaitRespResponse response)
           throws XrootdException {
-        client.setAttnFuture(client.getExecutor().schedule(() -> {
+        client.setAttnFuture(client.schedule(() -> {
             asynWaitTimeout(ctx, response);
         }, getWaitInSeconds(response), TimeUnit.SECONDS));
     }
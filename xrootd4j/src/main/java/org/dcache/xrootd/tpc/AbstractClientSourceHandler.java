@@ -136,12 +136,15 @@ public abstract class AbstractClientSourceHandler extends
         switch (status) {
             case kXR_ok:
                 LOGGER.debug("Close of {} on {}, channel {}, stream {}, "
-                            + "succeeded, ending session.",
+                            + "succeeded, ending or releasing session.",
                       tpcInfo.getLfn(),
                       tpcInfo.getSrc(),
                       id,
                       client.getStreamId());
-                client.doEndsession(ctx);
+                client.setOpenFile(false);
+                if (!client.releaseSession(ctx)) {
+                    client.doEndsession(ctx);
+                }
                 break;
             default:
                 String error = String.format("Close of %s on %s failed "
@@ -173,6 +176,14 @@ public abstract class AbstractClientSourceHandler extends
               response.getCptype(),
               status);
         if (status == kXR_ok) {
+            if (client.getResumes() > 0 && response.getFileStatus() != null
+                  && response.getFileStatus().getSize() != tpcInfo.computeFileSize()) {
+                String error = String.format("Cannot resume transfer of %s from %s; "
+                            + "the size of the source has changed.",
+                      tpcInfo.getLfn(),
+                      tpcInfo.getSrc());
+                throw new XrootdException(kXR_IOError, error);
+            }
             client.setOpenFile(true);
             client.setFhandle(response.getFhandle());
             client.setCpsize(response.getCpsize());
@@ -223,12 +234,12 @@ public abstract class AbstractClientSourceHandler extends
           throws XrootdException {
         switch (response.getRequestId()) {
             case kXR_open:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     sendOpenRequest(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS);
                 break;
             case kXR_close:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     client.doClose(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS);
                 break;
@@ -175,12 +175,12 @@ public class TpcClientConnectHandler extends
           throws XrootdException {
         switch (response.getRequestId()) {
             case kXR_login:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     sendLoginRequest(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS);
                 break;
             case kXR_protocol:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     sendProtocolRequest(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS);
                 break;
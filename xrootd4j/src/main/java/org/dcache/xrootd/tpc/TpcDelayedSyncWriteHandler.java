@@ -41,4 +41,19 @@ public interface TpcDelayedSyncWriteHandler {
      */
     void redirect(ChannelHandlerContext ctx,
           InboundRedirectResponse response) throws XrootdException;
+
+    /**
+     * Called instead of {@link #fireDelayedSync} when the connection to the
+     *    source failed in the middle of the transfer and the client has
+     *    resumes left, or when going to a data server found in the
+     *    redirect cache failed.  To resume, the caller constructs and
+     *    connects a new client using
+     *    {@link XrootdTpcClient#getInfoForResume} and
+     *    {@link XrootdTpcClient#configureResume}.</p>
+     *
+     * @return false if the transfer is not resumed, in which case it fails.
+     */
+    default boolean resume(XrootdTpcClient failed) {
+        return false;
+    }
 }
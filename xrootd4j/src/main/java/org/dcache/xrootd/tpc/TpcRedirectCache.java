@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import com.google.common.base.Ticker;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.tpc.protocol.messages.InboundRedirectResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers where sources redirected third-party clients to.</p>
+ *
+ * Entries are keyed by the source (typically a redirector or manager)
+ *    and the directory of the file, on the assumption that files of the
+ *    same dataset live on the same data server.  A transfer for which
+ *    an entry exists can then go to the data server directly, saving the
+ *    connection and login to the manager.</p>
+ *
+ * The caller constructs the client with the info returned by
+ *    {@link #resolve} and sets the cache on it.  The client adds the
+ *    redirects it receives to the cache.  If it fails before any data was
+ *    written while going to a cached data server, the entry is removed
+ *    and the transfer is resumed against the original source.</p>
+ *
+ * The cache holds at most {@code maxEntries} entries, evicting the least
+ *    recently used ones, and ignores entries older than the time to
+ *    live.</p>
+ */
+public class TpcRedirectCache {
+
+    private static final Logger LOGGER
+          = LoggerFactory.getLogger(TpcRedirectCache.class);
+
+    private static class Key {
+
+        private final String source;
+        private final boolean isTls;
+        private final String directory;
+
+        Key(XrootdTpcInfo info) {
+            source = info.getSrc();
+            isTls = info.isTls();
+            String lfn = Objects.toString(info.getLfn(), "");
+            directory = lfn.substring(0, Math.max(0, lfn.lastIndexOf('/')));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return isTls == other.isTls
+                  && source.equals(other.source)
+                  && directory.equals(other.directory);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, isTls, directory);
+        }
+
+        @Override
+        public String toString() {
+            return source + directory;
+        }
+    }
+
+    private static class Target {
+
+        final String host;
+        final int port;
+        final Optional<String> protocol;
+        final String token;
+        final long created;
+
+        Target(InboundRedirectResponse response, long created) {
+            URL url = response.getUrl();
+            if (url != null) {
+                host = url.getHost();
+                port = url.getPort();
+                protocol = Optional.ofNullable(url.getProtocol());
+            } else {
+                host = response.getHost();
+                port = response.getPort();
+                protocol = Optional.empty();
+            }
+            token = response.getToken();
+            this.created = created;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private final long timeToLive;
+    private final Ticker ticker;
+    private final Map<Key, Target> entries;
+
+    private long hits;
+    private long misses;
+    private long fallbacks;
+
+    public TpcRedirectCache(int maxEntries, long timeToLive, TimeUnit unit) {
+        this(maxEntries, timeToLive, unit, Ticker.systemTicker());
+    }
+
+    TpcRedirectCache(int maxEntries, long timeToLive, TimeUnit unit, Ticker ticker) {
+        this.timeToLive = unit.toNanos(timeToLive);
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<Key, Target>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Target> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return info for the data server the source last redirected to for
+     *          the directory of the file, or the given info if there is
+     *          none.
+     */
+    public synchronized XrootdTpcInfo resolve(XrootdTpcInfo info) {
+        Key key = new Key(info);
+        Target target = entries.get(key);
+        if (target != null && ticker.read() - target.created > timeToLive) {
+            entries.remove(key);
+            target = null;
+        }
+        if (target == null) {
+            ++misses;
+            return info;
+        }
+        ++hits;
+        LOGGER.debug("Going directly to {} for {}.", target, key);
+        return info.copyForCachedRedirect(target.host, target.port,
+              target.protocol, target.token);
+    }
+
+    /**
+     * Records a redirect received by a client for the given info.
+     */
+    public synchronized void put(XrootdTpcInfo info,
+          InboundRedirectResponse response) {
+        if (response.isReconnect() || info.getRedirectOrigin() != null) {
+            return;
+        }
+        Key key = new Key(info);
+        Target target = new Target(response, ticker.read());
+        LOGGER.debug("Caching redirect from {} to {}.", key, target);
+        entries.put(key, target);
+    }
+
+    /**
+     * Removes the entry which led to the given info, after going to the
+     *    data server failed.
+     */
+    public synchronized void invalidate(XrootdTpcInfo info) {
+        XrootdTpcInfo origin = info.getRedirectOrigin();
+        if (origin == null) {
+            return;
+        }
+        ++fallbacks;
+        Key key = new Key(origin);
+        Target target = entries.get(key);
+        if (target != null && target.host.equals(info.getSrcHost())
+              && target.port == info.getSrcPort()) {
+            entries.remove(key);
+        }
+        LOGGER.debug("Removed redirect from {} to {}.", key, info.getSrc());
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of transfers which fell back to the original
+     *          source after going to a cached data server failed.
+     */
+    public synchronized long getFallbacks() {
+        return fallbacks;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.ReferenceCountUtil;
+import java.io.Serializable;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdSessionIdentifier;
+import org.dcache.xrootd.plugins.authn.gsi.SerializableX509Credential;
+import org.dcache.xrootd.security.SecurityInfo;
+import org.dcache.xrootd.security.SigningPolicy;
+import org.dcache.xrootd.security.TLSSessionInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of idle, logged-in and authenticated sessions with source servers.</p>
+ *
+ * A third-party client which has successfully closed its source file
+ *    returns its channel to the pool instead of ending the session.  A
+ *    subsequent client for the same source, user, credential and TLS
+ *    requirement picks the channel up and proceeds directly to kXR_open,
+ *    skipping the connect, handshake, protocol, login and authentication
+ *    exchanges.</p>
+ *
+ * At most {@code maxIdlePerHost} idle sessions are kept per source
+ *    host and port.  Sessions left idle for longer than the idle timeout,
+ *    or on which the server sends anything while idle, are closed.</p>
+ */
+public class TpcSessionPool {
+
+    private static final Logger LOGGER
+          = LoggerFactory.getLogger(TpcSessionPool.class);
+
+    /**
+     * Identifies the sessions which may be shared between transfers.</p>
+     *
+     * A delegated X.509 credential is identified by its certificate
+     *    chain, which compares the encoded certificates, so transfers
+     *    presenting separate copies of the same delegated proxy share
+     *    sessions, while a session authenticated with one proxy is never
+     *    handed to a transfer holding another.  Other delegated
+     *    credentials are compared with {@code equals}.</p>
+     */
+    public static class Key {
+
+        private final String host;
+        private final int port;
+        private final String uname;
+        private final String loginToken;
+        private final Object credential;
+        private final boolean isTls;
+
+        Key(XrootdTpcInfo info, String uname) {
+            this.host = info.getSrcHost();
+            this.port = info.getSrcPort();
+            this.uname = uname;
+            this.loginToken = info.getLoginToken();
+            this.credential = identify(info.getDelegatedProxy());
+            this.isTls = info.isTls();
+        }
+
+        String getHostAndPort() {
+            return host + ":" + port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return port == other.port
+                  && isTls == other.isTls
+                  && host.equals(other.host)
+                  && Objects.equals(uname, other.uname)
+                  && Objects.equals(loginToken, other.loginToken)
+                  && Objects.equals(credential, other.credential);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, uname, loginToken, credential, isTls);
+        }
+
+        @Override
+        public String toString() {
+            return uname + "@" + getHostAndPort() + (isTls ? " (tls)" : "");
+        }
+
+        private static Object identify(Serializable delegatedProxy) {
+            if (!(delegatedProxy instanceof SerializableX509Credential)) {
+                return delegatedProxy;
+            }
+            X509Certificate[] chain = ((SerializableX509Credential) delegatedProxy).getCertChain();
+            if (chain == null || chain.length == 0) {
+                return delegatedProxy;
+            }
+            return Arrays.asList(chain);
+        }
+    }
+
+    /**
+     * State of an established session which outlives the client that
+     *    established it.</p>
+     */
+    static class Session {
+
+        final Channel channel;
+        final XrootdSessionIdentifier sessionId;
+        final SigningPolicy signingPolicy;
+        final TLSSessionInfo tlsSessionInfo;
+        final SecurityInfo protocolInfo;
+        final int pval;
+        final int flag;
+
+        private ChannelFutureListener closeListener;
+        private ScheduledFuture<?> expiry;
+
+        Session(Channel channel,
+              XrootdSessionIdentifier sessionId,
+              SigningPolicy signingPolicy,
+              TLSSessionInfo tlsSessionInfo,
+              SecurityInfo protocolInfo,
+              int pval,
+              int flag) {
+            this.channel = channel;
+            this.sessionId = sessionId;
+            this.signingPolicy = signingPolicy;
+            this.tlsSessionInfo = tlsSessionInfo;
+            this.protocolInfo = protocolInfo;
+            this.pval = pval;
+            this.flag = flag;
+        }
+    }
+
+    /**
+     * Stands in for the client decoder while the session is idle.  Since
+     *    no request is outstanding, anything received means the session
+     *    can no longer be trusted to be in a known state.</p>
+     */
+    static class IdleSessionHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+            LOGGER.debug("Unsolicited message on idle session, channel {}; closing.",
+                  ctx.channel().id());
+            ctx.close();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable t) {
+            LOGGER.debug("Exception on idle session, channel {}: {}; closing.",
+                  ctx.channel().id(), t.toString());
+            ctx.close();
+        }
+    }
+
+    private final int maxIdlePerHost;
+    private final long idleTimeout;
+    private final TimeUnit idleTimeoutUnit;
+
+    private final Map<Key, Deque<Session>> idle = new HashMap<>();
+    private final Map<String, Integer> idlePerHost = new HashMap<>();
+
+    private long reused;
+
+    public TpcSessionPool(int maxIdlePerHost, long idleTimeout, TimeUnit unit) {
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.idleTimeout = idleTimeout;
+        this.idleTimeoutUnit = unit;
+    }
+
+    /**
+     * @return the most recently released open session for the key, if any.
+     */
+    synchronized Optional<Session> acquire(Key key) {
+        Deque<Session> sessions = idle.get(key);
+        while (sessions != null && !sessions.isEmpty()) {
+            Session session = sessions.pollFirst();
+            if (sessions.isEmpty()) {
+                idle.remove(key);
+            }
+            decrement(key);
+            session.expiry.cancel(false);
+            session.channel.closeFuture().removeListener(session.closeListener);
+            if (session.channel.isActive()) {
+                ++reused;
+                LOGGER.debug("Reusing session {} to {}, channel {}.",
+                      session.sessionId, key, session.channel.id());
+                return Optional.of(session);
+            }
+            session.channel.close();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Adds the session to the pool, unless the limit for its host has been
+     *    reached.</p>
+     *
+     * @param detach unbinds the channel from the releasing client; only
+     *               called if the session is pooled, and before it can be
+     *               acquired by another client.
+     * @return true if the session was pooled; otherwise the caller remains
+     *          responsible for ending it.
+     */
+    synchronized boolean release(Key key, Session session, Runnable detach) {
+        String host = key.getHostAndPort();
+        if (maxIdlePerHost <= 0 || !session.channel.isActive()
+              || idlePerHost.getOrDefault(host, 0) >= maxIdlePerHost) {
+            return false;
+        }
+
+        detach.run();
+        idle.computeIfAbsent(key, k -> new ArrayDeque<>()).addFirst(session);
+        idlePerHost.merge(host, 1, Integer::sum);
+
+        session.expiry = session.channel.eventLoop().schedule(() -> {
+                  LOGGER.debug("Session {} to {}, channel {}, idle for {} {}; closing.",
+                        session.sessionId, key, session.channel.id(),
+                        idleTimeout, idleTimeoutUnit);
+                  session.channel.close();
+              },
+              idleTimeout, idleTimeoutUnit);
+        session.closeListener = f -> remove(key, session);
+        session.channel.closeFuture().addListener(session.closeListener);
+
+        LOGGER.debug("Pooled session {} to {}, channel {}.",
+              session.sessionId, key, session.channel.id());
+        return true;
+    }
+
+    /**
+     * Closes all idle sessions.
+     */
+    public void shutdown() {
+        for (Session session : drain()) {
+            session.channel.close();
+        }
+    }
+
+    /**
+     * @return the number of idle sessions.
+     */
+    public synchronized int getIdleCount() {
+        return idlePerHost.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * @return the number of transfers which reused a pooled session.
+     */
+    public synchronized long getReuseCount() {
+        return reused;
+    }
+
+    private synchronized Deque<Session> drain() {
+        Deque<Session> all = new ArrayDeque<>();
+        idle.values().forEach(all::addAll);
+        idle.clear();
+        idlePerHost.clear();
+        for (Session session : all) {
+            session.expiry.cancel(false);
+            session.channel.closeFuture().removeListener(session.closeListener);
+        }
+        return all;
+    }
+
+    private synchronized void remove(Key key, Session session) {
+        Deque<Session> sessions = idle.get(key);
+        if (sessions == null) {
+            return;
+        }
+        for (Iterator<Session> i = sessions.iterator(); i.hasNext(); ) {
+            if (i.next() == session) {
+                i.remove();
+                session.expiry.cancel(false);
+                decrement(key);
+                break;
+            }
+        }
+        if (sessions.isEmpty()) {
+            idle.remove(key);
+        }
+    }
+
+    private void decrement(Key key) {
+        idlePerHost.computeIfPresent(key.getHostAndPort(),
+              (h, n) -> n > 1 ? n - 1 : null);
+    }
+}
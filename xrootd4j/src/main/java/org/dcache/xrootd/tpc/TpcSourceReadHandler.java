@@ -30,7 +30,10 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.checksum.ChecksumType;
+import org.dcache.xrootd.checksum.IncrementalChecksummer;
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.tpc.protocol.messages.AbstractXrootdInboundResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundAttnResponse;
@@ -46,7 +49,10 @@ import org.dcache.xrootd.tpc.protocol.messages.OutboundReadRequest;
  *      and calls back to disconnect the third-party client.</p>
  *
  * Optional checksum verification (done prior to the sync reply)
- *    is implemented by subclasses.</p>
+ *    is implemented by subclasses.  If the requested checksum type can be
+ *    computed incrementally, the data is checksummed as it arrives, and
+ *    {@link #getComputedChecksum} makes the result available to the
+ *    subclass without rereading the written file.</p>
  */
 public abstract class TpcSourceReadHandler extends AbstractClientSourceHandler {
 
@@ -135,6 +141,10 @@ public abstract class TpcSourceReadHandler extends AbstractClientSourceHandler {
             if (bytesRcvd > 0) {
                 try {
                     response.setWriteOffset(writeOffset);
+                    IncrementalChecksummer checksummer = client.getChecksummer();
+                    if (checksummer != null) {
+                        checksummer.update(response);
+                    }
                     client.getWriteHandler().write(response);
                     writeOffset += bytesRcvd;
                     client.setWriteOffset(writeOffset);
@@ -197,12 +207,12 @@ public abstract class TpcSourceReadHandler extends AbstractClientSourceHandler {
           throws XrootdException {
         switch (response.getRequestId()) {
             case kXR_read:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     sendReadRequest(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS);
                 break;
             case kXR_query:
-                client.getExecutor().schedule(() -> {
+                client.schedule(() -> {
                     sendChecksumRequest(ctx);
                 }, getWaitInSeconds(response), TimeUnit.SECONDS);
                 break;
@@ -273,6 +283,22 @@ public abstract class TpcSourceReadHandler extends AbstractClientSourceHandler {
         client.startTimer(ctx);
     }
 
+    /**
+     * @return the checksum of the data received from the source, if it was
+     *          computed while the data arrived and covers the whole file.
+     */
+    protected Optional<String> getComputedChecksum(ChecksumType type) {
+        IncrementalChecksummer checksummer = client.getChecksummer();
+        if (checksummer == null) {
+            return Optional.empty();
+        }
+        try {
+            return checksummer.getValue(type, client.getInfo().computeFileSize());
+        } catch (XrootdException e) {
+            return Optional.empty();
+        }
+    }
+
     protected abstract void validateChecksum(InboundChecksumResponse response,
           ChannelHandlerContext ctx)
           throws XrootdException;
@@ -0,0 +1,442 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Ticker;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for third-party copies.</p>
+ *
+ * A transfer asks for a {@link Slot} before its {@link XrootdTpcClient}
+ *    connects to the source, and gives it back once the client stops.
+ *    Slots are granted as long as neither the global limit nor the limit
+ *    for the source host:port are exceeded.  Otherwise the request is
+ *    queued.</p>
+ *
+ * Queued requests are kept per group (e.g. VO or user).  With
+ *    {@link Policy#FAIR_SHARE}, groups take turns in round-robin order;
+ *    with {@link Policy#FIFO}, all requests share a single queue.  Within
+ *    a group, requests are granted in arrival order, skipping those for
+ *    sources which are at their limit.</p>
+ *
+ * If a per-source bandwidth is configured, no further transfer from a
+ *    source is admitted while the throughput achieved by the transfers
+ *    from that source during the last minute has reached it; more
+ *    concurrent streams would then only compete for the same
+ *    bandwidth.</p>
+ *
+ * The statistics of a source are forgotten once it has neither active
+ *    nor queued transfers and none of its transfers completed within the
+ *    last minute.</p>
+ */
+public class TpcTransferScheduler {
+
+    private static final Logger LOGGER
+          = LoggerFactory.getLogger(TpcTransferScheduler.class);
+
+    private static final long THROUGHPUT_WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String FIFO_GROUP = "";
+
+    public enum Policy {
+        FIFO, FAIR_SHARE
+    }
+
+    /**
+     * Permission to run a transfer from a source.  Must be released
+     *    exactly once; further calls to {@link #release} are ignored.</p>
+     */
+    public class Slot {
+
+        private final String source;
+        private final String group;
+        private final long queuedAt;
+        private final AtomicBoolean isReleased = new AtomicBoolean();
+        private long startedAt;
+
+        private Slot(String source, String group, long queuedAt) {
+            this.source = source;
+            this.group = group;
+            this.queuedAt = queuedAt;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public long getQueueWait(TimeUnit unit) {
+            return unit.convert(startedAt - queuedAt, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @param bytes transferred while the slot was held.
+         */
+        public void release(long bytes) {
+            if (isReleased.compareAndSet(false, true)) {
+                released(this, bytes);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "slot[" + source + ", " + group + "]";
+        }
+    }
+
+    /**
+     * Snapshot of the activity for a single source.
+     */
+    public static class SourceStatistics {
+
+        private final int active;
+        private final int queued;
+        private final long completed;
+        private final long bytes;
+        private final long totalQueueWait;
+        private final long maxQueueWait;
+        private final long throughput;
+
+        private SourceStatistics(Source source, long throughput) {
+            this.active = source.active;
+            this.queued = source.queued;
+            this.completed = source.completed;
+            this.bytes = source.bytes;
+            this.totalQueueWait = source.totalQueueWait;
+            this.maxQueueWait = source.maxQueueWait;
+            this.throughput = throughput;
+        }
+
+        public int getActive() {
+            return active;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return mean time spent queued by the transfers started so far.
+         */
+        public long getMeanQueueWait(TimeUnit unit) {
+            long started = completed + active;
+            return started == 0 ? 0 : unit.convert(totalQueueWait / started,
+                  TimeUnit.NANOSECONDS);
+        }
+
+        public long getMaxQueueWait(TimeUnit unit) {
+            return unit.convert(maxQueueWait, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * @return bytes per second transferred by the transfers completed
+         *          during the last minute.
+         */
+        public long getThroughput() {
+            return throughput;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("active %d, queued %d, completed %d, bytes %d, "
+                        + "mean wait %d ms, max wait %d ms, throughput %d B/s",
+                  active, queued, completed, bytes,
+                  getMeanQueueWait(TimeUnit.MILLISECONDS),
+                  getMaxQueueWait(TimeUnit.MILLISECONDS),
+                  throughput);
+        }
+    }
+
+    private static class Source {
+
+        int active;
+        int queued;
+        long completed;
+        long bytes;
+        long totalQueueWait;
+        long maxQueueWait;
+
+        /*
+         *  Completion time and bytes of the transfers completed within
+         *  the throughput window.
+         */
+        final Deque<long[]> recent = new ArrayDeque<>();
+        long recentBytes;
+
+        long throughput(long now) {
+            expire(now);
+            return recentBytes / TimeUnit.NANOSECONDS.toSeconds(THROUGHPUT_WINDOW);
+        }
+
+        boolean isIdle(long now) {
+            expire(now);
+            return active == 0 && queued == 0 && recent.isEmpty();
+        }
+
+        private void expire(long now) {
+            while (!recent.isEmpty() && now - recent.peekFirst()[0] > THROUGHPUT_WINDOW) {
+                recentBytes -= recent.pollFirst()[1];
+            }
+        }
+    }
+
+    private static class Pending {
+
+        final Slot slot;
+        final String queue;
+        final CompletableFuture<Slot> future = new CompletableFuture<>();
+
+        Pending(Slot slot, String queue) {
+            this.slot = slot;
+            this.queue = queue;
+        }
+    }
+
+    private final int maxActive;
+    private final int maxActivePerSource;
+    private final long maxBytesPerSecondPerSource;
+    private final Policy policy;
+    private final Ticker ticker;
+
+    /*
+     *  Iteration order is the round-robin order of the groups.
+     */
+    private final LinkedHashMap<String, Deque<Pending>> queues = new LinkedHashMap<>();
+    private String lastGroup;
+    private final Map<String, Source> sources = new HashMap<>();
+    private long lastPurge;
+
+    private int active;
+
+    /**
+     * @param maxActive                  transfers active at a time, at
+     *                                   least 1.
+     * @param maxActivePerSource         transfers active at a time from
+     *                                   the same source, at least 1.
+     * @param maxBytesPerSecondPerSource bandwidth at which no further
+     *                                   transfers from a source are admitted,
+     *                                   or 0 for no limit.
+     */
+    public TpcTransferScheduler(int maxActive,
+          int maxActivePerSource,
+          long maxBytesPerSecondPerSource,
+          Policy policy) {
+        this(maxActive, maxActivePerSource, maxBytesPerSecondPerSource, policy,
+              Ticker.systemTicker());
+    }
+
+    TpcTransferScheduler(int maxActive,
+          int maxActivePerSource,
+          long maxBytesPerSecondPerSource,
+          Policy policy,
+          Ticker ticker) {
+        checkArgument(maxActive > 0, "maxActive must be positive");
+        checkArgument(maxActivePerSource > 0, "maxActivePerSource must be positive");
+        this.maxActive = maxActive;
+        this.maxActivePerSource = maxActivePerSource;
+        this.maxBytesPerSecondPerSource = maxBytesPerSecondPerSource;
+        this.policy = policy;
+        this.ticker = ticker;
+        this.lastPurge = ticker.read();
+    }
+
+    /**
+     * Requests a slot for a transfer from the source described by the info.
+     *    The future completes once the transfer may start.  Cancelling it
+     *    withdraws the request.</p>
+     *
+     * @param group to which the transfer is accounted for fair share,
+     *              e.g. the VO or user.
+     */
+    public CompletableFuture<Slot> schedule(XrootdTpcInfo info, String group) {
+        String source = info.getSrcHost() + ":" + info.getSrcPort();
+        String queue = policy == Policy.FIFO ? FIFO_GROUP : group;
+        Pending pending = new Pending(new Slot(source, group, ticker.read()), queue);
+        synchronized (this) {
+            queues.computeIfAbsent(queue, q -> new ArrayDeque<>()).addLast(pending);
+            sources.computeIfAbsent(source, s -> new Source()).queued++;
+        }
+        pending.future.whenComplete((slot, error) -> {
+            if (pending.future.isCancelled()) {
+                withdraw(pending);
+            }
+        });
+        LOGGER.debug("Queued transfer from {} for {}.", source, group);
+        dispatch();
+        return pending.future;
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized int getQueued() {
+        return queues.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    public synchronized Map<String, SourceStatistics> getSourceStatistics() {
+        long now = ticker.read();
+        purgeIdleSources(now);
+        Map<String, SourceStatistics> statistics = new HashMap<>();
+        sources.forEach((name, source) -> statistics.put(name,
+              new SourceStatistics(source, source.throughput(now))));
+        return statistics;
+    }
+
+    private void released(Slot slot, long bytes) {
+        synchronized (this) {
+            long now = ticker.read();
+            Source source = sources.get(slot.source);
+            source.active--;
+            source.completed++;
+            source.bytes += bytes;
+            source.recent.addLast(new long[]{now, bytes});
+            source.recentBytes += bytes;
+            active--;
+        }
+        LOGGER.debug("Transfer from {} for {} finished; {} bytes.",
+              slot.source, slot.group, bytes);
+        dispatch();
+    }
+
+    /*
+     *  Removes a cancelled request from its queue, unless it has been
+     *  removed already, so that requests cancelled while no slot becomes
+     *  free do not accumulate.
+     */
+    private synchronized void withdraw(Pending pending) {
+        Deque<Pending> queue = queues.get(pending.queue);
+        if (queue != null && queue.remove(pending)) {
+            sources.get(pending.slot.source).queued--;
+            if (queue.isEmpty() && !pending.queue.equals(lastGroup)) {
+                queues.remove(pending.queue);
+            }
+            LOGGER.debug("Withdrew transfer from {} for {}.",
+                  pending.slot.source, pending.slot.group);
+        }
+    }
+
+    /*
+     *  Forgets the sources which have become idle.
+     */
+    private void purgeIdleSources(long now) {
+        sources.values().removeIf(source -> source.isIdle(now));
+        lastPurge = now;
+    }
+
+    private void dispatch() {
+        List<Pending> admitted = new ArrayList<>();
+        synchronized (this) {
+            long now = ticker.read();
+            if (now - lastPurge > THROUGHPUT_WINDOW) {
+                purgeIdleSources(now);
+            }
+            Pending next;
+            while (active < maxActive && (next = nextAdmissible(now)) != null) {
+                Slot slot = next.slot;
+                Source source = sources.get(slot.source);
+                long wait = now - slot.queuedAt;
+                slot.startedAt = now;
+                source.queued--;
+                source.active++;
+                source.totalQueueWait += wait;
+                source.maxQueueWait = Math.max(source.maxQueueWait, wait);
+                active++;
+                admitted.add(next);
+            }
+        }
+
+        /*
+         *  Completing the future runs the caller's continuation, so
+         *  do it outside of the lock.
+         */
+        for (Pending pending : admitted) {
+            if (!pending.future.complete(pending.slot)) {
+                pending.slot.release(0);
+            }
+        }
+    }
+
+    /*
+     *  Removes and returns the first admissible request, looking at the
+     *  groups in turn, starting with the one following the group served
+     *  last.  The queue of that group is kept even if empty, to preserve
+     *  its place in the round.
+     */
+    private Pending nextAdmissible(long now) {
+        List<String> groups = new ArrayList<>(queues.keySet());
+        int first = groups.indexOf(lastGroup) + 1;
+        for (int k = 0; k < groups.size(); k++) {
+            String group = groups.get((first + k) % groups.size());
+            Deque<Pending> queue = queues.get(group);
+            for (Iterator<Pending> i = queue.iterator(); i.hasNext(); ) {
+                Pending pending = i.next();
+                Source source = sources.get(pending.slot.source);
+                if (pending.future.isCancelled()) {
+                    i.remove();
+                    source.queued--;
+                } else if (isAdmissible(source, now)) {
+                    i.remove();
+                    if (lastGroup != null && !lastGroup.equals(group)
+                          && queues.get(lastGroup).isEmpty()) {
+                        queues.remove(lastGroup);
+                    }
+                    lastGroup = group;
+                    return pending;
+                }
+            }
+            if (queue.isEmpty() && !group.equals(lastGroup)) {
+                queues.remove(group);
+            }
+        }
+        return null;
+    }
+
+    private boolean isAdmissible(Source source, long now) {
+        if (source.active >= maxActivePerSource) {
+            return false;
+        }
+        return maxBytesPerSecondPerSource <= 0 || source.active == 0
+              || source.throughput(now) < maxBytesPerSecondPerSource;
+    }
+}
@@ -41,17 +41,21 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.Timeout;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import org.dcache.xrootd.checksum.ChecksumType;
+import org.dcache.xrootd.checksum.IncrementalChecksummer;
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.core.XrootdSessionIdentifier;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
@@ -67,6 +71,7 @@ import org.dcache.xrootd.tpc.protocol.messages.OutboundEndSessionRequest;
 import org.dcache.xrootd.tpc.protocol.messages.OutboundHandshakeRequest;
 import org.dcache.xrootd.util.OpaqueStringParser;
 import org.dcache.xrootd.util.ParseException;
+import org.dcache.xrootd.util.SharedTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,6 +83,11 @@ import org.slf4j.LoggerFactory;
  *    It has its own channel/pipeline, and its lifecycle ends with the
  *    completion of the transfer, whereupon it is disconnected.</p>
  *
+ * If a {@link TpcSessionPool} is set, a client which completes its
+ *    transfer hands the still authenticated session over to the pool
+ *    instead, and a client finding a matching session in the pool
+ *    takes over its channel and starts with kXR_open.</p>
+ *
  * A client is bound to its channel handlers through injection.</p>
  */
 public class XrootdTpcClient {
@@ -161,6 +171,12 @@ public class XrootdTpcClient {
      */
     private long writeOffset;
 
+    /*
+     * Checksum of the data read so far, if the requested checksum
+     * type can be computed incrementally.
+     */
+    private IncrementalChecksummer checksummer;
+
     /*
      * Netty
      */
@@ -171,10 +187,38 @@ public class XrootdTpcClient {
 
     private boolean isRunning;
     private int redirects;
+
+    /*
+     *  Number of times the transfer has been resumed so far, and the
+     *  number of times it may be resumed.
+     */
+    private int resumes;
+    private int maxResumes;
+    private boolean isResumeRequested;
     private long timeOfFirstRedirect;
     private long responseTimeout = DEFAULT_RESPONSE_TIMEOUT_IN_SECONDS;
 
-    private ScheduledFuture timerTask;
+    /*
+     *  Response timeout, rearmed for every request; on the shared timer
+     *  since it is almost always cancelled.
+     */
+    private Timeout timerTask;
+
+    private TpcSessionPool sessionPool;
+
+    private TpcRedirectCache redirectCache;
+
+    /*
+     *  Optional handler placed at the head of the pipeline, i.e., next to
+     *  the socket, such as a traffic shaper or a network emulator.
+     */
+    private ChannelHandlerFactory transportHandlerFactory;
+
+    /*
+     *  Admission granted by a TpcTransferScheduler, if any; given back
+     *  when the client stops.
+     */
+    private TpcTransferScheduler.Slot transferSlot;
 
     /*
      *  The kXR_attn response requires the client to wait, either for another
@@ -182,7 +226,7 @@ public class XrootdTpcClient {
      *  We store the future in the client so we can cancel it if an instruction
      *  arrives before its timeout expires.
      */
-    private ScheduledFuture attnFuture;
+    private Timeout attnFuture;
 
     public XrootdTpcClient(String userUrn,
           XrootdTpcInfo info,
@@ -212,6 +256,10 @@ public class XrootdTpcClient {
         uname = userSplit[0];
         pid = getClientPid();
         writeOffset = 0L;
+        checksummer = ChecksumType.forName(info.getCks())
+              .filter(ChecksumType::isCombinable)
+              .map(type -> new IncrementalChecksummer(EnumSet.of(type)))
+              .orElse(null);
         errno = kXR_ok;
         redirects = 0;
         timeOfFirstRedirect = 0;
@@ -219,7 +267,7 @@ public class XrootdTpcClient {
 
     public synchronized boolean cancelAttnFuture() {
         if (attnFuture != null) {
-            attnFuture.cancel(true);
+            attnFuture.cancel();
             attnFuture = null;
             return true;
         }
@@ -242,12 +290,49 @@ public class XrootdTpcClient {
               System.currentTimeMillis() :
               preceding.timeOfFirstRedirect;
         this.responseTimeout = preceding.responseTimeout;
+        this.transportHandlerFactory = preceding.transportHandlerFactory;
+    }
+
+    /**
+     * Continues the transfer of a client which failed while reading from
+     *    the source.  Reading resumes at the offset up to which the data
+     *    has been written, and the checksum computed so far is carried
+     *    over, as is any transfer slot.</p>
+     *
+     * The client should have been constructed with the info returned by
+     *    {@link #getInfoForResume} of the preceding client.</p>
+     */
+    public void configureResume(XrootdTpcClient preceding) {
+        synchronized (preceding) {
+            this.transferSlot = preceding.transferSlot;
+            preceding.transferSlot = null;
+        }
+        this.writeOffset = preceding.writeOffset;
+        this.checksummer = preceding.checksummer;
+        this.resumes = preceding.isFallingBack() ? preceding.resumes
+              : preceding.resumes + 1;
+        this.maxResumes = preceding.maxResumes;
+        this.sessionPool = preceding.sessionPool;
+        this.redirectCache = preceding.redirectCache;
+        this.redirects = preceding.redirects;
+        this.timeOfFirstRedirect = preceding.timeOfFirstRedirect;
+        this.responseTimeout = preceding.responseTimeout;
+        this.transportHandlerFactory = preceding.transportHandlerFactory;
     }
 
     public synchronized void connect(final NioEventLoopGroup group,
           final List<ChannelHandlerFactory> plugins,
           final TpcSourceReadHandler readHandler)
           throws InterruptedException {
+        if (sessionPool != null) {
+            Optional<TpcSessionPool.Session> session
+                  = sessionPool.acquire(new TpcSessionPool.Key(info, uname));
+            if (session.isPresent()) {
+                resume(session.get(), readHandler);
+                return;
+            }
+        }
+
         Bootstrap b = new Bootstrap();
         b.group(group)
               .channel(NioSocketChannel.class)
@@ -280,6 +365,7 @@ public class XrootdTpcClient {
              *  So we have to resort to catching Exception.
              */
             setError(t);
+            releaseTransferSlot();
             if (t instanceof RuntimeException) {
                 throw (RuntimeException) t;
             }
@@ -316,6 +402,8 @@ public class XrootdTpcClient {
 
         notifyAll();
 
+        releaseTransferSlot();
+
         LOGGER.info("Third-party client stopped, for {}, channel {}, stream {}.",
               info.getSrc(), id, streamId);
     }
@@ -332,6 +420,44 @@ public class XrootdTpcClient {
               .addListener(FIRE_EXCEPTION_ON_FAILURE);
     }
 
+    /**
+     * Hands the session over to the session pool, if there is one and
+     *    the transfer succeeded.  The client stops running, but the channel
+     *    stays open.  Must be called once the source file has been
+     *    closed.</p>
+     *
+     * @return false if the session was not pooled and should be ended.
+     */
+    public synchronized boolean releaseSession(ChannelHandlerContext ctx) {
+        if (sessionPool == null || !isRunning || errno != kXR_ok
+              || sessionId == null) {
+            return false;
+        }
+
+        Channel channel = ctx.channel();
+        TpcSessionPool.Session session = new TpcSessionPool.Session(channel,
+              sessionId, signingPolicy, tlsSessionInfo, protocolInfo, pval,
+              flag);
+        if (!sessionPool.release(new TpcSessionPool.Key(info, uname), session,
+              () -> detach(channel.pipeline()))) {
+            return false;
+        }
+
+        stopTimer();
+        cancelAttnFuture();
+        sessionId = null;
+        isRunning = false;
+
+        notifyAll();
+
+        releaseTransferSlot();
+
+        LOGGER.info("Third-party client finished for {}, channel {}, stream {}; "
+                    + "session returned to pool.",
+              info.getSrc(), channel.id(), streamId);
+        return true;
+    }
+
     public void doEndsession(ChannelHandlerContext ctx) {
         if (sessionId != null) {
             LOGGER.debug("sendEndSessionRequest to {}, channel {}, stream {}, "
@@ -375,17 +501,26 @@ public class XrootdTpcClient {
          * It is not predictable whether the server will reply to an
          * endsession request, so this timed delay guarantees shutdown.
          */
-        executorService.schedule(() -> disconnect(),
+        schedule(() -> disconnect(),
               DISCONNECT_TIMEOUT_IN_SECONDS,
               TimeUnit.SECONDS);
     }
 
+    /**
+     * Runs the task on the client's executor after the delay.  Arming and
+     *    cancelling take constant time, independent of the number of
+     *    clients and outstanding requests.</p>
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return SharedTimer.schedule(executorService, task, delay, unit);
+    }
+
     public synchronized void startTimer(final ChannelHandlerContext ctx) {
         /*
          *  just in case ...
          */
         stopTimer();
-        timerTask = executorService.schedule(() ->
+        timerTask = schedule(() ->
               {
                   setError(getTimeoutException());
                   shutDown(ctx);
@@ -396,7 +531,7 @@ public class XrootdTpcClient {
 
     public synchronized void stopTimer() {
         if (timerTask != null) {
-            timerTask.cancel(true);
+            timerTask.cancel();
             timerTask = null;
         }
     }
@@ -413,6 +548,15 @@ public class XrootdTpcClient {
         return authResponse;
     }
 
+    /**
+     * @return checksummer fed with the data read from the source, or null
+     *          if no checksum was requested or the requested type cannot
+     *          be computed incrementally.
+     */
+    public IncrementalChecksummer getChecksummer() {
+        return checksummer;
+    }
+
     public int getCpsize() {
         return cpsize;
     }
@@ -492,6 +636,24 @@ public class XrootdTpcClient {
         return info;
     }
 
+    /**
+     * @return info for the client continuing the transfer after this one
+     *          failed; this is the original source if this client went
+     *          to a cached data server and failed before writing any data.
+     */
+    public XrootdTpcInfo getInfoForResume() {
+        return isFallingBack() ? info.getRedirectOrigin().copyForResume()
+              : info.copyForResume();
+    }
+
+    public TpcRedirectCache getRedirectCache() {
+        return redirectCache;
+    }
+
+    public int getResumes() {
+        return resumes;
+    }
+
     public int getPid() {
         return pid;
     }
@@ -536,11 +698,15 @@ public class XrootdTpcClient {
         return writeOffset;
     }
 
+    public synchronized boolean isRunning() {
+        return isRunning;
+    }
+
     public boolean isOpenFile() {
         return isOpenFile;
     }
 
-    public synchronized void setAttnFuture(ScheduledFuture attnFuture) {
+    public synchronized void setAttnFuture(Timeout attnFuture) {
         this.attnFuture = attnFuture;
     }
 
@@ -557,6 +723,12 @@ public class XrootdTpcClient {
     }
 
     public void setError(Throwable t) {
+        if (isResumeRequested()) {
+            LOGGER.debug("Ignoring error for {}, stream {}, transfer is being resumed: {}.",
+                  info.getSrc(), streamId, t.toString());
+            return;
+        }
+
         error = t.getMessage();
 
         if (t instanceof XrootdException) {
@@ -572,6 +744,27 @@ public class XrootdTpcClient {
             errno = kXR_ServerError;
         }
 
+        if (requestResume(t)) {
+            if (isFallingBack()) {
+                LOGGER.info("Cached redirect to {} failed, stream {}: {}; "
+                            + "falling back to {}.",
+                      info.getSrc(), streamId, t.toString(),
+                      info.getRedirectOrigin().getSrc());
+                redirectCache.invalidate(info);
+            } else {
+                LOGGER.warn("Connection to {} failed after {} bytes, stream {}: {}; "
+                            + "resuming transfer ({} of {}).",
+                      info.getSrc(), writeOffset, streamId, t.toString(),
+                      resumes + 1, maxResumes);
+            }
+            if (writeHandler.resume(this)) {
+                return;
+            }
+            synchronized (this) {
+                isResumeRequested = false;
+            }
+        }
+
         writeHandler.fireDelayedSync(errno, error);
     }
 
@@ -580,6 +773,14 @@ public class XrootdTpcClient {
         this.expectedRequestId = expectedRequestId;
     }
 
+    /**
+     * @param maxResumes number of times a transfer may be resumed after
+     *                   the connection to the source failed.
+     */
+    public void setMaxResumes(int maxResumes) {
+        this.maxResumes = maxResumes;
+    }
+
     public void setFhandle(int fhandle) {
         this.fhandle = fhandle;
     }
@@ -600,6 +801,10 @@ public class XrootdTpcClient {
         this.pval = pval;
     }
 
+    public void setRedirectCache(TpcRedirectCache redirectCache) {
+        this.redirectCache = redirectCache;
+    }
+
     public void setResponseTimeout(long responseTimeout) {
         this.responseTimeout = responseTimeout;
     }
@@ -608,6 +813,10 @@ public class XrootdTpcClient {
         this.sessionId = sessionId;
     }
 
+    public void setSessionPool(TpcSessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
     public void setSigningPolicy(SigningPolicy signingPolicy) {
         this.signingPolicy = signingPolicy;
     }
@@ -616,6 +825,18 @@ public class XrootdTpcClient {
         this.tlsSessionInfo = tlsSessionInfo;
     }
 
+    public void setTransferSlot(TpcTransferScheduler.Slot transferSlot) {
+        this.transferSlot = transferSlot;
+    }
+
+    /**
+     * @param factory creating the handler to place next to the socket
+     *                on connections to the source, or null for none.
+     */
+    public void setTransportHandlerFactory(ChannelHandlerFactory factory) {
+        this.transportHandlerFactory = factory;
+    }
+
     public void setWriteOffset(long writeOffset) {
         this.writeOffset = writeOffset;
     }
@@ -667,6 +888,8 @@ public class XrootdTpcClient {
               .append(errno)
               .append(")(error ")
               .append(error)
+              .append(")(resumes ")
+              .append(resumes)
               .append(")(redirects ")
               .append(redirects)
               .append(")(last redirect ")
@@ -684,14 +907,13 @@ public class XrootdTpcClient {
     private void injectHandlers(ChannelPipeline pipeline,
           List<ChannelHandlerFactory> plugins,
           TpcSourceReadHandler readHandler) {
+        if (transportHandlerFactory != null) {
+            pipeline.addLast(transportHandlerFactory.getName(),
+                  transportHandlerFactory.createHandler());
+        }
         pipeline.addLast("decoder", new XrootdClientDecoder(this));
         pipeline.addLast("encoder", new XrootdClientEncoder(this));
-
-        AbstractClientRequestHandler handler = new TpcClientConnectHandler();
-        handler.setClient(this);
-        pipeline.addLast("connect", handler);
-        readHandler.setClient(this);
-        pipeline.addLast("read", readHandler);
+        addRequestHandlers(pipeline, readHandler);
 
         /*
          *  These are deferred until loaded in the order specified by the server
@@ -706,6 +928,95 @@ public class XrootdTpcClient {
         }
     }
 
+    private void addRequestHandlers(ChannelPipeline pipeline,
+          TpcSourceReadHandler readHandler) {
+        AbstractClientRequestHandler handler = new TpcClientConnectHandler();
+        handler.setClient(this);
+        pipeline.addLast("connect", handler);
+        readHandler.setClient(this);
+        pipeline.addLast("read", readHandler);
+    }
+
+    /*
+     *  Leaves the TLS and signed hash handlers in place, as they belong to
+     *  the session rather than to the client.
+     */
+    private void detach(ChannelPipeline pipeline) {
+        pipeline.replace("decoder", "decoder",
+              new TpcSessionPool.IdleSessionHandler());
+        pipeline.remove("connect");
+        pipeline.remove("read");
+        for (String name : authnHandlers.keySet()) {
+            if (pipeline.get(name) != null) {
+                pipeline.remove(name);
+            }
+        }
+    }
+
+    private void resume(TpcSessionPool.Session session,
+          TpcSourceReadHandler readHandler) {
+        Channel channel = session.channel;
+        channelFuture = channel.newSucceededFuture();
+        sessionId = session.sessionId;
+        signingPolicy = session.signingPolicy;
+        tlsSessionInfo = session.tlsSessionInfo;
+        protocolInfo = session.protocolInfo;
+        pval = session.pval;
+        flag = session.flag;
+
+        ChannelPipeline pipeline = channel.pipeline();
+        pipeline.replace("decoder", "decoder", new XrootdClientDecoder(this));
+        pipeline.replace("encoder", "encoder", new XrootdClientEncoder(this));
+        addRequestHandlers(pipeline, readHandler);
+
+        isRunning = true;
+
+        notifyAll();
+
+        LOGGER.info("Third-party client started for {}, channel {}, stream {}, "
+                    + "reusing session {}.",
+              info.getSrc(), channel.id(), streamId, sessionId);
+
+        readHandler.sendOpenRequest(pipeline.context(readHandler));
+    }
+
+    private synchronized boolean isResumeRequested() {
+        return isResumeRequested;
+    }
+
+    /*
+     *  Going to a data server found in the redirect cache, any failure
+     *  before data has been written falls back to the original source.
+     */
+    private synchronized boolean isFallingBack() {
+        return redirectCache != null && info.getRedirectOrigin() != null
+              && writeOffset == 0;
+    }
+
+    /*
+     *  Otherwise, only failures of the connection are worth resuming from,
+     *  and only once some data has been written; errors reported by the
+     *  source or raised by the local write are not.
+     */
+    private synchronized boolean requestResume(Throwable t) {
+        if (isResumeRequested) {
+            return false;
+        }
+        if (!isFallingBack() && (resumes >= maxResumes || writeOffset == 0
+              || !(t instanceof IOException || t instanceof TimeoutException))) {
+            return false;
+        }
+        isResumeRequested = true;
+        return true;
+    }
+
+    private void releaseTransferSlot() {
+        if (transferSlot != null) {
+            transferSlot.release(writeOffset);
+            transferSlot = null;
+        }
+    }
+
     private void sendHandshakeRequest(ChannelHandlerContext ctx) {
         /*
          *  Create the client's tls session.
@@ -341,6 +341,12 @@ public class XrootdTpcInfo {
      */
     private Optional<String> sourceProtocol = Optional.empty();
 
+    /**
+     * The source originally requested, if this info was obtained from the
+     *    redirect cache.</p>
+     */
+    private XrootdTpcInfo redirectOrigin;
+
     public XrootdTpcInfo(String key) {
         this.key = key;
         this.createdTime = System.currentTimeMillis();
@@ -539,6 +545,35 @@ public class XrootdTpcInfo {
         return info;
     }
 
+    /**
+     * @return a copy for a client resuming the transfer from the same source,
+     *          which retains the size of the file computed so far.
+     */
+    public XrootdTpcInfo copyForResume() {
+        XrootdTpcInfo info = copy();
+        info.fileStatus = fileStatus;
+        info.fileSize = fileSize;
+        return info;
+    }
+
+    /**
+     * @return a copy for a client going directly to a data server the
+     *          source has previously redirected to.
+     */
+    XrootdTpcInfo copyForCachedRedirect(String host, int port,
+          Optional<String> protocol, String token) {
+        XrootdTpcInfo info = copy();
+        info.srcHost = host;
+        info.srcPort = port;
+        info.src = host + ":" + port;
+        if (protocol.isPresent()) {
+            info.sourceProtocol = protocol;
+        }
+        info.loginToken = token;
+        info.redirectOrigin = this;
+        return info;
+    }
+
     public boolean isTls() {
         return sourceProtocol.filter("xroots"::equals).isPresent();
     }
@@ -660,6 +695,10 @@ public class XrootdTpcInfo {
         return src;
     }
 
+    public XrootdTpcInfo getRedirectOrigin() {
+        return redirectOrigin;
+    }
+
     public String getSrcHost() {
         return srcHost;
     }
@@ -704,6 +743,32 @@ public class XrootdTpcInfo {
         this.status = status;
     }
 
+    private XrootdTpcInfo copy() {
+        XrootdTpcInfo info = new XrootdTpcInfo(key);
+        info.org = org;
+        info.dst = dst;
+        info.src = src;
+        info.srcHost = srcHost;
+        info.srcPort = srcPort;
+        info.sourceProtocol = sourceProtocol;
+        info.dlgon = dlgon;
+        info.lfn = lfn;
+        info.ttl = ttl;
+        info.asize = asize;
+        info.cks = cks;
+        info.fd = fd;
+        info.external = external;
+        info.loginToken = loginToken;
+        info.sourceToken = sourceToken;
+        info.delegatedProxy = delegatedProxy;
+        info.uid = uid;
+        info.gid = gid;
+        info.status = Status.READY;
+        info.calculateRoles();
+
+        return info;
+    }
+
     private void addExternal(Map<String, String> opaque) {
         Map<String, String> external = new HashMap<>();
         for (Entry<String, String> entry : opaque.entrySet()) {
@@ -28,9 +28,12 @@ import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_protocol;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_query;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_read;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_redirect;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_wait;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_waitresp;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -50,9 +53,12 @@ import org.dcache.xrootd.tpc.protocol.messages.InboundLoginResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundOpenReadOnlyResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundProtocolResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundReadResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundReadVResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundRedirectResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundStatResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundWaitRespResponse;
 import org.dcache.xrootd.tpc.protocol.messages.InboundWaitResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundWriteResponse;
 import org.dcache.xrootd.tpc.protocol.messages.XrootdInboundResponse;
 import org.dcache.xrootd.util.ParseException;
 import org.slf4j.Logger;
@@ -63,6 +69,10 @@ import org.slf4j.LoggerFactory;
  * {@link XrootdInboundResponse} objects.</p>.
  *
  * Intended to support third-party client requests to a source server.</p>
+ *
+ * The type of a response is the one expected by the client.  Subclasses
+ *    decoding responses to several outstanding requests may instead
+ *    determine it from the stream id of the frame.</p>
  */
 public class XrootdClientDecoder extends ByteToMessageDecoder {
 
@@ -77,6 +87,15 @@ public class XrootdClientDecoder extends ByteToMessageDecoder {
         sourceUrn = client.getInfo().getSrc();
     }
 
+    /**
+     * For subclasses not driven by a third-party client; these must
+     * override {@link #getExpectedResponse} and {@link #onError}.
+     */
+    protected XrootdClientDecoder(String sourceUrn) {
+        this.client = null;
+        this.sourceUrn = sourceUrn;
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx,
           ByteBuf in,
@@ -108,7 +127,7 @@ public class XrootdClientDecoder extends ByteToMessageDecoder {
         }
 
         ByteBuf frame = in.readSlice(length);
-        int requestId = client.getExpectedResponse();
+        int requestId = getExpectedResponse(frame);
 
         try {
             switch (frame.getUnsignedShort(2)) {
@@ -170,6 +189,21 @@ public class XrootdClientDecoder extends ByteToMessageDecoder {
                           sourceUrn, id);
                     out.add(new InboundReadResponse(frame));
                     break;
+                case kXR_readv:
+                    LOGGER.debug("Decoder {}, channel {}: adding readv response.",
+                          sourceUrn, id);
+                    out.add(new InboundReadVResponse(frame));
+                    break;
+                case kXR_write:
+                    LOGGER.debug("Decoder {}, channel {}: adding write response.",
+                          sourceUrn, id);
+                    out.add(new InboundWriteResponse(frame));
+                    break;
+                case kXR_stat:
+                    LOGGER.debug("Decoder {}, channel {}: adding stat response.",
+                          sourceUrn, id);
+                    out.add(new InboundStatResponse(frame));
+                    break;
                 case kXR_query:
                     LOGGER.debug("Decoder {}, channel {}: adding query response.",
                           sourceUrn, id);
@@ -196,8 +230,22 @@ public class XrootdClientDecoder extends ByteToMessageDecoder {
             LOGGER.error("Decoder {}, channel {}: error for request type {}: {}. "
                         + "Closing channel.",
                   requestId, id, e.getMessage());
-            client.setError(e);
-            client.shutDown(ctx);
+            onError(ctx, e);
         }
     }
+
+    /**
+     * Returns the type of request the frame responds to.
+     */
+    protected int getExpectedResponse(ByteBuf frame) {
+        return client.getExpectedResponse();
+    }
+
+    /**
+     * Called when a frame cannot be decoded.
+     */
+    protected void onError(ChannelHandlerContext ctx, Exception e) {
+        client.setError(e);
+        client.shutDown(ctx);
+    }
 }
@@ -36,6 +36,13 @@ public class XrootdClientEncoder extends ChannelOutboundHandlerAdapter {
         this.client = client;
     }
 
+    /**
+     * For clients other than the third-party client.
+     */
+    public XrootdClientEncoder() {
+        this(null);
+    }
+
     @Override
     public void write(ChannelHandlerContext ctx, Object msg,
           ChannelPromise promise)
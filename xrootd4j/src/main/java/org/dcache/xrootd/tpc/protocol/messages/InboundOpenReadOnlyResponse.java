@@ -37,10 +37,17 @@ public class InboundOpenReadOnlyResponse extends AbstractXrootdInboundResponse {
         super(buffer);
         resplen = buffer.getInt(4);
         fhandle = buffer.getInt(8);
-        cpsize = buffer.getInt(12);
-        cptype = buffer.getInt(16);
+
+        /* Without kXR_retstat, the response only carries the handle. */
+        if (resplen >= 12) {
+            cpsize = buffer.getInt(12);
+            cptype = buffer.getInt(16);
+        } else {
+            cpsize = 0;
+            cptype = 0;
+        }
         int len = resplen - 12;
-        if (resplen > 0) {
+        if (len > 0) {
             fileStatus = new FileStatus(buffer.toString(20,
                   len,
                   StandardCharsets.US_ASCII));
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.protocol.messages;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Response frame to a kXR_readv request.</p>
+ *
+ * Each segment of the frame is preceded by a header repeating the file
+ *    handle, length and offset of the segment.  A response may span
+ *    several frames, all but the last of which have status
+ *    kXR_oksofar.</p>
+ *
+ * Only the segment headers are retained, not the data.</p>
+ */
+public class InboundReadVResponse extends AbstractXrootdInboundResponse {
+
+    private static final int SEGMENT_HEADER_LEN = 16;
+
+    private final int dlen;
+    private final int[] lengths;
+    private final long[] offsets;
+
+    public InboundReadVResponse(ByteBuf buffer) {
+        super(buffer);
+        dlen = buffer.getInt(4);
+
+        int segments = 0;
+        for (int index = 8; index < 8 + dlen; segments++) {
+            index += SEGMENT_HEADER_LEN + buffer.getInt(index + 4);
+        }
+
+        lengths = new int[segments];
+        offsets = new long[segments];
+        int index = 8;
+        for (int i = 0; i < segments; i++) {
+            lengths[i] = buffer.getInt(index + 4);
+            offsets[i] = buffer.getLong(index + 8);
+            index += SEGMENT_HEADER_LEN + lengths[i];
+        }
+    }
+
+    public int getDlen() {
+        return dlen;
+    }
+
+    public int getSegmentCount() {
+        return lengths.length;
+    }
+
+    public int getSegmentLength(int i) {
+        return lengths[i];
+    }
+
+    public long getSegmentOffset(int i) {
+        return offsets[i];
+    }
+
+    @Override
+    public int getRequestId() {
+        return kXR_readv;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.protocol.messages;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.charset.StandardCharsets;
+import org.dcache.xrootd.util.FileStatus;
+
+/**
+ * Response to a kXR_stat request.</p>
+ */
+public class InboundStatResponse extends AbstractXrootdInboundResponse {
+
+    private final FileStatus fileStatus;
+
+    public InboundStatResponse(ByteBuf buffer) {
+        super(buffer);
+        int len = buffer.getInt(4);
+        if (len > 0) {
+            fileStatus = new FileStatus(buffer.toString(8, len,
+                  StandardCharsets.US_ASCII));
+        } else {
+            fileStatus = null;
+        }
+    }
+
+    public FileStatus getFileStatus() {
+        return fileStatus;
+    }
+
+    @Override
+    public int getRequestId() {
+        return kXR_stat;
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.protocol.messages;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ur;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_uw;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Client request to open a file with arbitrary options, e.g.
+ *    <code>kXR_open_updt | kXR_delete</code> to upload it.</p>
+ *
+ * For read-only opens of the third-party client, see
+ *    {@link OutboundOpenReadOnlyRequest}.</p>
+ */
+public class OutboundOpenRequest extends AbstractXrootdOutboundRequest {
+
+    private static final int RESERVED_LEN = 12;
+
+    private final String path;
+    private final int options;
+
+    public OutboundOpenRequest(int streamId, String path, int options) {
+        super(streamId, kXR_open);
+        this.path = path;
+        this.options = options;
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer) {
+        buffer.writeShort(kXR_ur | kXR_uw);
+        buffer.writeShort(options);
+        buffer.writeZero(RESERVED_LEN);
+        int len = path.length();
+        buffer.writeInt(len);
+        buffer.writeBytes(path.getBytes(US_ASCII));
+    }
+
+    @Override
+    protected int getParamsLen() {
+        return 8 + RESERVED_LEN + path.length();
+    }
+}
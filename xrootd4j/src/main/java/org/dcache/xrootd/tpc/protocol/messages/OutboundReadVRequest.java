@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.protocol.messages;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Client request to read several segments of an open file.</p>
+ *
+ * The read list consists of a file handle, a length and an offset
+ *    per segment.</p>
+ */
+public class OutboundReadVRequest extends AbstractXrootdOutboundRequest {
+
+    private static final int READ_LIST_ENTRY_LEN = 16;
+
+    private final int fhandle;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    public OutboundReadVRequest(int streamId, int fhandle, long[] offsets, int[] lengths) {
+        super(streamId, kXR_readv);
+        checkArgument(offsets.length == lengths.length,
+              "number of offsets and lengths differ");
+        this.fhandle = fhandle;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer) {
+        /*
+         * pathid and reserved
+         */
+        buffer.writeZero(16);
+        buffer.writeInt(offsets.length * READ_LIST_ENTRY_LEN);
+        for (int i = 0; i < offsets.length; i++) {
+            buffer.writeInt(fhandle);
+            buffer.writeInt(lengths[i]);
+            buffer.writeLong(offsets[i]);
+        }
+    }
+
+    @Override
+    protected int getParamsLen() {
+        return 20 + offsets.length * READ_LIST_ENTRY_LEN;
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.protocol.messages;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Client request for the status of a file given by its path.</p>
+ */
+public class OutboundStatRequest extends AbstractXrootdOutboundRequest {
+
+    private static final int RESERVED_LEN = 15;
+
+    private final String path;
+
+    public OutboundStatRequest(int streamId, String path) {
+        super(streamId, kXR_stat);
+        this.path = path;
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer) {
+        /*
+         * options, reserved and fhandle
+         */
+        buffer.writeByte(0);
+        buffer.writeZero(RESERVED_LEN);
+        int len = path.length();
+        buffer.writeInt(len);
+        buffer.writeBytes(path.getBytes(US_ASCII));
+    }
+
+    @Override
+    protected int getParamsLen() {
+        return 20 + path.length();
+    }
+}
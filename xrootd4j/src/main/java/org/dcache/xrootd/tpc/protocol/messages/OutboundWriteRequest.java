@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.protocol.messages;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Client request to write data to an open file.</p>
+ *
+ * The request takes ownership of the data, which is released once
+ *    written to the channel.</p>
+ */
+public class OutboundWriteRequest extends AbstractXrootdOutboundRequest {
+
+    private final int fhandle;
+    private final long offset;
+    private final ByteBuf data;
+
+    public OutboundWriteRequest(int streamId, int fhandle, long offset, ByteBuf data) {
+        super(streamId, kXR_write);
+        this.fhandle = fhandle;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    @Override
+    public void writeTo(ChannelHandlerContext ctx, ChannelPromise promise) {
+        ByteBuf header = ctx.alloc().buffer(4 + getParamsLen());
+        try {
+            writeToBuffer(header);
+        } catch (Error | RuntimeException t) {
+            promise.setFailure(t);
+            header.release();
+            data.release();
+            return;
+        }
+        ctx.write(ctx.alloc().compositeBuffer(2).addComponents(true, header, data), promise);
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer) {
+        buffer.writeInt(fhandle);
+        buffer.writeLong(offset);
+        /*
+         * pathid and reserved
+         */
+        buffer.writeInt(0);
+        buffer.writeInt(data.readableBytes());
+    }
+
+    @Override
+    protected int getParamsLen() {
+        return 20;
+    }
+}
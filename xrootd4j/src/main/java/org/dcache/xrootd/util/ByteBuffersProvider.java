@@ -19,7 +19,9 @@ package org.dcache.xrootd.util;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufAllocatorMetricProvider;
 import io.netty.util.ReferenceCounted;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Locale;
 import org.slf4j.Logger;
 
@@ -70,4 +72,25 @@ public interface ByteBuffersProvider extends ReferenceCounted {
      *          written bytes.
      */
     long getWriteOffset();
+
+    /**
+     * Writes the buffers to the channel starting at {@link #getWriteOffset()}.
+     *
+     * Uses positional writes, i.e. neither depends on nor modifies the
+     * position of the channel, so that concurrent writes to different
+     * regions of the same channel do not interfere.  Loops until all
+     * bytes have been written.
+     *
+     * @return the number of bytes written
+     */
+    default long writeTo(FileChannel channel) throws IOException {
+        long position = getWriteOffset();
+        long start = position;
+        for (ByteBuffer buffer : toByteBuffers()) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        return position - start;
+    }
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import io.netty.channel.unix.FileDescriptor;
+import java.lang.reflect.Field;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes the descriptor of an open file to the native transport, e.g. for
+ * splicing.
+ *
+ * The JDK does not publish the numeric descriptor, so it is read reflectively;
+ * where the runtime denies access, no descriptor is available and callers fall
+ * back to regular I/O.
+ */
+public final class NativeFileDescriptors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NativeFileDescriptors.class);
+
+    private static final Field FD = findField();
+
+    private NativeFileDescriptors() {
+    }
+
+    private static Field findField() {
+        try {
+            Field field = java.io.FileDescriptor.class.getDeclaredField("fd");
+            field.setAccessible(true);
+            return field;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug("Native file descriptors are not accessible: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Returns a native view of {@code fd}.  The view shares the descriptor
+     * and must not be closed; it becomes invalid once the file is closed.
+     */
+    public static Optional<FileDescriptor> of(java.io.FileDescriptor fd) {
+        if (FD == null || !fd.valid()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new FileDescriptor(FD.getInt(fd)));
+        } catch (IllegalAccessException e) {
+            return Optional.empty();
+        }
+    }
+}
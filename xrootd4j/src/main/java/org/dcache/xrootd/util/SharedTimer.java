@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single hashed wheel timer shared by all protocol timeouts.
+ *
+ * Timeouts are armed and cancelled in constant time, which makes the timer
+ * suitable for deadlines that are set for every request and almost always
+ * cancelled before they expire.  The price is a resolution of
+ * {@value #TICK_MILLIS} ms.
+ *
+ * Expired tasks run on the single timer thread unless an executor is given.
+ * Tasks run on that thread must be short and must not block.
+ */
+public final class SharedTimer {
+
+    public static final long TICK_MILLIS = 100;
+
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+          new DefaultThreadFactory("xrootd-timer", true),
+          TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+    private SharedTimer() {
+    }
+
+    /**
+     * Runs the task on the timer thread once the delay has elapsed.
+     */
+    public static Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.newTimeout(t -> task.run(), delay, unit);
+    }
+
+    /**
+     * Submits the task to the executor once the delay has elapsed.
+     */
+    public static Timeout schedule(Executor executor, Runnable task, long delay,
+          TimeUnit unit) {
+        return TIMER.newTimeout(t -> executor.execute(task), delay, unit);
+    }
+}
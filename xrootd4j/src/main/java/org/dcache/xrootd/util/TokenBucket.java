@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import static com.google.common.math.LongMath.saturatedAdd;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A token bucket for rate limiting byte streams.
+ *
+ * The bucket is filled at {@code rate} bytes per second up to a capacity of
+ * {@code rate / 10} bytes (100 ms worth of traffic).  Reservations are
+ * always granted but may drive the bucket into debt; the caller is told for
+ * how long it has to back off before the reserved bytes are covered.  Since
+ * later reservations queue behind the debt of earlier ones, streams sharing
+ * a bucket are served in order of their reservations.
+ *
+ * The rate may be changed at any time.  A rate of zero or less disables
+ * the limit.
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = SECONDS.toNanos(1);
+
+    private long rate;
+    private long tokens;
+    private long lastRefill;
+
+    public TokenBucket(long rate) {
+        this.rate = rate;
+        this.tokens = capacity(rate);
+        this.lastRefill = System.nanoTime();
+    }
+
+    private static long capacity(long rate) {
+        return Math.max(rate / 10, 1);
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized void setRate(long rate) {
+        refill(System.nanoTime());
+        this.rate = rate;
+        tokens = Math.min(tokens, capacity(rate));
+    }
+
+    private void refill(long now) {
+        if (rate > 0) {
+            long added = (long) ((now - lastRefill) * (double) rate / NANOS_PER_SECOND);
+            if (added > 0) {
+                tokens = Math.min(capacity(rate), saturatedAdd(tokens, added));
+                lastRefill = now;
+            }
+        } else {
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * Reserves {@code bytes} from the bucket.
+     *
+     * @return the number of nanoseconds the caller should wait before
+     * sending or receiving more data; zero if the bucket is not in debt.
+     */
+    public synchronized long reserve(long bytes) {
+        if (rate <= 0) {
+            return 0;
+        }
+        refill(System.nanoTime());
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * (double) NANOS_PER_SECOND / rate);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.checksum;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+
+public class ChecksumCombinerTest {
+
+    private static final byte[] DATA = new byte[100_003];
+
+    static {
+        new Random(42).nextBytes(DATA);
+    }
+
+    private static long valueOf(ChecksumType type, byte[] data, int from, int to) {
+        return type.toValue(type.getHashFunction().hashBytes(data, from, to - from));
+    }
+
+    @Test
+    public void shouldCombineAdler32() {
+        assertCombines(ChecksumType.ADLER32, 12_345);
+    }
+
+    @Test
+    public void shouldCombineCrc32c() {
+        assertCombines(ChecksumType.CRC32C, 12_345);
+    }
+
+    @Test
+    public void shouldCombineWithEmptySecondPart() {
+        assertCombines(ChecksumType.CRC32C, DATA.length);
+        assertCombines(ChecksumType.ADLER32, DATA.length);
+    }
+
+    @Test
+    public void shouldFormatAdler32AsBigEndianHex() {
+        byte[] data = "Wikipedia".getBytes();
+        assertThat(ChecksumType.ADLER32.format(
+              ChecksumType.ADLER32.getHashFunction().hashBytes(data)), is(equalTo("11e60398")));
+    }
+
+    @Test
+    public void shouldComputeSameChecksumInParallelChunks() throws IOException {
+        Path file = Files.createTempFile("checksum", ".dat");
+        try {
+            Files.write(file, DATA);
+            ChecksumCalculator chunked = new ChecksumCalculator(new ForkJoinPool(4), 4096);
+            for (ChecksumType type : ChecksumType.values()) {
+                assertThat(chunked.compute(file, type),
+                      is(equalTo(type.format(type.getHashFunction().hashBytes(DATA)))));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void shouldListSupportedTypesForCsname() {
+        assertThat(ChecksumType.toCsname(), is(equalTo("1:ADLER32,2:CRC32C,3:MD5")));
+    }
+
+    private void assertCombines(ChecksumType type, int split) {
+        long first = valueOf(type, DATA, 0, split);
+        long second = valueOf(type, Arrays.copyOfRange(DATA, split, DATA.length), 0,
+              DATA.length - split);
+        assertThat(type.combine(first, second, DATA.length - split),
+              is(equalTo(valueOf(type, DATA, 0, DATA.length))));
+    }
+}
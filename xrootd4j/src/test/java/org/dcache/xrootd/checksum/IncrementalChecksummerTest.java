@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.checksum;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalChecksummerTest {
+
+    private static final byte[] DATA = new byte[65_537];
+
+    static {
+        new Random(7).nextBytes(DATA);
+    }
+
+    private IncrementalChecksummer checksummer;
+
+    @Before
+    public void setUp() {
+        checksummer = new IncrementalChecksummer(
+              EnumSet.of(ChecksumType.ADLER32, ChecksumType.CRC32C));
+    }
+
+    private void update(int from, int to) {
+        checksummer.update(from, ByteBuffer.wrap(DATA, from, to - from));
+    }
+
+    private static Optional<String> expected(ChecksumType type) {
+        return Optional.of(type.format(type.getHashFunction().hashBytes(DATA)));
+    }
+
+    @Test
+    public void shouldComputeChecksumOfSequentialWrites() {
+        for (int offset = 0; offset < DATA.length; offset += 4096) {
+            update(offset, Math.min(offset + 4096, DATA.length));
+        }
+
+        assertThat(checksummer.getValue(ChecksumType.ADLER32, DATA.length),
+              is(equalTo(expected(ChecksumType.ADLER32))));
+        assertThat(checksummer.getValue(ChecksumType.CRC32C, DATA.length),
+              is(equalTo(expected(ChecksumType.CRC32C))));
+    }
+
+    @Test
+    public void shouldCombineOutOfOrderWrites() {
+        update(40_000, DATA.length);
+        update(0, 10_000);
+        update(20_000, 40_000);
+        update(10_000, 20_000);
+
+        assertThat(checksummer.getValue(ChecksumType.ADLER32, DATA.length),
+              is(equalTo(expected(ChecksumType.ADLER32))));
+        assertThat(checksummer.getValue(ChecksumType.CRC32C, DATA.length),
+              is(equalTo(expected(ChecksumType.CRC32C))));
+    }
+
+    @Test
+    public void shouldNotProvideChecksumWithGap() {
+        update(0, 10_000);
+        update(20_000, DATA.length);
+
+        assertThat(checksummer.getValue(ChecksumType.ADLER32, DATA.length),
+              is(equalTo(Optional.empty())));
+    }
+
+    @Test
+    public void shouldGiveUpOnOverlappingWrites() {
+        update(0, 20_000);
+        update(10_000, DATA.length);
+
+        assertThat(checksummer.isValid(), is(false));
+        assertThat(checksummer.getValue(ChecksumType.ADLER32, DATA.length),
+              is(equalTo(Optional.empty())));
+    }
+
+    @Test
+    public void shouldProvideChecksumOfEmptyFile() {
+        assertThat(checksummer.getValue(ChecksumType.ADLER32, 0),
+              is(equalTo(Optional.of("00000001"))));
+    }
+}
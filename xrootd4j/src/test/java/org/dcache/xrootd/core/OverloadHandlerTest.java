@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_Overloaded;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_read;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.OkResponse;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.WaitRetryResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OverloadHandlerTest {
+
+    private OverloadController _controller;
+    private EmbeddedChannel _channel;
+
+    @Before
+    public void setUp() {
+        _controller = new OverloadController();
+        _channel = new EmbeddedChannel(new OverloadHandler(_controller));
+    }
+
+    private static ReadRequest readRequest(int streamId, int length) {
+        ByteBuf buffer = Unpooled.buffer(24);
+        buffer.writeShort(streamId);
+        buffer.writeShort(kXR_read);
+        buffer.writeInt(0);
+        buffer.writeLong(0);
+        buffer.writeInt(length);
+        buffer.writeInt(0);
+        return new ReadRequest(buffer);
+    }
+
+    @Test
+    public void shouldDeferRequestsBeyondConcurrencyLimit() {
+        _controller.setMaxConcurrency("read", 1);
+        ReadRequest first = readRequest(1, 100);
+
+        _channel.writeInbound(first);
+        _channel.writeInbound(readRequest(2, 100));
+
+        assertThat(_channel.readInbound(), is(first));
+        assertThat(_channel.readOutbound(), is(instanceOf(WaitRetryResponse.class)));
+
+        _channel.writeOutbound(new OkResponse<>(first));
+        _channel.readOutbound();
+        ReadRequest third = readRequest(3, 100);
+        _channel.writeInbound(third);
+
+        assertThat(_channel.readInbound(), is(third));
+        assertThat(_controller.getDeferredCounts().get("read"), is(1L));
+        assertThat(_controller.getConcurrencies().get("read"), is(1));
+    }
+
+    @Test
+    public void shouldAdmitRequestBeyondInFlightLimitWhenIdle() {
+        _controller.setMaxInFlightBytes(100);
+        ReadRequest request = readRequest(1, 1000);
+
+        _channel.writeInbound(request);
+
+        assertThat(_channel.readInbound(), is(request));
+        assertThat(_controller.getInFlightBytes(), is(1000L));
+    }
+
+    @Test
+    public void shouldRejectRequestsFarBeyondInFlightLimit() {
+        _controller.setMaxInFlightBytes(100);
+        _channel.writeInbound(readRequest(1, 1000));
+        _channel.readInbound();
+
+        _channel.writeInbound(readRequest(2, 1000));
+
+        Object response = _channel.readOutbound();
+        assertThat(response, is(instanceOf(ErrorResponse.class)));
+        assertThat(((ErrorResponse<?>) response).getErrorNumber(), is(kXR_Overloaded));
+        assertThat(_controller.getRejectedCounts().get("read"), is(1L));
+    }
+
+    @Test
+    public void shouldReleaseInFlightBytesWhenChannelCloses() {
+        _controller.setMaxInFlightBytes(1000);
+        _channel.writeInbound(readRequest(1, 500));
+
+        assertThat(_controller.getInFlightBytes(), is(500L));
+
+        _channel.close();
+
+        assertThat(_controller.getInFlightBytes(), is(0L));
+    }
+}
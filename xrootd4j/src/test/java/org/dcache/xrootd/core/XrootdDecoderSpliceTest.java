@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_IOError;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sync;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.unix.FileDescriptor;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.protocol.messages.SyncRequest;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.dcache.xrootd.util.NativeFileDescriptors;
+import org.dcache.xrootd.util.SharedTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XrootdDecoderSpliceTest {
+
+    private final BlockingQueue<Object> _received = new LinkedBlockingQueue<>();
+    private EventLoopGroup _group;
+    private Channel _server;
+    private File _file;
+    private RandomAccessFile _raf;
+    private FileDescriptor _fd;
+    private final byte[] _payload = new byte[256 * 1024];
+    private boolean _splice;
+    private XrootdRequestHandler _handler;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Epoll.isAvailable());
+        new Random(42).nextBytes(_payload);
+        _file = File.createTempFile("splice", ".dat");
+        _raf = new RandomAccessFile(_file, "rw");
+        _fd = NativeFileDescriptors.of(_raf.getFD()).orElse(null);
+        assumeTrue(_fd != null);
+
+        _group = new EpollEventLoopGroup(1);
+        _server = new ServerBootstrap()
+              .group(_group)
+              .channel(EpollServerSocketChannel.class)
+              .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.LEVEL_TRIGGERED)
+              .childHandler(new ChannelInitializer<Channel>() {
+                  @Override
+                  protected void initChannel(Channel ch) {
+                      XrootdDecoder decoder = new XrootdDecoder();
+                      decoder.setSpliceThreshold(1);
+                      if (_handler == null) {
+                          ch.pipeline().addLast(decoder, new FileWriter());
+                      } else {
+                          ch.pipeline().addLast(decoder, new XrootdEncoder(), _handler);
+                      }
+                  }
+              })
+              .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (_group != null) {
+            _server.close().sync();
+            _group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        }
+        if (_raf != null) {
+            _raf.close();
+            Files.delete(_file.toPath());
+        }
+    }
+
+    private class FileWriter extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws IOException {
+            if (msg instanceof WriteRequest) {
+                WriteRequest request = (WriteRequest) msg;
+                try {
+                    request.writeTo(_raf.getChannel());
+                    if (_splice) {
+                        request.spliceRemainderTo(_fd).ifPresent(
+                              future -> future.addListener(f -> _received.add(f.isSuccess())));
+                    }
+                } finally {
+                    request.release();
+                }
+            }
+            _received.add(msg);
+        }
+    }
+
+    /**
+     * Sends a kXR_write whose payload arrives in two parts, followed by a
+     * kXR_sync, and returns everything received by the server up to the
+     * kXR_sync.
+     */
+    private List<Object> sendWriteAndSync() throws Exception {
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.putShort((short) 1).putShort((short) kXR_write).putInt(0).putLong(0)
+              .putInt(0).putInt(_payload.length);
+        ByteBuffer sync = ByteBuffer.allocate(24);
+        sync.putShort((short) 2).putShort((short) kXR_sync);
+
+        List<Object> received = new ArrayList<>();
+        try (Socket socket = new Socket("127.0.0.1",
+              ((InetSocketAddress) _server.localAddress()).getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(header.array());
+            out.write(_payload, 0, 1000);
+            out.flush();
+            Thread.sleep(100);
+            out.write(_payload, 1000, _payload.length - 1000);
+            out.write(sync.array());
+            out.flush();
+            Object msg;
+            do {
+                msg = _received.poll(5, TimeUnit.SECONDS);
+                assertThat(msg, is(notNullValue()));
+                received.add(msg);
+            } while (!(msg instanceof SyncRequest));
+        }
+        return received;
+    }
+
+    @Test
+    public void shouldSpliceRemainderIntoFile() throws Exception {
+        _splice = true;
+
+        List<Object> received = sendWriteAndSync();
+
+        assertThat(Files.readAllBytes(_file.toPath()), is(_payload));
+        assertThat(received.size(), is(3));
+        WriteRequest write = (WriteRequest) received.get(0);
+        assertThat(write.getDataLength(), is(1000));
+        assertThat(write.isComplete(), is(true));
+        assertThat(received.get(1), is((Object) true));
+    }
+
+    @Test
+    public void shouldRespondToSpliceOutlastingRequestDeadline() throws Exception {
+        _handler = new XrootdRequestHandler() {
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) {
+                ctx.fireChannelActive();
+            }
+
+            @Override
+            protected Object doOnWrite(ChannelHandlerContext ctx, WriteRequest msg)
+                  throws XrootdException {
+                try {
+                    msg.writeTo(_raf.getChannel());
+                } catch (IOException e) {
+                    throw new XrootdException(kXR_IOError, e.getMessage());
+                }
+                CompletableFuture<Object> response = new CompletableFuture<>();
+                msg.spliceRemainderTo(_fd).get().addListener(f -> response.complete(withOk(msg)));
+                return DeferredResponse.of(response).withoutDeadline();
+            }
+        };
+        _handler.setRequestDeadline(1);
+
+        ByteBuffer header = ByteBuffer.allocate(24);
+        header.putShort((short) 1).putShort((short) kXR_write).putInt(0).putLong(0)
+              .putInt(0).putInt(_payload.length);
+        try (Socket socket = new Socket("127.0.0.1",
+              ((InetSocketAddress) _server.localAddress()).getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(header.array());
+            out.write(_payload, 0, 1000);
+            out.flush();
+            /* Longer than the deadline and the resolution of the timer. */
+            Thread.sleep(3 * SharedTimer.TICK_MILLIS);
+            out.write(_payload, 1000, _payload.length - 1000);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            assertThat(in.readUnsignedShort(), is(1));
+            assertThat(in.readUnsignedShort(), is(kXR_ok));
+        }
+        assertThat(Files.readAllBytes(_file.toPath()), is(_payload));
+    }
+
+    @Test
+    public void shouldDecodeRemainderWhenNotSpliced() throws Exception {
+        List<Object> received = sendWriteAndSync();
+
+        assertThat(Files.readAllBytes(_file.toPath()), is(_payload));
+        WriteRequest first = (WriteRequest) received.get(0);
+        assertThat(first.getDataLength(), is(1000));
+        assertThat(first.isSpliceable(), is(true));
+        assertThat(first.isComplete(), is(false));
+        WriteRequest last = (WriteRequest) received.get(received.size() - 2);
+        assertThat(last.isComplete(), is(true));
+    }
+}
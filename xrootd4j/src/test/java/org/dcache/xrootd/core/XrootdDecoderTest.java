@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sync;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.dcache.xrootd.protocol.messages.SyncRequest;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XrootdDecoderTest {
+
+    private XrootdDecoder _decoder;
+    private EmbeddedChannel _channel;
+
+    @Before
+    public void setUp() {
+        _decoder = new XrootdDecoder();
+        _channel = new EmbeddedChannel(_decoder);
+    }
+
+    private static ByteBuf header(int requestId, long offset, int length) {
+        ByteBuf buffer = Unpooled.buffer(24);
+        buffer.writeShort(1);
+        buffer.writeShort(requestId);
+        buffer.writeInt(0);
+        buffer.writeLong(offset);
+        buffer.writeInt(0);
+        buffer.writeInt(length);
+        return buffer;
+    }
+
+    private static ByteBuf payload(int length) {
+        return Unpooled.wrappedBuffer(new byte[length]);
+    }
+
+    private WriteRequest readWrite() {
+        WriteRequest request = _channel.readInbound();
+        request.release();
+        return request;
+    }
+
+    @Test
+    public void shouldAccumulateWritePayloadByDefault() {
+        _channel.writeInbound(Unpooled.wrappedBuffer(header(kXR_write, 0, 3000), payload(1000)));
+        _channel.writeInbound(payload(2000));
+
+        WriteRequest request = readWrite();
+        assertThat(request.getDataLength(), is(3000));
+        assertThat(request.isComplete(), is(true));
+    }
+
+    @Test
+    public void shouldStreamWritePayloadInSegments() {
+        _decoder.setMinWriteSegmentSize(1000);
+
+        _channel.writeInbound(Unpooled.wrappedBuffer(header(kXR_write, 100, 5000), payload(500)));
+        assertThat(_channel.readInbound(), is(nullValue()));
+
+        _channel.writeInbound(payload(1000));
+        WriteRequest first = readWrite();
+        assertThat(first.getWriteOffset(), is(100L));
+        assertThat(first.getDataLength(), is(1500));
+        assertThat(first.isComplete(), is(false));
+
+        _channel.writeInbound(payload(2500));
+        WriteRequest second = readWrite();
+        assertThat(second.getWriteOffset(), is(1600L));
+        assertThat(second.getDataLength(), is(2500));
+        assertThat(second.isComplete(), is(false));
+
+        _channel.writeInbound(Unpooled.wrappedBuffer(payload(1000), header(kXR_sync, 0, 0)));
+        WriteRequest last = readWrite();
+        assertThat(last.getWriteOffset(), is(4100L));
+        assertThat(last.getDataLength(), is(1000));
+        assertThat(last.isComplete(), is(true));
+        assertThat(_channel.readInbound(), is(instanceOf(SyncRequest.class)));
+    }
+
+    @Test
+    public void shouldLimitStreamedSegmentsToMaxWriteBufferSize() {
+        _decoder.setMinWriteSegmentSize(100);
+        _decoder.setMaxWriteBufferSize(1000);
+
+        _channel.writeInbound(Unpooled.wrappedBuffer(header(kXR_write, 0, 2500), payload(2500)));
+
+        assertThat(readWrite().getDataLength(), is(1000));
+        assertThat(readWrite().getDataLength(), is(1000));
+        WriteRequest last = readWrite();
+        assertThat(last.getDataLength(), is(500));
+        assertThat(last.isComplete(), is(true));
+    }
+}
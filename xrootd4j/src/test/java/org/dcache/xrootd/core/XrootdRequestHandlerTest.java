@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_IOError;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ServerError;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_close;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sync;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.protocol.messages.AsyncResponse;
+import org.dcache.xrootd.protocol.messages.AwaitAsyncResponse;
+import org.dcache.xrootd.protocol.messages.CloseRequest;
+import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.OkResponse;
+import org.dcache.xrootd.protocol.messages.SyncRequest;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+import org.dcache.xrootd.stream.ChunkedResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XrootdRequestHandlerTest {
+
+    private static final int STREAM_ID = 42;
+
+    private CompletableFuture<Object> _future;
+    private Object _deferred;
+    private SyncRequest _request;
+    private int _flushes;
+    private XrootdRequestHandler _handler;
+    private EmbeddedChannel _channel;
+
+    @Before
+    public void setUp() {
+        _future = new CompletableFuture<>();
+        _handler = new XrootdRequestHandler() {
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) {
+                /* Embedded channels do not have socket addresses. */
+                ctx.fireChannelActive();
+            }
+
+            @Override
+            protected Object doOnSync(ChannelHandlerContext ctx, SyncRequest msg) {
+                _request = msg;
+                return _deferred == null ? _future : _deferred;
+            }
+
+            @Override
+            protected Object doOnClose(ChannelHandlerContext ctx, CloseRequest msg) {
+                return withOk(msg);
+            }
+        };
+        _channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void flush(ChannelHandlerContext ctx) {
+                _flushes++;
+                ctx.flush();
+            }
+        }, _handler);
+    }
+
+    private static CloseRequest closeRequest(int streamId) {
+        ByteBuf buffer = Unpooled.buffer(24);
+        buffer.writeShort(streamId);
+        buffer.writeShort(kXR_close);
+        buffer.writeZero(20);
+        return new CloseRequest(buffer);
+    }
+
+    private static SyncRequest syncRequest() {
+        ByteBuf buffer = Unpooled.buffer(24);
+        buffer.writeShort(STREAM_ID);
+        buffer.writeShort(kXR_sync);
+        buffer.writeZero(20);
+        return new SyncRequest(buffer);
+    }
+
+    @Test
+    public void shouldRespondDirectlyWhenCompletedBeforeThreshold() {
+        _channel.writeInbound(syncRequest());
+        _future.complete(new OkResponse<>(_request));
+        _channel.runPendingTasks();
+
+        Object response = _channel.readOutbound();
+        assertThat(response, is(instanceOf(OkResponse.class)));
+        assertThat(_channel.readOutbound(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldSendWaitRespAndAsyncResponseAfterThreshold() {
+        _handler.setAsyncResponseThreshold(0);
+        _channel.writeInbound(syncRequest());
+        _channel.runPendingTasks();
+
+        Object wait = _channel.readOutbound();
+        assertThat(wait, is(instanceOf(AwaitAsyncResponse.class)));
+
+        _future.complete(new OkResponse<>(_request));
+        _channel.runPendingTasks();
+
+        Object response = _channel.readOutbound();
+        assertThat(response, is(instanceOf(AsyncResponse.class)));
+        XrootdResponse<?> inner = ((AsyncResponse<?>) response).getResponse();
+        assertThat(inner, is(instanceOf(OkResponse.class)));
+        assertThat(inner.getRequest().getStreamId(), is(STREAM_ID));
+    }
+
+    @Test
+    public void shouldFlushPipelinedResponsesOnce() {
+        _flushes = 0;
+        _channel.writeInbound(closeRequest(1), closeRequest(2), closeRequest(3));
+
+        assertThat(_flushes, is(1));
+        for (int i = 0; i < 3; i++) {
+            assertThat(_channel.readOutbound(), is(instanceOf(OkResponse.class)));
+        }
+    }
+
+    @Test
+    public void shouldFlushImmediatelyWithoutThreshold() {
+        _handler.setFlushThreshold(0);
+        _flushes = 0;
+        _channel.writeInbound(closeRequest(1), closeRequest(2), closeRequest(3));
+
+        assertThat(_flushes, is(3));
+    }
+
+    @Test
+    public void shouldFlushResponseOfHandlerRemovedWhileReading() {
+        EmbeddedChannel channel = new EmbeddedChannel(new XrootdRequestHandler() {
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) {
+                ctx.fireChannelActive();
+            }
+
+            @Override
+            protected Object doOnClose(ChannelHandlerContext ctx, CloseRequest msg) {
+                ctx.pipeline().remove(this);
+                return withOk(msg);
+            }
+        });
+        channel.writeInbound(closeRequest(1));
+
+        assertThat(channel.readOutbound(), is(instanceOf(OkResponse.class)));
+    }
+
+    @Test
+    public void shouldFailDeferredResponseAfterDeadline() throws Exception {
+        _handler.setRequestDeadline(1);
+        _channel.writeInbound(syncRequest());
+
+        try {
+            _future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(XrootdException.class)));
+            assertThat(((XrootdException) e.getCause()).getError(), is(kXR_ServerError));
+            return;
+        }
+        fail("deferred response did not fail");
+    }
+
+    /*
+     * Models a read deferred behind a write-behind flush that takes longer
+     * than the async response threshold.
+     */
+    @Test
+    public void shouldNotSendWaitRespForChunkedResponse() {
+        _handler.setAsyncResponseThreshold(0);
+        _deferred = DeferredResponse.of(_future).withoutWaitResponse();
+        _channel.writeInbound(syncRequest());
+        _channel.runPendingTasks();
+
+        assertThat(_channel.readOutbound(), is(nullValue()));
+
+        ChunkedResponse chunked = mock(ChunkedResponse.class);
+        _future.complete(chunked);
+        _channel.runPendingTasks();
+
+        assertThat(_channel.readOutbound(), is(sameInstance(chunked)));
+        assertThat(_channel.readOutbound(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCancelDeferredResponseOnClose() {
+        _channel.writeInbound(syncRequest());
+        _channel.close();
+
+        assertThat(_future.isCancelled(), is(true));
+        assertThat(_channel.readOutbound(), is(nullValue()));
+    }
+
+    private static WriteRequest writeSegment(long offset, int remainder) {
+        return new WriteRequest(STREAM_ID, 1, offset, 10, Unpooled.buffer(10).writeZero(10),
+              remainder);
+    }
+
+    @Test
+    public void shouldDropRemainingSegmentsOfFailedWrite() {
+        List<Long> offsets = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new XrootdRequestHandler() {
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) {
+                ctx.fireChannelActive();
+            }
+
+            @Override
+            protected Object doOnWrite(ChannelHandlerContext ctx, WriteRequest msg)
+                  throws XrootdException {
+                offsets.add(msg.getWriteOffset());
+                if (msg.getWriteOffset() == 10) {
+                    throw new XrootdException(kXR_IOError, "disk full");
+                }
+                return withOk(msg);
+            }
+        });
+
+        WriteRequest last = writeSegment(30, 0);
+        channel.writeInbound(writeSegment(0, 30), writeSegment(10, 20), writeSegment(20, 10),
+              last);
+
+        assertThat(offsets.size(), is(2));
+        /* Suppressed by the encoder, as the first segment is incomplete. */
+        assertThat(channel.readOutbound(), is(instanceOf(OkResponse.class)));
+        assertThat(channel.readOutbound(), is(instanceOf(ErrorResponse.class)));
+        assertThat(channel.readOutbound(), is(nullValue()));
+        assertThat(last.refCnt(), is(0));
+
+        channel.writeInbound(writeSegment(0, 0));
+        assertThat(offsets.size(), is(3));
+        assertThat(channel.readOutbound(), is(instanceOf(OkResponse.class)));
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.protocol.messages;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteRequestTest {
+
+    private File _file;
+    private FileChannel _channel;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("write-request", ".dat");
+        _channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        _channel.close();
+        _file.delete();
+    }
+
+    @Test
+    public void shouldWriteAtOffsetWithoutMovingChannelPosition() throws IOException {
+        _channel.position(3);
+        WriteRequest request = new WriteRequest(1, 0, 10, 5,
+              Unpooled.copiedBuffer("hello", US_ASCII), 0);
+
+        long written = request.writeTo(_channel);
+
+        assertThat(written, is(equalTo(5L)));
+        assertThat(_channel.position(), is(equalTo(3L)));
+        assertThat(_channel.size(), is(equalTo(15L)));
+        ByteBuffer content = ByteBuffer.allocate(5);
+        _channel.read(content, 10);
+        assertThat(new String(content.array(), US_ASCII), is(equalTo("hello")));
+    }
+
+    @Test
+    public void shouldWriteSliceOfLargerBuffer() throws IOException {
+        WriteRequest request = new WriteRequest(1, 0, 0, 3,
+              Unpooled.copiedBuffer("headerabc", US_ASCII).slice(6, 3), 0);
+
+        request.writeTo(_channel);
+
+        ByteBuffer content = ByteBuffer.allocate(3);
+        _channel.read(content, 0);
+        assertThat(new String(content.array(), US_ASCII), is(equalTo("abc")));
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.dcache.xrootd.stream;
 
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
 import static org.hamcrest.Matchers.hasItems;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
@@ -24,17 +25,18 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Lists;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.Arrays;
 import java.util.List;
-import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage;
 import org.dcache.xrootd.protocol.messages.ReadVRequest;
 import org.dcache.xrootd.protocol.messages.ReadVResponse;
 import org.junit.Before;
@@ -49,16 +51,12 @@ public class ChunkedFileChannelReadvResponseTest {
     private static final int HEADER = 16;
 
     private List<FileChannel> _channels;
-    private GenericReadRequestMessage.EmbeddedReadRequest[] _requests;
-    private ReadVRequest _request;
+    private List<ReadRequestMaker> _segments;
 
     @Before
     public void setUp() {
         _channels = Lists.newArrayList();
-        _requests = new GenericReadRequestMessage.EmbeddedReadRequest[0];
-        _request = mock(ReadVRequest.class);
-        when(_request.getStreamId()).thenReturn(SOME_ID);
-        when(_request.getReadRequestList()).thenReturn(_requests);
+        _segments = Lists.newArrayList();
     }
 
     @Test
@@ -158,18 +156,43 @@ public class ChunkedFileChannelReadvResponseTest {
         ReadVResponse response1 = response.nextChunk(UnpooledByteBufAllocator.DEFAULT);
     }
 
+    @Test
+    public void shouldLookUpFileSizeOncePerRequest() throws Exception {
+        givenFileDescriptor().withFileHandle(SOME_FH).withSize(10000);
+        for (int i = 0; i < 100; i++) {
+            givenReadRequest().forFileHandle(SOME_FH).atOffset(100 * i).forLength(100);
+        }
+
+        AbstractChunkedReadvResponse response = aResponseWithMaxFrameSizeOf(1024);
+        while (!response.isEndOfInput()) {
+            response.nextChunk(UnpooledByteBufAllocator.DEFAULT).release();
+        }
+
+        verify(channel(SOME_FH), times(1)).size();
+    }
+
     private FileDescriptorMaker givenFileDescriptor() {
         return new FileDescriptorMaker();
     }
 
     private ReadRequestMaker givenReadRequest() {
-        int idx = _requests.length;
-        _requests = Arrays.copyOf(_requests, _requests.length + 1);
-        _requests[idx] = mock(GenericReadRequestMessage.EmbeddedReadRequest.class);
-        _request = mock(ReadVRequest.class);
-        when(_request.getStreamId()).thenReturn(SOME_ID);
-        when(_request.getReadRequestList()).thenReturn(_requests);
-        return new ReadRequestMaker(_requests[idx]);
+        ReadRequestMaker segment = new ReadRequestMaker();
+        _segments.add(segment);
+        return segment;
+    }
+
+    private ReadVRequest request() {
+        ByteBuf buffer = Unpooled.buffer(24 + 16 * _segments.size());
+        buffer.writeShort(SOME_ID);
+        buffer.writeShort(kXR_readv);
+        buffer.writeZero(16);
+        buffer.writeInt(16 * _segments.size());
+        for (ReadRequestMaker segment : _segments) {
+            buffer.writeInt(segment._fh);
+            buffer.writeInt(segment._length);
+            buffer.writeLong(segment._offset);
+        }
+        return new ReadVRequest(buffer);
     }
 
     private FileChannel channel(int fd) {
@@ -178,7 +201,7 @@ public class ChunkedFileChannelReadvResponseTest {
 
     private AbstractChunkedReadvResponse aResponseWithMaxFrameSizeOf(int maxFrameSize) {
         return new
-              ChunkedFileChannelReadvResponse(_request, maxFrameSize, _channels);
+              ChunkedFileChannelReadvResponse(request(), maxFrameSize, _channels);
     }
 
     /** A builder of FileDescriptor with a fluent interface. */
@@ -219,27 +242,25 @@ public class ChunkedFileChannelReadvResponseTest {
         }
     }
 
-    /** A builder of EmbeddedReadRequest with a fluent interface. */
+    /** A builder of read list segments with a fluent interface. */
     private static class ReadRequestMaker {
 
-        private final GenericReadRequestMessage.EmbeddedReadRequest _request;
-
-        private ReadRequestMaker(GenericReadRequestMessage.EmbeddedReadRequest request) {
-            _request = request;
-        }
+        private int _fh;
+        private int _length;
+        private long _offset;
 
         public ReadRequestMaker forFileHandle(int fh) {
-            when(_request.getFileHandle()).thenReturn(fh);
+            _fh = fh;
             return this;
         }
 
         public ReadRequestMaker forLength(int bytes) {
-            when(_request.BytesToRead()).thenReturn(bytes);
+            _length = bytes;
             return this;
         }
 
         public ReadRequestMaker atOffset(long position) {
-            when(_request.getOffset()).thenReturn(position);
+            _offset = position;
             return this;
         }
     }
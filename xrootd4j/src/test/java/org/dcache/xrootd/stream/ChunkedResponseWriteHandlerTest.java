@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChunkedResponseWriteHandlerTest {
+
+    private static final int CHUNK = 1024;
+
+    private ChunkedResponseWriteHandler _handler;
+    private EmbeddedChannel _channel;
+
+    @Before
+    public void setUp() {
+        _handler = new ChunkedResponseWriteHandler();
+        _handler.setQuantum(CHUNK);
+        _channel = new EmbeddedChannel(_handler);
+    }
+
+    @Test
+    public void shouldInterleaveSmallResponseWithBulkResponse() {
+        _channel.write(new FakeChunkedResponse("bulk", 4, 1));
+        _channel.write(new FakeChunkedResponse("small", 1, 1));
+        _channel.flush();
+
+        assertThat(outbound(), contains("bulk", "small", "bulk", "bulk", "bulk"));
+    }
+
+    @Test
+    public void shouldGiveHeavierResponsesMoreChunksPerTurn() {
+        _channel.write(new FakeChunkedResponse("light", 3, 1));
+        _channel.write(new FakeChunkedResponse("heavy", 4, 2));
+        _channel.flush();
+
+        assertThat(outbound(),
+              contains("light", "heavy", "heavy", "light", "heavy", "heavy", "light"));
+    }
+
+    private List<String> outbound() {
+        List<String> names = new ArrayList<>();
+        Object msg;
+        while ((msg = _channel.readOutbound()) != null) {
+            names.add(((XrootdResponse<?>) msg).getRequest().toString());
+        }
+        return names;
+    }
+
+    private static class FakeChunkedResponse implements ChunkedResponse {
+
+        private final XrootdRequest _request;
+        private final int _weight;
+        private int _remaining;
+
+        FakeChunkedResponse(String name, int chunks, int weight) {
+            _request = mock(XrootdRequest.class);
+            when(_request.toString()).thenReturn(name);
+            _remaining = chunks;
+            _weight = weight;
+        }
+
+        @Override
+        public XrootdRequest getRequest() {
+            return _request;
+        }
+
+        @Override
+        public XrootdResponse<?> nextChunk(ByteBufAllocator alloc) {
+            _remaining--;
+            XrootdResponse<XrootdRequest> chunk = mock(XrootdResponse.class);
+            when(chunk.getRequest()).thenReturn(_request);
+            when(chunk.getDataLength()).thenReturn(CHUNK);
+            return chunk;
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            return _remaining == 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getWeight() {
+            return _weight;
+        }
+    }
+}
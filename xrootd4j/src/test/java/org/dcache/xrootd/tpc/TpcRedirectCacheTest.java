@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Ticker;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.protocol.XrootdProtocol;
+import org.dcache.xrootd.tpc.protocol.messages.InboundRedirectResponse;
+import org.dcache.xrootd.util.OpaqueStringParser;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TpcRedirectCacheTest {
+
+    private long now;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now;
+        }
+    };
+
+    private TpcRedirectCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new TpcRedirectCache(2, 10, TimeUnit.MINUTES, ticker);
+    }
+
+    @Test
+    public void shouldGoToDataServerForFilesInSameDirectory() throws Exception {
+        cache.put(info("manager:1094", "/data/set/file1"), redirect("server1", 1095));
+
+        XrootdTpcInfo info = info("manager:1094", "/data/set/file2");
+        XrootdTpcInfo resolved = cache.resolve(info);
+
+        assertThat(resolved.getSrc(), is("server1:1095"));
+        assertThat(resolved.getLfn(), is("/data/set/file2"));
+        assertThat(resolved.getRedirectOrigin(), is(sameInstance(info)));
+        assertThat(cache.getHits(), is(1L));
+    }
+
+    @Test
+    public void shouldKeepTlsOfTransferForRedirectWithoutProtocol() throws Exception {
+        cache.put(tlsInfo("manager:1094", "/data/set/file1"), redirect("server1", 1095));
+
+        XrootdTpcInfo resolved = cache.resolve(tlsInfo("manager:1094", "/data/set/file2"));
+
+        assertThat(resolved.getSrc(), is("server1:1095"));
+        assertThat(resolved.isTls(), is(true));
+    }
+
+    @Test
+    public void shouldGoToManagerForOtherDirectoriesAndSources() throws Exception {
+        cache.put(info("manager:1094", "/data/set/file1"), redirect("server1", 1095));
+
+        XrootdTpcInfo other = info("manager:1094", "/data/other/file2");
+        XrootdTpcInfo otherSource = info("manager2:1094", "/data/set/file2");
+
+        assertThat(cache.resolve(other), is(sameInstance(other)));
+        assertThat(cache.resolve(otherSource), is(sameInstance(otherSource)));
+        assertThat(cache.getMisses(), is(2L));
+    }
+
+    @Test
+    public void shouldExpireEntries() throws Exception {
+        cache.put(info("manager:1094", "/data/set/file1"), redirect("server1", 1095));
+
+        now += TimeUnit.MINUTES.toNanos(11);
+
+        XrootdTpcInfo info = info("manager:1094", "/data/set/file2");
+        assertThat(cache.resolve(info), is(sameInstance(info)));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() throws Exception {
+        cache.put(info("manager:1094", "/a/file"), redirect("server1", 1095));
+        cache.put(info("manager:1094", "/b/file"), redirect("server2", 1095));
+        cache.resolve(info("manager:1094", "/a/other"));
+        cache.put(info("manager:1094", "/c/file"), redirect("server3", 1095));
+
+        assertThat(cache.resolve(info("manager:1094", "/a/x")).getSrc(), is("server1:1095"));
+        assertThat(cache.resolve(info("manager:1094", "/b/x")).getSrc(), is("manager:1094"));
+        assertThat(cache.resolve(info("manager:1094", "/c/x")).getSrc(), is("server3:1095"));
+    }
+
+    @Test
+    public void shouldRemoveEntryWhenDataServerFails() throws Exception {
+        cache.put(info("manager:1094", "/data/set/file1"), redirect("server1", 1095));
+        XrootdTpcInfo resolved = cache.resolve(info("manager:1094", "/data/set/file2"));
+
+        cache.invalidate(resolved);
+
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getFallbacks(), is(1L));
+    }
+
+    @Test
+    public void shouldNotCacheRedirectsFromCachedDataServers() throws Exception {
+        cache.put(info("manager:1094", "/data/set/file1"), redirect("server1", 1095));
+        XrootdTpcInfo resolved = cache.resolve(info("manager:1094", "/data/set/file2"));
+
+        cache.put(resolved, redirect("server2", 1095));
+
+        assertThat(cache.size(), is(1));
+        assertThat(resolved.copyForResume().getRedirectOrigin(), is(nullValue()));
+    }
+
+    private static XrootdTpcInfo info(String source, String lfn) throws Exception {
+        return new XrootdTpcInfo(OpaqueStringParser.getOpaqueMap(
+              "?tpc.src=" + source + "&tpc.key=token&tpc.stage=copy&tpc.lfn=" + lfn));
+    }
+
+    private static XrootdTpcInfo tlsInfo(String source, String lfn) throws Exception {
+        return new XrootdTpcInfo(OpaqueStringParser.getOpaqueMap(
+              "?tpc.src=" + source + "&tpc.key=token&tpc.stage=copy&tpc.spr=xroots&tpc.lfn="
+                    + lfn));
+    }
+
+    static InboundRedirectResponse redirect(String host, int port) throws Exception {
+        byte[] address = host.getBytes(StandardCharsets.US_ASCII);
+        ByteBuf frame = Unpooled.buffer()
+              .writeShort(1)
+              .writeShort(XrootdProtocol.kXR_redirect)
+              .writeInt(4 + address.length)
+              .writeInt(port)
+              .writeBytes(address);
+        return new InboundRedirectResponse(frame, XrootdProtocol.kXR_open);
+    }
+}
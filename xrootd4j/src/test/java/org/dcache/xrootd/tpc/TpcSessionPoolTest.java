@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.core.XrootdSessionIdentifier;
+import org.dcache.xrootd.plugins.authn.gsi.SerializableX509Credential;
+import org.dcache.xrootd.util.OpaqueStringParser;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TpcSessionPoolTest {
+
+    private TpcSessionPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new TpcSessionPool(2, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void shouldReuseReleasedSessionForSameKey() throws Exception {
+        TpcSessionPool.Session session = givenSession();
+
+        assertThat(pool.release(key("source:1094", "alice"), session, () -> {}), is(true));
+
+        assertThat(pool.acquire(key("source:1094", "alice")).get(), is(sameInstance(session)));
+        assertThat(pool.getIdleCount(), is(0));
+        assertThat(pool.getReuseCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotShareSessionsBetweenUsersOrSources() throws Exception {
+        pool.release(key("source:1094", "alice"), givenSession(), () -> {});
+
+        assertThat(pool.acquire(key("source:1094", "bob")).isPresent(), is(false));
+        assertThat(pool.acquire(key("other:1094", "alice")).isPresent(), is(false));
+        assertThat(pool.acquire(key("source:1095", "alice")).isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldLimitIdleSessionsPerHost() throws Exception {
+        int[] detached = new int[1];
+
+        pool.release(key("source:1094", "alice"), givenSession(), () -> detached[0]++);
+        pool.release(key("source:1094", "bob"), givenSession(), () -> detached[0]++);
+        boolean isPooled = pool.release(key("source:1094", "carol"), givenSession(),
+              () -> detached[0]++);
+
+        assertThat(isPooled, is(false));
+        assertThat(detached[0], is(2));
+        assertThat(pool.release(key("other:1094", "carol"), givenSession(), () -> {}), is(true));
+    }
+
+    @Test
+    public void shouldDropSessionWhenChannelCloses() throws Exception {
+        TpcSessionPool.Session session = givenSession();
+        pool.release(key("source:1094", "alice"), session, () -> {});
+
+        session.channel.close();
+
+        assertThat(pool.getIdleCount(), is(0));
+        assertThat(pool.acquire(key("source:1094", "alice")).isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldCloseSessionWhenIdleTimeoutExpires() throws Exception {
+        pool = new TpcSessionPool(2, 1, TimeUnit.MILLISECONDS);
+        TpcSessionPool.Session session = givenSession();
+        pool.release(key("source:1094", "alice"), session, () -> {});
+
+        Thread.sleep(10);
+        ((EmbeddedChannel) session.channel).runScheduledPendingTasks();
+
+        assertThat(session.channel.isOpen(), is(false));
+        assertThat(pool.getIdleCount(), is(0));
+    }
+
+    @Test
+    public void shouldCloseSessionOnUnsolicitedMessage() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new TpcSessionPool.IdleSessionHandler());
+        pool.release(key("source:1094", "alice"), givenSession(channel), () -> {});
+
+        channel.writeInbound("unexpected");
+
+        assertThat(channel.isOpen(), is(false));
+        assertThat(pool.getIdleCount(), is(0));
+    }
+
+    @Test
+    public void shouldReuseSessionForCopyOfDelegatedProxy() throws Exception {
+        X509Certificate proxy = certificate("CN=1,CN=Alice,O=Example");
+        X509Certificate user = certificate("CN=Alice,O=Example");
+        TpcSessionPool.Session session = givenSession();
+        pool.release(key("source:1094", "alice", proxy(proxy, user)), session, () -> {});
+
+        assertThat(pool.acquire(key("source:1094", "alice", proxy(proxy, user))).get(),
+              is(sameInstance(session)));
+    }
+
+    @Test
+    public void shouldNotShareSessionBetweenProxiesOfSameUser() throws Exception {
+        X509Certificate user = certificate("CN=Alice,O=Example");
+        pool.release(key("source:1094", "alice",
+              proxy(certificate("CN=1,CN=Alice,O=Example"), user)),
+              givenSession(), () -> {});
+
+        assertThat(pool.acquire(key("source:1094", "alice",
+                    proxy(certificate("CN=1,CN=Alice,O=Example"), user))).isPresent(),
+              is(false));
+    }
+
+    @Test
+    public void shouldNotShareSessionBetweenProxiesOfDifferentUsers() throws Exception {
+        pool.release(key("source:1094", "alice",
+              proxy(certificate("CN=1,CN=Alice,O=Example"), certificate("CN=Alice,O=Example"))),
+              givenSession(), () -> {});
+
+        assertThat(pool.acquire(key("source:1094", "alice",
+                    proxy(certificate("CN=1,CN=Bob,O=Example"), certificate("CN=Bob,O=Example"))))
+                    .isPresent(),
+              is(false));
+    }
+
+    private TpcSessionPool.Session givenSession() {
+        return givenSession(new EmbeddedChannel());
+    }
+
+    private TpcSessionPool.Session givenSession(EmbeddedChannel channel) {
+        return new TpcSessionPool.Session(channel, new XrootdSessionIdentifier(),
+              null, null, null, 0, 0);
+    }
+
+    private TpcSessionPool.Key key(String source, String uname) throws Exception {
+        return key(source, uname, null);
+    }
+
+    private TpcSessionPool.Key key(String source, String uname,
+          SerializableX509Credential proxy) throws Exception {
+        XrootdTpcInfo info = new XrootdTpcInfo(OpaqueStringParser.getOpaqueMap(
+              "?tpc.src=" + source + "&tpc.key=token&tpc.stage=copy"));
+        info.setDelegatedProxy(proxy);
+        return new TpcSessionPool.Key(info, uname);
+    }
+
+    private static SerializableX509Credential proxy(X509Certificate... chain) {
+        return new SerializableX509Credential(chain, mock(PrivateKey.class));
+    }
+
+    /**
+     * Certificates are compared by their encoding; distinct mocks stand in
+     *    for distinct encodings.</p>
+     */
+    private static X509Certificate certificate(String subject) {
+        return mock(X509Certificate.class, subject);
+    }
+}
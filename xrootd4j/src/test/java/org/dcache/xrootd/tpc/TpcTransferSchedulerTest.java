@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.dcache.xrootd.tpc.TpcTransferScheduler.Policy;
+import org.dcache.xrootd.tpc.TpcTransferScheduler.Slot;
+import org.dcache.xrootd.util.OpaqueStringParser;
+import org.junit.Test;
+
+public class TpcTransferSchedulerTest {
+
+    private long now;
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return now;
+        }
+    };
+
+    private final List<Slot> started = new ArrayList<>();
+
+    private TpcTransferScheduler scheduler;
+
+    @Test
+    public void shouldQueueBeyondPerSourceLimit() throws Exception {
+        givenScheduler(10, 2, 0, Policy.FIFO);
+
+        CompletableFuture<Slot> first = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> second = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> third = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> other = schedule("b:1094", "atlas");
+
+        assertThat(first.isDone(), is(true));
+        assertThat(second.isDone(), is(true));
+        assertThat(third.isDone(), is(false));
+        assertThat(other.isDone(), is(true));
+
+        now += TimeUnit.SECONDS.toNanos(3);
+        first.get().release(1000);
+
+        assertThat(third.isDone(), is(true));
+        assertThat(third.get().getQueueWait(TimeUnit.SECONDS), is(3L));
+        assertThat(scheduler.getSourceStatistics().get("a:1094").getActive(), is(2));
+        assertThat(scheduler.getSourceStatistics().get("a:1094").getMaxQueueWait(
+              TimeUnit.SECONDS), is(3L));
+    }
+
+    @Test
+    public void shouldQueueBeyondGlobalLimit() throws Exception {
+        givenScheduler(1, 10, 0, Policy.FIFO);
+
+        CompletableFuture<Slot> first = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> second = schedule("b:1094", "atlas");
+
+        assertThat(second.isDone(), is(false));
+        assertThat(scheduler.getQueued(), is(1));
+
+        first.get().release(0);
+
+        assertThat(second.isDone(), is(true));
+        assertThat(scheduler.getActive(), is(1));
+    }
+
+    @Test
+    public void shouldAlternateBetweenGroupsWithFairShare() throws Exception {
+        givenScheduler(1, 10, 0, Policy.FAIR_SHARE);
+        List<String> order = new ArrayList<>();
+
+        CompletableFuture<Slot> first = schedule("a:1094", "atlas");
+        for (int i = 0; i < 2; i++) {
+            schedule("a:1094", "atlas").thenAccept(s -> order.add(s.getGroup()));
+        }
+        for (int i = 0; i < 2; i++) {
+            schedule("a:1094", "cms").thenAccept(s -> order.add(s.getGroup()));
+        }
+
+        first.get().release(0);
+        for (int i = 0; i < 3; i++) {
+            started.get(started.size() - 1).release(0);
+        }
+
+        assertThat(order.get(0), is("cms"));
+        assertThat(order.get(1), is("atlas"));
+        assertThat(order.get(2), is("cms"));
+        assertThat(order.get(3), is("atlas"));
+    }
+
+    @Test
+    public void shouldSkipRequestsForBusySources() throws Exception {
+        givenScheduler(10, 1, 0, Policy.FIFO);
+
+        schedule("a:1094", "atlas");
+        CompletableFuture<Slot> blocked = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> free = schedule("b:1094", "atlas");
+
+        assertThat(blocked.isDone(), is(false));
+        assertThat(free.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldHoldBackTransfersWhenSourceBandwidthIsReached() throws Exception {
+        givenScheduler(10, 10, 1000, Policy.FIFO);
+
+        CompletableFuture<Slot> first = schedule("a:1094", "atlas");
+        schedule("a:1094", "atlas");
+        first.get().release(120_000);
+
+        CompletableFuture<Slot> held = schedule("a:1094", "atlas");
+
+        assertThat(scheduler.getSourceStatistics().get("a:1094").getThroughput(), is(2000L));
+        assertThat(held.isDone(), is(false));
+
+        now += TimeUnit.MINUTES.toNanos(2);
+        schedule("b:1094", "atlas").get().release(0);
+
+        assertThat(held.isDone(), is(true));
+    }
+
+    @Test
+    public void shouldHoldBackTransfersAfterLargeVolumes() throws Exception {
+        givenScheduler(10, 10, 1_000_000_000, Policy.FIFO);
+
+        CompletableFuture<Slot> first = schedule("a:1094", "atlas");
+        schedule("a:1094", "atlas");
+        first.get().release(600_000_000_000L);
+
+        CompletableFuture<Slot> held = schedule("a:1094", "atlas");
+
+        assertThat(scheduler.getSourceStatistics().get("a:1094").getThroughput(),
+              is(10_000_000_000L));
+        assertThat(held.isDone(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonPositivePerSourceLimit() {
+        givenScheduler(10, 0, 0, Policy.FIFO);
+    }
+
+    @Test
+    public void shouldDropCancelledRequests() throws Exception {
+        givenScheduler(1, 1, 0, Policy.FIFO);
+
+        CompletableFuture<Slot> first = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> cancelled = schedule("a:1094", "atlas");
+        CompletableFuture<Slot> waiting = schedule("a:1094", "atlas");
+        cancelled.cancel(false);
+
+        first.get().release(0);
+
+        assertThat(waiting.isDone(), is(true));
+        assertThat(scheduler.getQueued(), is(0));
+        assertThat(scheduler.getSourceStatistics().get("a:1094").getQueued(), is(0));
+    }
+
+    @Test
+    public void shouldWithdrawCancelledRequestsWhileAllSlotsAreTaken() throws Exception {
+        givenScheduler(1, 1, 0, Policy.FAIR_SHARE);
+
+        schedule("a:1094", "atlas");
+        schedule("b:1094", "cms").cancel(false);
+
+        assertThat(scheduler.getQueued(), is(0));
+        assertThat(scheduler.getSourceStatistics().containsKey("b:1094"), is(false));
+    }
+
+    @Test
+    public void shouldForgetSourcesOnceIdleForThroughputWindow() throws Exception {
+        givenScheduler(10, 10, 0, Policy.FIFO);
+
+        schedule("a:1094", "atlas").get().release(1000);
+        now += TimeUnit.SECONDS.toNanos(30);
+
+        assertThat(scheduler.getSourceStatistics().get("a:1094").getCompleted(), is(1L));
+
+        now += TimeUnit.SECONDS.toNanos(31);
+
+        assertThat(scheduler.getSourceStatistics().containsKey("a:1094"), is(false));
+    }
+
+    private void givenScheduler(int maxActive, int maxPerSource, long bandwidth,
+          Policy policy) {
+        scheduler = new TpcTransferScheduler(maxActive, maxPerSource, bandwidth,
+              policy, ticker);
+    }
+
+    private CompletableFuture<Slot> schedule(String source, String group)
+          throws Exception {
+        XrootdTpcInfo info = new XrootdTpcInfo(OpaqueStringParser.getOpaqueMap(
+              "?tpc.src=" + source + "&tpc.key=token&tpc.stage=copy"));
+        CompletableFuture<Slot> future = scheduler.schedule(info, group);
+        future.thenAccept(started::add);
+        return future;
+    }
+}
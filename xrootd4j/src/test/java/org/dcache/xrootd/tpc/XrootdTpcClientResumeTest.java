@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_IOError;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_NotFound;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.util.OpaqueStringParser;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XrootdTpcClientResumeTest {
+
+    private TpcDelayedSyncWriteHandler writeHandler;
+    private XrootdTpcInfo info;
+    private XrootdTpcClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        writeHandler = mock(TpcDelayedSyncWriteHandler.class);
+        when(writeHandler.resume(any(XrootdTpcClient.class))).thenReturn(true);
+        info = new XrootdTpcInfo(OpaqueStringParser.getOpaqueMap(
+              "?tpc.src=source:1094&tpc.key=token&tpc.stage=copy&tpc.cks=adler32"
+                    + "&oss.asize=1000"));
+        client = new XrootdTpcClient("user.123@client", info, writeHandler, null);
+        client.setMaxResumes(2);
+    }
+
+    @Test
+    public void shouldResumeWhenConnectionFailsMidTransfer() throws Exception {
+        client.setWriteOffset(100);
+
+        client.setError(new IOException("connection reset"));
+        client.setError(new IOException("channel closed"));
+
+        verify(writeHandler, times(1)).resume(client);
+        verify(writeHandler, never()).fireDelayedSync(anyInt(), anyString());
+    }
+
+    @Test
+    public void shouldResumeWhenResponseTimesOut() throws Exception {
+        client.setWriteOffset(100);
+
+        client.setError(new TimeoutException("no response"));
+
+        verify(writeHandler).resume(client);
+    }
+
+    @Test
+    public void shouldNotResumeBeforeAnyDataWasWritten() throws Exception {
+        client.setError(new IOException("connection refused"));
+
+        verify(writeHandler, never()).resume(any(XrootdTpcClient.class));
+        verify(writeHandler).fireDelayedSync(kXR_IOError, "connection refused");
+    }
+
+    @Test
+    public void shouldNotResumeErrorsReportedBySource() throws Exception {
+        client.setWriteOffset(100);
+
+        client.setError(new XrootdException(kXR_NotFound, "no such file"));
+
+        verify(writeHandler, never()).resume(any(XrootdTpcClient.class));
+        verify(writeHandler).fireDelayedSync(kXR_NotFound, "no such file");
+    }
+
+    @Test
+    public void shouldFailWhenHandlerDeclinesToResume() throws Exception {
+        when(writeHandler.resume(any(XrootdTpcClient.class))).thenReturn(false);
+        client.setWriteOffset(100);
+
+        client.setError(new IOException("connection reset"));
+
+        verify(writeHandler).fireDelayedSync(kXR_IOError, "connection reset");
+    }
+
+    @Test
+    public void shouldContinueFromPrecedingClient() throws Exception {
+        client.setWriteOffset(100);
+
+        XrootdTpcClient resumed = givenResumedClient(client);
+
+        assertThat(resumed.getWriteOffset(), is(100L));
+        assertThat(resumed.getResumes(), is(1));
+        assertThat(resumed.getChecksummer(), is(sameInstance(client.getChecksummer())));
+        assertThat(resumed.getInfo().getSrc(), is("source:1094"));
+        assertThat(resumed.getInfo().computeFileSize(), is(1000L));
+    }
+
+    @Test
+    public void shouldStopResumingWhenBudgetIsExhausted() throws Exception {
+        client.setWriteOffset(100);
+        XrootdTpcClient last = givenResumedClient(givenResumedClient(client));
+
+        last.setError(new IOException("connection reset"));
+
+        verify(writeHandler, never()).resume(last);
+        verify(writeHandler).fireDelayedSync(kXR_IOError, "connection reset");
+    }
+
+    @Test
+    public void shouldFallBackToSourceWhenCachedDataServerFails() throws Exception {
+        TpcRedirectCache cache = new TpcRedirectCache(10, 1, TimeUnit.HOURS);
+        cache.put(info, TpcRedirectCacheTest.redirect("server", 1095));
+        XrootdTpcClient direct = new XrootdTpcClient("user.123@client",
+              cache.resolve(info), writeHandler, null);
+        direct.setRedirectCache(cache);
+
+        direct.setError(new XrootdException(kXR_NotFound, "no such file"));
+
+        verify(writeHandler).resume(direct);
+        verify(writeHandler, never()).fireDelayedSync(anyInt(), anyString());
+        XrootdTpcClient fallback = givenResumedClient(direct);
+        assertThat(fallback.getInfo().getSrc(), is("source:1094"));
+        assertThat(fallback.getResumes(), is(0));
+        assertThat(cache.getFallbacks(), is(1L));
+        assertThat(cache.size(), is(0));
+    }
+
+    private XrootdTpcClient givenResumedClient(XrootdTpcClient preceding) {
+        XrootdTpcClient resumed = new XrootdTpcClient(preceding.getUserUrn(),
+              preceding.getInfoForResume(), writeHandler, null);
+        resumed.configureResume(preceding);
+        return resumed;
+    }
+}
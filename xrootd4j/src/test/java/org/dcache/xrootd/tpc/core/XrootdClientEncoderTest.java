@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.tpc.core;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_delete;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open_updt;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.dcache.xrootd.core.XrootdDecoder;
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
+import org.dcache.xrootd.protocol.messages.OpenRequest;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.protocol.messages.StatRequest;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundOpenRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundReadVRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundStatRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundWriteRequest;
+import org.dcache.xrootd.tpc.protocol.messages.XrootdOutboundRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XrootdClientEncoderTest {
+
+    private EmbeddedChannel _client;
+    private EmbeddedChannel _server;
+
+    @Before
+    public void setUp() {
+        _client = new EmbeddedChannel(new XrootdClientEncoder());
+        _server = new EmbeddedChannel(new XrootdDecoder());
+    }
+
+    private <T> T roundTrip(XrootdOutboundRequest request) {
+        _client.writeOutbound(request);
+        ByteBuf frame;
+        while ((frame = _client.readOutbound()) != null) {
+            _server.writeInbound(frame);
+        }
+        return _server.readInbound();
+    }
+
+    @Test
+    public void shouldEncodeStatRequest() {
+        StatRequest request = roundTrip(new OutboundStatRequest(3, "/a/b"));
+        assertThat(request.getStreamId(), is(3));
+        assertThat(request.getPath(), is("/a/b"));
+    }
+
+    @Test
+    public void shouldEncodeOpenRequest() {
+        OpenRequest request = roundTrip(
+              new OutboundOpenRequest(4, "/upload", kXR_open_updt | kXR_delete));
+        assertThat(request.getStreamId(), is(4));
+        assertThat(request.getPath(), is("/upload"));
+        assertThat(request.getOptions() & (kXR_open_updt | kXR_delete),
+              is(kXR_open_updt | kXR_delete));
+    }
+
+    @Test
+    public void shouldEncodeReadVRequest() {
+        ReadVRequest request = roundTrip(new OutboundReadVRequest(5, 7,
+              new long[]{0, 8192, 1L << 33}, new int[]{4096, 100, 1}));
+        EmbeddedReadRequest[] segments = request.getReadRequestList();
+        assertThat(segments.length, is(3));
+        assertThat(segments[1].getFileHandle(), is(7));
+        assertThat(segments[1].getOffset(), is(8192L));
+        assertThat(segments[1].BytesToRead(), is(100));
+        assertThat(segments[2].getOffset(), is(1L << 33));
+    }
+
+    @Test
+    public void shouldEncodeWriteRequest() {
+        ByteBuf data = Unpooled.copiedBuffer("payload", StandardCharsets.US_ASCII);
+        WriteRequest request = roundTrip(new OutboundWriteRequest(6, 2, 1024, data));
+        try {
+            assertThat(request.getFileHandle(), is(2));
+            assertThat(request.getWriteOffset(), is(1024L));
+            assertThat(request.getDataLength(), is(7));
+            assertThat(request.isComplete(), is(true));
+        } finally {
+            request.release();
+        }
+        assertThat(data.refCnt(), is(0));
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *  Tests bucket mapping and percentile accuracy of the latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldCountSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        assertEquals(10, histogram.getCount());
+        assertEquals(5, histogram.getValueAtPercentile(50));
+        assertEquals(10, histogram.getValueAtPercentile(100));
+        assertEquals(5.5, histogram.getMean(), 0.0);
+    }
+
+    @Test
+    public void shouldMapEveryValueToBucketContainingIt() {
+        long[] values = {0, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.highestValueOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void shouldBoundRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(Math.abs(p99 - 99_000_000L) <= 99_000_000L / 16);
+        assertEquals(100_000_000L, histogram.getMax());
+    }
+
+    @Test
+    public void shouldBeEmptyAfterReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void shouldMoveValuesToSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(1000);
+
+        LatencyHistogram snapshot = histogram.snapshotAndReset();
+        histogram.record(5);
+
+        assertEquals(2, snapshot.getCount());
+        assertEquals(1000, snapshot.getMax());
+        assertEquals(10, snapshot.getValueAtPercentile(50));
+        assertEquals(1, histogram.getCount());
+        assertEquals(5, histogram.getValueAtPercentile(100));
+    }
+}
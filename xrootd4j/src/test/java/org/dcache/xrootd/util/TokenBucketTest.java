@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2011-2024 dCache.org <support@dcache.org>
+ * 
+ * This file is part of xrootd4j.
+ * 
+ * xrootd4j is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * Lesser General Public License as published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ * 
+ * xrootd4j is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License along with xrootd4j.  If
+ * not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void shouldNeverDelayWithoutLimit() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+    }
+
+    @Test
+    public void shouldDelayInProportionToDebt() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        long delay = bucket.reserve(1_100_000);
+        assertTrue(delay > TimeUnit.MILLISECONDS.toNanos(900));
+        assertTrue(delay <= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void shouldQueueLaterReservationsBehindDebt() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        long first = bucket.reserve(1_000_000);
+        long second = bucket.reserve(1_000_000);
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void shouldLiftLimitAtRuntime() {
+        TokenBucket bucket = new TokenBucket(1_000);
+        assertTrue(bucket.reserve(10_000) > 0);
+        bucket.setRate(0);
+        assertEquals(0, bucket.reserve(10_000));
+    }
+}